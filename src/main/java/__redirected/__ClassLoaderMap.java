@@ -0,0 +1,104 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package __redirected;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A concurrent map whose keys are class loaders, compared by identity and held weakly.  Reads take no lock; entries
+ * whose class loader has been collected are removed as new entries are added.
+ *
+ * @param <V> the value type
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class __ClassLoaderMap<V> {
+
+    private final ConcurrentMap<Key, V> map = new ConcurrentHashMap<Key, V>();
+    private final ReferenceQueue<ClassLoader> queue = new ReferenceQueue<ClassLoader>();
+
+    /**
+     * Get the value for a class loader.
+     *
+     * @param loader the class loader (must not be {@code null})
+     * @return the value, or {@code null} if there is none
+     */
+    V get(ClassLoader loader) {
+        return map.get(new Key(loader, null));
+    }
+
+    /**
+     * Associate a value with a class loader, unless it already has one.
+     *
+     * @param loader the class loader (must not be {@code null})
+     * @param value the value
+     * @return the existing value, or {@code null} if the given value was stored
+     */
+    V putIfAbsent(ClassLoader loader, V value) {
+        expunge();
+        return map.putIfAbsent(new Key(loader, queue), value);
+    }
+
+    /**
+     * Remove all entries.
+     */
+    void clear() {
+        map.clear();
+        expunge();
+    }
+
+    private void expunge() {
+        Reference<? extends ClassLoader> ref;
+        while ((ref = queue.poll()) != null) {
+            map.remove(ref);
+        }
+    }
+
+    private static final class Key extends WeakReference<ClassLoader> {
+        private final int hashCode;
+
+        Key(final ClassLoader loader, final ReferenceQueue<ClassLoader> queue) {
+            super(loader, queue);
+            hashCode = System.identityHashCode(loader);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(final Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (! (obj instanceof Key)) {
+                return false;
+            }
+            final ClassLoader loader = get();
+            return loader != null && loader == ((Key) obj).get();
+        }
+    }
+}
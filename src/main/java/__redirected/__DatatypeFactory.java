@@ -28,7 +28,6 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.GregorianCalendar;
 
-import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.Duration;
 import javax.xml.datatype.XMLGregorianCalendar;
@@ -43,34 +42,29 @@ import org.jboss.modules.ModuleLoader;
  */
 @SuppressWarnings("unchecked")
 public final class __DatatypeFactory extends DatatypeFactory {
-    private static final Constructor<? extends DatatypeFactory> PLATFORM_FACTORY;
+    private static volatile Constructor<? extends DatatypeFactory> PLATFORM_FACTORY;
     private static volatile Constructor<? extends DatatypeFactory> DEFAULT_FACTORY;
 
+    /**
+     * The value of the selection property before it was redirected, if any.
+     */
+    private static final String PREVIOUS_FACTORY;
+
     static {
-        Thread thread = Thread.currentThread();
-        ClassLoader old = thread.getContextClassLoader();
-
-        // Unfortunately we can not use null because of a stupid bug in the jdk JAXP factory finder.
-        // Lack of tccl causes the provider file discovery to fallback to the jaxp loader (bootclasspath)
-        // which is correct. However, after parsing it, it then disables the fallback for the loading of the class.
-        // Thus, the class can not be found.
-        //
-        // Work around the problem by using the System CL, although in the future we may want to just "inherit"
-        // the environment's TCCL
-        thread.setContextClassLoader(ClassLoader.getSystemClassLoader());
-        try {
-            DatatypeFactory factory = DatatypeFactory.newInstance();
-            try {
-                DEFAULT_FACTORY = PLATFORM_FACTORY = factory.getClass().getConstructor();
-            } catch (NoSuchMethodException e) {
-                throw __RedirectedUtils.wrapped(new NoSuchMethodError(e.getMessage()), e);
+        PREVIOUS_FACTORY = __RedirectedUtils.redirect(DatatypeFactory.class.getName(), __DatatypeFactory.class.getName());
+    }
+
+    private static Constructor<? extends DatatypeFactory> getPlatformFactory() {
+        Constructor<? extends DatatypeFactory> factory = PLATFORM_FACTORY;
+        if (factory == null) {
+            synchronized (__DatatypeFactory.class) {
+                factory = PLATFORM_FACTORY;
+                if (factory == null) {
+                    PLATFORM_FACTORY = factory = __RedirectedUtils.lookupPlatformFactory(DatatypeFactory.class, DatatypeFactory.class.getName(), PREVIOUS_FACTORY, DatatypeFactory.DATATYPEFACTORY_IMPLEMENTATION_CLASS);
+                }
             }
-            System.setProperty(DatatypeFactory.class.getName(), __DatatypeFactory.class.getName());
-        } catch (DatatypeConfigurationException e) {
-            throw new IllegalArgumentException("Problem configuring DatatypeFactory", e);
-        } finally {
-            thread.setContextClassLoader(old);
         }
+        return factory;
     }
 
     public static void changeDefaultFactory(ModuleIdentifier id, ModuleLoader loader) {
@@ -85,7 +79,7 @@ public final class __DatatypeFactory extends DatatypeFactory {
     }
 
     public static void restorePlatformFactory() {
-        DEFAULT_FACTORY = PLATFORM_FACTORY;
+        DEFAULT_FACTORY = null;
     }
 
     /**
@@ -97,7 +91,7 @@ public final class __DatatypeFactory extends DatatypeFactory {
      * Construct a new instance.
      */
     public __DatatypeFactory() {
-        Constructor<? extends DatatypeFactory> factory = DEFAULT_FACTORY;
+        Constructor<? extends DatatypeFactory> factory = null;
         ClassLoader loader = Thread.currentThread().getContextClassLoader();
         try {
             if (loader != null) {
@@ -105,6 +99,11 @@ public final class __DatatypeFactory extends DatatypeFactory {
                 if (provider != null)
                     factory = provider.getConstructor();
             }
+            if (factory == null) {
+                factory = DEFAULT_FACTORY;
+                if (factory == null)
+                    factory = getPlatformFactory();
+            }
 
             actual = factory.newInstance();
         } catch (InstantiationException e) {
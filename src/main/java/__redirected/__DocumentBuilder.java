@@ -0,0 +1,160 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package __redirected;
+
+import java.io.IOException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.validation.Schema;
+
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * A document builder which borrows a pooled builder for each parse.  The caller's entity resolver and error handler
+ * are applied to whichever builder is borrowed, and the builder is reset before it is returned to the pool.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class __DocumentBuilder extends DocumentBuilder {
+    private final __ParserPool<DocumentBuilder> pool;
+    private DocumentBuilder current;
+    private EntityResolver entityResolver;
+    private boolean entityResolverSet;
+    private ErrorHandler errorHandler;
+    private boolean errorHandlerSet;
+
+    __DocumentBuilder(final __ParserPool<DocumentBuilder> pool, final DocumentBuilder current) {
+        this.pool = pool;
+        this.current = current;
+    }
+
+    static __ParserPool<DocumentBuilder> createPool(final DocumentBuilderFactory template) {
+        return new __ParserPool<DocumentBuilder>() {
+            DocumentBuilder create() throws Exception {
+                synchronized (template) {
+                    return template.newDocumentBuilder();
+                }
+            }
+
+            boolean reset(final DocumentBuilder parser) {
+                try {
+                    parser.reset();
+                    return true;
+                } catch (UnsupportedOperationException e) {
+                    return false;
+                }
+            }
+        };
+    }
+
+    private DocumentBuilder borrow() throws SAXException {
+        final DocumentBuilder builder;
+        try {
+            builder = pool.borrow();
+        } catch (SAXException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SAXException(e);
+        }
+        if (entityResolverSet) builder.setEntityResolver(entityResolver);
+        if (errorHandlerSet) builder.setErrorHandler(errorHandler);
+        return builder;
+    }
+
+    private DocumentBuilder current() {
+        DocumentBuilder builder = current;
+        if (builder == null) try {
+            current = builder = borrow();
+        } catch (SAXException e) {
+            throw new IllegalStateException(e);
+        }
+        return builder;
+    }
+
+    public Document parse(final InputSource is) throws SAXException, IOException {
+        // take the current builder, so a nested parse from a callback borrows another
+        DocumentBuilder builder = current;
+        current = null;
+        if (builder == null) {
+            builder = borrow();
+        }
+        try {
+            return builder.parse(is);
+        } finally {
+            pool.release(builder);
+        }
+    }
+
+    public boolean isNamespaceAware() {
+        return current().isNamespaceAware();
+    }
+
+    public boolean isValidating() {
+        return current().isValidating();
+    }
+
+    public void setEntityResolver(final EntityResolver er) {
+        entityResolver = er;
+        entityResolverSet = true;
+        if (current != null) current.setEntityResolver(er);
+    }
+
+    public void setErrorHandler(final ErrorHandler eh) {
+        errorHandler = eh;
+        errorHandlerSet = true;
+        if (current != null) current.setErrorHandler(eh);
+    }
+
+    public Document newDocument() {
+        return current().newDocument();
+    }
+
+    public DOMImplementation getDOMImplementation() {
+        return current().getDOMImplementation();
+    }
+
+    public void reset() {
+        entityResolver = null;
+        entityResolverSet = false;
+        errorHandler = null;
+        errorHandlerSet = false;
+        if (current != null) current.reset();
+    }
+
+    public Schema getSchema() {
+        return current().getSchema();
+    }
+
+    public boolean isXIncludeAware() {
+        return current().isXIncludeAware();
+    }
+}
@@ -24,6 +24,8 @@ package __redirected;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -40,32 +42,40 @@ import org.jboss.modules.ModuleLoader;
  * @author Jason T. Greene
  */
 public final class __DocumentBuilderFactory extends DocumentBuilderFactory {
-    private static final Constructor<? extends DocumentBuilderFactory> PLATFORM_FACTORY;
+    private static final String NAMESPACE_AWARE = "namespaceAware";
+    private static final String VALIDATING = "validating";
+    private static final String IGNORING_ELEMENT_CONTENT_WHITESPACE = "ignoringElementContentWhitespace";
+    private static final String EXPAND_ENTITY_REFERENCES = "expandEntityReferences";
+    private static final String IGNORING_COMMENTS = "ignoringComments";
+    private static final String COALESCING = "coalescing";
+    private static final String SCHEMA = "schema";
+    private static final String XINCLUDE_AWARE = "xIncludeAware";
+    private static final String ATTRIBUTE = "attribute ";
+    private static final String FEATURE = "feature ";
+
+    private static volatile Constructor<? extends DocumentBuilderFactory> PLATFORM_FACTORY;
     private static volatile Constructor<? extends DocumentBuilderFactory> DEFAULT_FACTORY;
 
+    /**
+     * The value of the selection property before it was redirected, if any.
+     */
+    private static final String PREVIOUS_FACTORY;
+
     static {
-        Thread thread = Thread.currentThread();
-        ClassLoader old = thread.getContextClassLoader();
-
-        // Unfortunately we can not use null because of a stupid bug in the jdk JAXP factory finder.
-        // Lack of tccl causes the provider file discovery to fallback to the jaxp loader (bootclasspath)
-        // which is correct. However, after parsing it, it then disables the fallback for the loading of the class.
-        // Thus, the class can not be found.
-        //
-        // Work around the problem by using the System CL, although in the future we may want to just "inherit"
-        // the environment's TCCL
-        thread.setContextClassLoader(ClassLoader.getSystemClassLoader());
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            try {
-                DEFAULT_FACTORY = PLATFORM_FACTORY = factory.getClass().getConstructor();
-            } catch (NoSuchMethodException e) {
-                throw __RedirectedUtils.wrapped(new NoSuchMethodError(e.getMessage()), e);
+        PREVIOUS_FACTORY = __RedirectedUtils.redirect(DocumentBuilderFactory.class.getName(), __DocumentBuilderFactory.class.getName());
+    }
+
+    private static Constructor<? extends DocumentBuilderFactory> getPlatformFactory() {
+        Constructor<? extends DocumentBuilderFactory> factory = PLATFORM_FACTORY;
+        if (factory == null) {
+            synchronized (__DocumentBuilderFactory.class) {
+                factory = PLATFORM_FACTORY;
+                if (factory == null) {
+                    PLATFORM_FACTORY = factory = __RedirectedUtils.lookupPlatformFactory(DocumentBuilderFactory.class, DocumentBuilderFactory.class.getName(), PREVIOUS_FACTORY, "com.sun.org.apache.xerces.internal.jaxp.DocumentBuilderFactoryImpl");
+                }
             }
-            System.setProperty(DocumentBuilderFactory.class.getName(), __DocumentBuilderFactory.class.getName());
-        } finally {
-            thread.setContextClassLoader(old);
         }
+        return factory;
     }
 
     /**
@@ -85,14 +95,14 @@ public final class __DocumentBuilderFactory extends DocumentBuilderFactory {
     }
 
     public static void restorePlatformFactory() {
-        DEFAULT_FACTORY = PLATFORM_FACTORY;
+        DEFAULT_FACTORY = null;
     }
 
     /**
      * Construct a new instance.
      */
     public __DocumentBuilderFactory() {
-        Constructor<? extends DocumentBuilderFactory> factory = DEFAULT_FACTORY;
+        Constructor<? extends DocumentBuilderFactory> factory = null;
         ClassLoader loader = Thread.currentThread().getContextClassLoader();
         try {
             if (loader != null) {
@@ -100,8 +110,20 @@ public final class __DocumentBuilderFactory extends DocumentBuilderFactory {
                 if (provider != null)
                     factory = provider.getConstructor();
             }
+            if (factory == null) {
+                factory = DEFAULT_FACTORY;
+                if (factory == null)
+                    factory = getPlatformFactory();
+            }
 
-            actual = factory.newInstance();
+            if (__ParserPool.isPooled(factory)) {
+                actual = __ParserPool.getSharedFactory(factory);
+                shared = true;
+                settings = new ArrayList<Object>();
+            } else {
+                actual = factory.newInstance();
+            }
+            constructor = factory;
         } catch (InstantiationException e) {
             throw __RedirectedUtils.wrapped(new InstantiationError(e.getMessage()), e);
         } catch (IllegalAccessException e) {
@@ -113,34 +135,123 @@ public final class __DocumentBuilderFactory extends DocumentBuilderFactory {
         }
     }
 
-    private final DocumentBuilderFactory actual;
+    private final Constructor<? extends DocumentBuilderFactory> constructor;
+    private DocumentBuilderFactory actual;
+    /**
+     * {@code true} if the actual factory is the pooled, shared one, which must be replaced before it is configured.
+     */
+    private boolean shared;
+    /**
+     * The settings applied so far, as name and value pairs, or {@code null} if this factory's builders are not pooled.
+     */
+    private List<Object> settings;
+
+    private DocumentBuilderFactory configurable() {
+        if (shared) {
+            actual = __RedirectedUtils.newInstance(constructor);
+            shared = false;
+        }
+        return actual;
+    }
+
+    private void record(final String name, final Object value) {
+        if (settings != null) {
+            if (__ParserPool.isKeyValue(value)) {
+                settings.add(name);
+                settings.add(value);
+            } else {
+                settings = null;
+            }
+        }
+    }
+
+    private DocumentBuilderFactory replay(final List<Object> settings) throws ParserConfigurationException {
+        final DocumentBuilderFactory factory = __RedirectedUtils.newInstance(constructor);
+        for (int i = 0; i < settings.size(); i += 2) {
+            final String name = (String) settings.get(i);
+            final Object value = settings.get(i + 1);
+            if (name.startsWith(ATTRIBUTE)) {
+                factory.setAttribute(name.substring(ATTRIBUTE.length()), value);
+            } else if (name.startsWith(FEATURE)) {
+                factory.setFeature(name.substring(FEATURE.length()), ((Boolean) value).booleanValue());
+            } else if (name.equals(SCHEMA)) {
+                factory.setSchema(null);
+            } else {
+                final boolean flag = ((Boolean) value).booleanValue();
+                if (name.equals(NAMESPACE_AWARE)) {
+                    factory.setNamespaceAware(flag);
+                } else if (name.equals(VALIDATING)) {
+                    factory.setValidating(flag);
+                } else if (name.equals(IGNORING_ELEMENT_CONTENT_WHITESPACE)) {
+                    factory.setIgnoringElementContentWhitespace(flag);
+                } else if (name.equals(EXPAND_ENTITY_REFERENCES)) {
+                    factory.setExpandEntityReferences(flag);
+                } else if (name.equals(IGNORING_COMMENTS)) {
+                    factory.setIgnoringComments(flag);
+                } else if (name.equals(COALESCING)) {
+                    factory.setCoalescing(flag);
+                } else if (name.equals(XINCLUDE_AWARE)) {
+                    factory.setXIncludeAware(flag);
+                }
+            }
+        }
+        return factory;
+    }
 
     public DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
-        return actual.newDocumentBuilder();
+        final List<Object> settings = this.settings;
+        if (settings == null) {
+            return actual.newDocumentBuilder();
+        }
+        final List<Object> key = new ArrayList<Object>(settings.size() + 1);
+        key.add(constructor.getDeclaringClass());
+        key.addAll(settings);
+        __ParserPool<DocumentBuilder> pool = __ParserPool.getPool(key);
+        if (pool != null && pool.isEnabled()) {
+            return new __DocumentBuilder(pool, null);
+        }
+        final DocumentBuilder builder;
+        if (shared) {
+            synchronized (actual) {
+                builder = actual.newDocumentBuilder();
+            }
+        } else {
+            builder = actual.newDocumentBuilder();
+        }
+        if (pool == null) {
+            pool = __ParserPool.addPool(key, __DocumentBuilder.createPool(shared ? actual : replay(settings)), builder);
+        }
+        return pool == null || ! pool.isEnabled() ? builder : new __DocumentBuilder(pool, builder);
     }
 
     public void setNamespaceAware(final boolean awareness) {
-        actual.setNamespaceAware(awareness);
+        configurable().setNamespaceAware(awareness);
+        record(NAMESPACE_AWARE, Boolean.valueOf(awareness));
     }
 
     public void setValidating(final boolean validating) {
-        actual.setValidating(validating);
+        configurable().setValidating(validating);
+        record(VALIDATING, Boolean.valueOf(validating));
     }
 
     public void setIgnoringElementContentWhitespace(final boolean whitespace) {
-        actual.setIgnoringElementContentWhitespace(whitespace);
+        configurable().setIgnoringElementContentWhitespace(whitespace);
+        record(IGNORING_ELEMENT_CONTENT_WHITESPACE, Boolean.valueOf(whitespace));
     }
 
     public void setExpandEntityReferences(final boolean expandEntityRef) {
-        actual.setExpandEntityReferences(expandEntityRef);
+        configurable().setExpandEntityReferences(expandEntityRef);
+        record(EXPAND_ENTITY_REFERENCES, Boolean.valueOf(expandEntityRef));
     }
 
     public void setIgnoringComments(final boolean ignoreComments) {
-        actual.setIgnoringComments(ignoreComments);
+        configurable().setIgnoringComments(ignoreComments);
+        record(IGNORING_COMMENTS, Boolean.valueOf(ignoreComments));
     }
 
     public void setCoalescing(final boolean coalescing) {
-        actual.setCoalescing(coalescing);
+        configurable().setCoalescing(coalescing);
+        record(COALESCING, Boolean.valueOf(coalescing));
     }
 
     public boolean isNamespaceAware() {
@@ -168,7 +279,8 @@ public final class __DocumentBuilderFactory extends DocumentBuilderFactory {
     }
 
     public void setAttribute(final String name, final Object value) throws IllegalArgumentException {
-        actual.setAttribute(name, value);
+        configurable().setAttribute(name, value);
+        record(ATTRIBUTE + name, value);
     }
 
     public Object getAttribute(final String name) throws IllegalArgumentException {
@@ -176,7 +288,8 @@ public final class __DocumentBuilderFactory extends DocumentBuilderFactory {
     }
 
     public void setFeature(final String name, final boolean value) throws ParserConfigurationException {
-        actual.setFeature(name, value);
+        configurable().setFeature(name, value);
+        record(FEATURE + name, Boolean.valueOf(value));
     }
 
     public boolean getFeature(final String name) throws ParserConfigurationException {
@@ -188,11 +301,13 @@ public final class __DocumentBuilderFactory extends DocumentBuilderFactory {
     }
 
     public void setSchema(final Schema schema) {
-        actual.setSchema(schema);
+        configurable().setSchema(schema);
+        record(SCHEMA, schema);
     }
 
     public void setXIncludeAware(final boolean state) {
-        actual.setXIncludeAware(state);
+        configurable().setXIncludeAware(state);
+        record(XINCLUDE_AWARE, Boolean.valueOf(state));
     }
 
     public boolean isXIncludeAware() {
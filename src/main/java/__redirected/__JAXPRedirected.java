@@ -40,6 +40,8 @@ public class __JAXPRedirected {
      * @param loader the loader containing the jaxp module
      */
     public static void changeAll(ModuleIdentifier id, ModuleLoader loader) {
+        __RedirectedUtils.clearProviderCache();
+        __ParserPool.clearAll();
         __DocumentBuilderFactory.changeDefaultFactory(id, loader);
         __SAXParserFactory.changeDefaultFactory(id, loader);
         __XMLEventFactory.changeDefaultFactory(id, loader);
@@ -56,6 +58,8 @@ public class __JAXPRedirected {
      * system classpath.
      */
     public static void restorePlatformFactory() {
+        __RedirectedUtils.clearProviderCache();
+        __ParserPool.clearAll();
         __DocumentBuilderFactory.restorePlatformFactory();
         __SAXParserFactory.restorePlatformFactory();
         __XMLEventFactory.restorePlatformFactory();
@@ -0,0 +1,225 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package __redirected;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A pool of reusable parsers, all created from one configured template factory.  Pooling is enabled by setting the
+ * {@code jboss.modules.jaxp.pool} system property to {@code true}; when it is enabled, the redirected factories share
+ * one unconfigured delegate factory per provider class, and hand out parsers which borrow a pooled parser for each
+ * parse.
+ * <p>
+ * Pools are keyed by the provider class and the ordered list of settings applied to the factory, so a parser is only
+ * ever reused by callers which configured their factory identically.  Only the platform's own providers, loaded by the
+ * bootstrap or system class loader, are pooled: the pools are never emptied on their own, and would otherwise keep
+ * the class loader of a module provider reachable for good.
+ *
+ * @param <P> the parser type
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+abstract class __ParserPool<P> {
+
+    private static volatile boolean poolingEnabled;
+
+    private static final int MAX_POOLS = 64;
+    private static final int MAX_IDLE = 8;
+
+    private static final ConcurrentMap<Class<?>, Object> sharedFactories = new ConcurrentHashMap<Class<?>, Object>();
+    private static final ConcurrentMap<List<Object>, __ParserPool<?>> pools = new ConcurrentHashMap<List<Object>, __ParserPool<?>>();
+
+    private static final ClassLoader SYSTEM_LOADER;
+
+    static {
+        poolingEnabled = Boolean.parseBoolean(AccessController.doPrivileged(new PrivilegedAction<String>() {
+            public String run() {
+                return System.getProperty("jboss.modules.jaxp.pool");
+            }
+        }));
+        SYSTEM_LOADER = AccessController.doPrivileged(new PrivilegedAction<ClassLoader>() {
+            public ClassLoader run() {
+                return ClassLoader.getSystemClassLoader();
+            }
+        });
+    }
+
+    /**
+     * Turn pooling on or off for factories created from now on.  For testing.
+     *
+     * @param enabled {@code true} to pool parsers
+     */
+    static void setEnabled(boolean enabled) {
+        poolingEnabled = enabled;
+    }
+
+    /**
+     * Determine whether the parsers of a provider are pooled.
+     *
+     * @param constructor the provider constructor
+     * @return {@code true} if pooling is enabled and the provider belongs to the platform
+     */
+    static boolean isPooled(Constructor<?> constructor) {
+        if (! poolingEnabled) {
+            return false;
+        }
+        final ClassLoader loader = constructor.getDeclaringClass().getClassLoader();
+        return loader == null || loader == SYSTEM_LOADER;
+    }
+
+    private final Object[] idle = new Object[MAX_IDLE];
+    private int idleCount;
+    private volatile boolean enabled = true;
+
+    /**
+     * Create a new parser from the template factory.
+     *
+     * @return the new parser
+     * @throws Exception if the parser could not be created
+     */
+    abstract P create() throws Exception;
+
+    /**
+     * Reset a parser to the state in which it was created.
+     *
+     * @param parser the parser
+     * @return {@code true} if the parser was reset, {@code false} if it does not support being reset
+     */
+    abstract boolean reset(P parser);
+
+    /**
+     * Determine whether this pool is in use.  A pool is disabled if the provider's parsers cannot be reset.
+     *
+     * @return {@code true} if parsers should be borrowed from this pool
+     */
+    final boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Take an idle parser from the pool, or create a new one.
+     *
+     * @return the parser
+     * @throws Exception if a new parser could not be created
+     */
+    @SuppressWarnings("unchecked")
+    final P borrow() throws Exception {
+        synchronized (idle) {
+            if (idleCount > 0) {
+                final P parser = (P) idle[--idleCount];
+                idle[idleCount] = null;
+                return parser;
+            }
+        }
+        return create();
+    }
+
+    /**
+     * Reset a parser and return it to the pool.  Parsers which cannot be reset, or which do not fit, are discarded.
+     *
+     * @param parser the parser
+     */
+    final void release(P parser) {
+        if (! reset(parser)) {
+            return;
+        }
+        synchronized (idle) {
+            if (idleCount < MAX_IDLE) {
+                idle[idleCount++] = parser;
+            }
+        }
+    }
+
+    /**
+     * Get the shared unconfigured factory for a provider, creating it if necessary.  The shared factory must never
+     * be configured.
+     *
+     * @param constructor the provider constructor
+     * @return the shared factory
+     */
+    static <F> F getSharedFactory(Constructor<? extends F> constructor) throws InstantiationException, IllegalAccessException, InvocationTargetException {
+        final Class<? extends F> provider = constructor.getDeclaringClass();
+        Object factory = sharedFactories.get(provider);
+        if (factory == null) {
+            factory = constructor.newInstance();
+            if (sharedFactories.size() < MAX_POOLS) {
+                final Object appearing = sharedFactories.putIfAbsent(provider, factory);
+                if (appearing != null) {
+                    factory = appearing;
+                }
+            }
+        }
+        return provider.cast(factory);
+    }
+
+    @SuppressWarnings("unchecked")
+    static <P> __ParserPool<P> getPool(List<Object> key) {
+        return (__ParserPool<P>) pools.get(key);
+    }
+
+    /**
+     * Register a new pool.  The pool is disabled if the given parser, which was just created with the same
+     * configuration, cannot be reset.
+     *
+     * @param key the pool key
+     * @param pool the new pool
+     * @param first a new parser from the pool's configuration
+     * @return the registered pool, which may have been registered concurrently, or {@code null} if there are too many
+     */
+    @SuppressWarnings("unchecked")
+    static <P> __ParserPool<P> addPool(List<Object> key, __ParserPool<P> pool, P first) {
+        if (pools.size() >= MAX_POOLS) {
+            return null;
+        }
+        if (! pool.reset(first)) {
+            pool.enabled = false;
+        }
+        final __ParserPool<?> appearing = pools.putIfAbsent(key, pool);
+        return appearing == null ? pool : (__ParserPool<P>) appearing;
+    }
+
+    /**
+     * Drop all shared factories and pooled parsers, so that they do not keep replaced providers reachable.
+     */
+    static void clearAll() {
+        sharedFactories.clear();
+        pools.clear();
+    }
+
+    /**
+     * Determine whether a setting value can be part of a pool key.
+     *
+     * @param value the value
+     * @return {@code true} if the value has a meaningful {@code equals} method
+     */
+    static boolean isKeyValue(Object value) {
+        return value == null || value instanceof Boolean || value instanceof String || value instanceof Number;
+    }
+}
@@ -23,10 +23,20 @@
 package __redirected;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.jboss.modules.Module;
 import org.jboss.modules.ModuleClassLoader;
@@ -42,6 +52,17 @@ import org.jboss.modules.ModuleLoader;
  */
 public final class __RedirectedUtils {
 
+    /**
+     * The cached result for an interface which has no loadable provider.
+     */
+    private static final WeakReference<Class<?>> NO_PROVIDER = new WeakReference<Class<?>>(null);
+
+    /**
+     * The provider class found for each interface, per class loader.  Provider classes are held weakly, since they
+     * usually belong to the class loader which is the key.
+     */
+    private static final __ClassLoaderMap<ConcurrentMap<Class<?>, WeakReference<Class<?>>>> providerCache = new __ClassLoaderMap<ConcurrentMap<Class<?>, WeakReference<Class<?>>>>();
+
     static RuntimeException rethrowCause(Throwable t) throws Error {
         try {
             throw t.getCause();
@@ -54,6 +75,18 @@ public final class __RedirectedUtils {
         }
     }
 
+    static <T> T newInstance(Constructor<? extends T> constructor) {
+        try {
+            return constructor.newInstance();
+        } catch (InstantiationException e) {
+            throw wrapped(new InstantiationError(e.getMessage()), e);
+        } catch (IllegalAccessException e) {
+            throw wrapped(new IllegalAccessError(e.getMessage()), e);
+        } catch (InvocationTargetException e) {
+            throw rethrowCause(e);
+        }
+    }
+
     static <E extends Throwable> E wrapped(E e, Throwable orig) {
         Throwable cause = orig.getCause();
         if (cause != null) {
@@ -63,6 +96,56 @@ public final class __RedirectedUtils {
         return e;
     }
 
+    /**
+     * Point the system property which selects a JAXP factory implementation at a redirected factory.
+     *
+     * @param propertyName the name of the system property which selects the factory implementation
+     * @param redirectedName the class name of the redirected factory
+     * @return the previous value of the property, or {@code null} if it was not set or was already redirected
+     */
+    static String redirect(String propertyName, String redirectedName) {
+        final String previous = System.getProperty(propertyName);
+        System.setProperty(propertyName, redirectedName);
+        return redirectedName.equals(previous) ? null : previous;
+    }
+
+    /**
+     * Find the constructor of the platform factory for a JAXP interface.  The implementation is chosen the way the
+     * platform would have chosen it had the property not been redirected: the property value from before redirection,
+     * then {@code jaxp.properties}, then the first provider named by the system class loader's
+     * {@code META-INF/services}, and finally the implementation built into the JDK.  The redirection property itself
+     * is left alone.
+     *
+     * @param intf the JAXP factory class
+     * @param propertyName the name of the system property which selects the factory implementation
+     * @param previousName the value of the property from before redirection, or {@code null} if it was not set
+     * @param builtInName the class name of the implementation built into the JDK
+     * @return the platform factory constructor
+     */
+    static <T> Constructor<? extends T> lookupPlatformFactory(Class<T> intf, String propertyName, String previousName, String builtInName) {
+        // Resolve against the system class loader; the JDK's own lookup uses the TCCL, which is not usable here
+        final ClassLoader systemLoader = ClassLoader.getSystemClassLoader();
+        String name = previousName;
+        if (name == null) {
+            name = JaxpProperties.PROPERTIES.getProperty(propertyName);
+        }
+        if (name == null) {
+            name = findProviderClassName(intf, systemLoader);
+        }
+        if (name == null) {
+            name = builtInName;
+        }
+        try {
+            return Class.forName(name.trim(), false, systemLoader).asSubclass(intf).getConstructor();
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Problem configuring " + intf.getSimpleName() + ": provider " + name + " not found", e);
+        } catch (ClassCastException e) {
+            throw new IllegalArgumentException("Problem configuring " + intf.getSimpleName() + ": provider " + name + " is not a subtype", e);
+        } catch (NoSuchMethodException e) {
+            throw wrapped(new NoSuchMethodError(e.getMessage()), e);
+        }
+    }
+
     static <T> Class<? extends T> loadProvider(ModuleIdentifier id, Class<T> intf, ModuleLoader moduleLoader) {
         Module module;
         try {
@@ -76,7 +159,41 @@ public final class __RedirectedUtils {
         return loadProvider(intf, classLoader);
     }
 
-     static <T> Class<? extends T> loadProvider(Class<T> intf, ClassLoader classLoader) {
+    static <T> Class<? extends T> loadProvider(Class<T> intf, ClassLoader classLoader) {
+        ConcurrentMap<Class<?>, WeakReference<Class<?>>> providers = providerCache.get(classLoader);
+        if (providers == null) {
+            providers = new ConcurrentHashMap<Class<?>, WeakReference<Class<?>>>();
+            final ConcurrentMap<Class<?>, WeakReference<Class<?>>> appearing = providerCache.putIfAbsent(classLoader, providers);
+            if (appearing != null) {
+                providers = appearing;
+            }
+        }
+        final WeakReference<Class<?>> ref = providers.get(intf);
+        if (ref == NO_PROVIDER) {
+            return null;
+        }
+        Class<?> cached;
+        if (ref != null && (cached = ref.get()) != null) {
+            return cached.asSubclass(intf);
+        }
+        final Class<? extends T> clazz = findProvider(intf, classLoader);
+        if (clazz != null) {
+            providers.put(intf, new WeakReference<Class<?>>(clazz));
+        } else if (! (classLoader instanceof ModuleClassLoader)) {
+            // a module may gain a provider when it is relinked, so only other class loaders remember a miss
+            providers.put(intf, NO_PROVIDER);
+        }
+        return clazz;
+    }
+
+    /**
+     * Clear the cached provider classes, so that each class loader is searched again.
+     */
+    static void clearProviderCache() {
+        providerCache.clear();
+    }
+
+    private static <T> Class<? extends T> findProvider(Class<T> intf, ClassLoader classLoader) {
         String name = findProviderClassName(intf, classLoader);
 
         if (name == null) {
@@ -138,4 +255,45 @@ public final class __RedirectedUtils {
         }
     }
 
+    /**
+     * The contents of the JDK's {@code jaxp.properties} file, read on first use.
+     */
+    private static final class JaxpProperties {
+        static final Properties PROPERTIES;
+
+        static {
+            PROPERTIES = AccessController.doPrivileged(new PrivilegedAction<Properties>() {
+                public Properties run() {
+                    final Properties properties = new Properties();
+                    final String javaHome = System.getProperty("java.home");
+                    if (javaHome != null) {
+                        // lib on Java 8 and earlier, conf afterwards
+                        if (! load(properties, new File(javaHome, "lib" + File.separator + "jaxp.properties"))) {
+                            load(properties, new File(javaHome, "conf" + File.separator + "jaxp.properties"));
+                        }
+                    }
+                    return properties;
+                }
+            });
+        }
+
+        private static boolean load(final Properties properties, final File file) {
+            if (! file.isFile()) {
+                return false;
+            }
+            try {
+                final InputStream stream = new FileInputStream(file);
+                try {
+                    properties.load(stream);
+                } finally {
+                    stream.close();
+                }
+            } catch (IOException ignored) {
+            }
+            return true;
+        }
+
+        private JaxpProperties() {
+        }
+    }
 }
@@ -0,0 +1,181 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package __redirected;
+
+import java.io.IOException;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.validation.Schema;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A SAX parser which borrows a pooled parser for each parse.  Once the caller obtains the underlying reader or
+ * changes a property, the parser it is using is pinned to this instance and never returned to the pool.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class __SAXParser extends SAXParser {
+    private final __ParserPool<SAXParser> pool;
+    private SAXParser current;
+    private boolean pinned;
+
+    __SAXParser(final __ParserPool<SAXParser> pool, final SAXParser current) {
+        this.pool = pool;
+        this.current = current;
+    }
+
+    static __ParserPool<SAXParser> createPool(final SAXParserFactory template) {
+        return new __ParserPool<SAXParser>() {
+            SAXParser create() throws Exception {
+                synchronized (template) {
+                    return template.newSAXParser();
+                }
+            }
+
+            boolean reset(final SAXParser parser) {
+                try {
+                    parser.reset();
+                    return true;
+                } catch (UnsupportedOperationException e) {
+                    return false;
+                }
+            }
+        };
+    }
+
+    private SAXParser borrow() throws SAXException {
+        try {
+            return pool.borrow();
+        } catch (SAXException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SAXException(e);
+        }
+    }
+
+    private SAXParser current() throws SAXException {
+        SAXParser parser = current;
+        if (parser == null) {
+            current = parser = borrow();
+        }
+        return parser;
+    }
+
+    private SAXParser pin() throws SAXException {
+        final SAXParser parser = current();
+        pinned = true;
+        return parser;
+    }
+
+    private SAXParser take() throws SAXException {
+        if (pinned) {
+            return current;
+        }
+        // take the current parser, so a nested parse from a callback borrows another
+        final SAXParser parser = current;
+        current = null;
+        return parser == null ? borrow() : parser;
+    }
+
+    private void done(final SAXParser parser) {
+        if (! pinned || parser != current) {
+            pool.release(parser);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void parse(final InputSource is, final org.xml.sax.HandlerBase hb) throws SAXException, IOException {
+        final SAXParser parser = take();
+        try {
+            parser.parse(is, hb);
+        } finally {
+            done(parser);
+        }
+    }
+
+    public void parse(final InputSource is, final DefaultHandler dh) throws SAXException, IOException {
+        final SAXParser parser = take();
+        try {
+            parser.parse(is, dh);
+        } finally {
+            done(parser);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public org.xml.sax.Parser getParser() throws SAXException {
+        return pin().getParser();
+    }
+
+    public XMLReader getXMLReader() throws SAXException {
+        return pin().getXMLReader();
+    }
+
+    public boolean isNamespaceAware() {
+        return unchecked().isNamespaceAware();
+    }
+
+    public boolean isValidating() {
+        return unchecked().isValidating();
+    }
+
+    public void setProperty(final String name, final Object value) throws SAXNotRecognizedException, SAXNotSupportedException {
+        final SAXParser parser = unchecked();
+        pinned = true;
+        parser.setProperty(name, value);
+    }
+
+    public Object getProperty(final String name) throws SAXNotRecognizedException, SAXNotSupportedException {
+        return unchecked().getProperty(name);
+    }
+
+    public void reset() {
+        if (current != null) current.reset();
+    }
+
+    public Schema getSchema() {
+        return unchecked().getSchema();
+    }
+
+    public boolean isXIncludeAware() {
+        return unchecked().isXIncludeAware();
+    }
+
+    private SAXParser unchecked() {
+        try {
+            return current();
+        } catch (SAXException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
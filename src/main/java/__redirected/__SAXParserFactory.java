@@ -24,6 +24,8 @@ package __redirected;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -43,32 +45,35 @@ import org.xml.sax.SAXNotSupportedException;
  * @authore Jason T. Greene
  */
 public final class __SAXParserFactory extends SAXParserFactory {
-    private static final Constructor<? extends SAXParserFactory> PLATFORM_FACTORY;
+    private static final String NAMESPACE_AWARE = "namespaceAware";
+    private static final String VALIDATING = "validating";
+    private static final String SCHEMA = "schema";
+    private static final String XINCLUDE_AWARE = "xIncludeAware";
+    private static final String FEATURE = "feature ";
+
+    private static volatile Constructor<? extends SAXParserFactory> PLATFORM_FACTORY;
     private static volatile Constructor<? extends SAXParserFactory> DEFAULT_FACTORY;
 
+    /**
+     * The value of the selection property before it was redirected, if any.
+     */
+    private static final String PREVIOUS_FACTORY;
+
     static {
-        Thread thread = Thread.currentThread();
-        ClassLoader old = thread.getContextClassLoader();
-
-        // Unfortunately we can not use null because of a stupid bug in the jdk JAXP factory finder.
-        // Lack of tccl causes the provider file discovery to fallback to the jaxp loader (bootclasspath)
-        // which is correct. However, after parsing it, it then disables the fallback for the loading of the class.
-        // Thus, the class can not be found.
-        //
-        // Work around the problem by using the System CL, although in the future we may want to just "inherit"
-        // the environment's TCCL
-        thread.setContextClassLoader(ClassLoader.getSystemClassLoader());
-        try {
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            try {
-               DEFAULT_FACTORY = PLATFORM_FACTORY = factory.getClass().getConstructor();
-            } catch (NoSuchMethodException e) {
-                throw __RedirectedUtils.wrapped(new NoSuchMethodError(e.getMessage()), e);
+        PREVIOUS_FACTORY = __RedirectedUtils.redirect(SAXParserFactory.class.getName(), __SAXParserFactory.class.getName());
+    }
+
+    private static Constructor<? extends SAXParserFactory> getPlatformFactory() {
+        Constructor<? extends SAXParserFactory> factory = PLATFORM_FACTORY;
+        if (factory == null) {
+            synchronized (__SAXParserFactory.class) {
+                factory = PLATFORM_FACTORY;
+                if (factory == null) {
+                    PLATFORM_FACTORY = factory = __RedirectedUtils.lookupPlatformFactory(SAXParserFactory.class, SAXParserFactory.class.getName(), PREVIOUS_FACTORY, "com.sun.org.apache.xerces.internal.jaxp.SAXParserFactoryImpl");
+                }
             }
-            System.setProperty(SAXParserFactory.class.getName(), __SAXParserFactory.class.getName());
-        } finally {
-            thread.setContextClassLoader(old);
         }
+        return factory;
     }
 
     public static void changeDefaultFactory(ModuleIdentifier id, ModuleLoader loader) {
@@ -83,7 +88,7 @@ public final class __SAXParserFactory extends SAXParserFactory {
     }
 
     public static void restorePlatformFactory() {
-        DEFAULT_FACTORY = PLATFORM_FACTORY;
+        DEFAULT_FACTORY = null;
     }
 
     /**
@@ -95,7 +100,7 @@ public final class __SAXParserFactory extends SAXParserFactory {
      * Construct a new instance.
      */
     public __SAXParserFactory() {
-        Constructor<? extends SAXParserFactory> factory = DEFAULT_FACTORY;
+        Constructor<? extends SAXParserFactory> factory = null;
         ClassLoader loader = Thread.currentThread().getContextClassLoader();
         try {
             if (loader != null) {
@@ -103,8 +108,20 @@ public final class __SAXParserFactory extends SAXParserFactory {
                 if (provider != null)
                     factory = provider.getConstructor();
             }
+            if (factory == null) {
+                factory = DEFAULT_FACTORY;
+                if (factory == null)
+                    factory = getPlatformFactory();
+            }
 
-            actual = factory.newInstance();
+            if (__ParserPool.isPooled(factory)) {
+                actual = __ParserPool.getSharedFactory(factory);
+                shared = true;
+                settings = new ArrayList<Object>();
+            } else {
+                actual = factory.newInstance();
+            }
+            constructor = factory;
         } catch (InstantiationException e) {
             throw __RedirectedUtils.wrapped(new InstantiationError(e.getMessage()), e);
         } catch (IllegalAccessException e) {
@@ -116,18 +133,90 @@ public final class __SAXParserFactory extends SAXParserFactory {
         }
     }
 
-    private final SAXParserFactory actual;
+    private final Constructor<? extends SAXParserFactory> constructor;
+    private SAXParserFactory actual;
+    /**
+     * {@code true} if the actual factory is the pooled, shared one, which must be replaced before it is configured.
+     */
+    private boolean shared;
+    /**
+     * The settings applied so far, as name and value pairs, or {@code null} if this factory's parsers are not pooled.
+     */
+    private List<Object> settings;
+
+    private SAXParserFactory configurable() {
+        if (shared) {
+            actual = __RedirectedUtils.newInstance(constructor);
+            shared = false;
+        }
+        return actual;
+    }
+
+    private void record(final String name, final Object value) {
+        if (settings != null) {
+            if (__ParserPool.isKeyValue(value)) {
+                settings.add(name);
+                settings.add(value);
+            } else {
+                settings = null;
+            }
+        }
+    }
+
+    private SAXParserFactory replay(final List<Object> settings) throws ParserConfigurationException, SAXException {
+        final SAXParserFactory factory = __RedirectedUtils.newInstance(constructor);
+        for (int i = 0; i < settings.size(); i += 2) {
+            final String name = (String) settings.get(i);
+            final Object value = settings.get(i + 1);
+            if (name.startsWith(FEATURE)) {
+                factory.setFeature(name.substring(FEATURE.length()), ((Boolean) value).booleanValue());
+            } else if (name.equals(SCHEMA)) {
+                factory.setSchema(null);
+            } else if (name.equals(NAMESPACE_AWARE)) {
+                factory.setNamespaceAware(((Boolean) value).booleanValue());
+            } else if (name.equals(VALIDATING)) {
+                factory.setValidating(((Boolean) value).booleanValue());
+            } else if (name.equals(XINCLUDE_AWARE)) {
+                factory.setXIncludeAware(((Boolean) value).booleanValue());
+            }
+        }
+        return factory;
+    }
 
     public SAXParser newSAXParser() throws ParserConfigurationException, SAXException {
-        return actual.newSAXParser();
+        final List<Object> settings = this.settings;
+        if (settings == null) {
+            return actual.newSAXParser();
+        }
+        final List<Object> key = new ArrayList<Object>(settings.size() + 1);
+        key.add(constructor.getDeclaringClass());
+        key.addAll(settings);
+        __ParserPool<SAXParser> pool = __ParserPool.getPool(key);
+        if (pool != null && pool.isEnabled()) {
+            return new __SAXParser(pool, null);
+        }
+        final SAXParser parser;
+        if (shared) {
+            synchronized (actual) {
+                parser = actual.newSAXParser();
+            }
+        } else {
+            parser = actual.newSAXParser();
+        }
+        if (pool == null) {
+            pool = __ParserPool.addPool(key, __SAXParser.createPool(shared ? actual : replay(settings)), parser);
+        }
+        return pool == null || ! pool.isEnabled() ? parser : new __SAXParser(pool, parser);
     }
 
     public void setNamespaceAware(final boolean awareness) {
-        actual.setNamespaceAware(awareness);
+        configurable().setNamespaceAware(awareness);
+        record(NAMESPACE_AWARE, Boolean.valueOf(awareness));
     }
 
     public void setValidating(final boolean validating) {
-        actual.setValidating(validating);
+        configurable().setValidating(validating);
+        record(VALIDATING, Boolean.valueOf(validating));
     }
 
     public boolean isNamespaceAware() {
@@ -139,7 +228,8 @@ public final class __SAXParserFactory extends SAXParserFactory {
     }
 
     public void setFeature(final String name, final boolean value) throws ParserConfigurationException, SAXNotRecognizedException, SAXNotSupportedException {
-        actual.setFeature(name, value);
+        configurable().setFeature(name, value);
+        record(FEATURE + name, Boolean.valueOf(value));
     }
 
     public boolean getFeature(final String name) throws ParserConfigurationException, SAXNotRecognizedException, SAXNotSupportedException {
@@ -151,11 +241,13 @@ public final class __SAXParserFactory extends SAXParserFactory {
     }
 
     public void setSchema(final Schema schema) {
-        actual.setSchema(schema);
+        configurable().setSchema(schema);
+        record(SCHEMA, schema);
     }
 
     public void setXIncludeAware(final boolean state) {
-        actual.setXIncludeAware(state);
+        configurable().setXIncludeAware(state);
+        record(XINCLUDE_AWARE, Boolean.valueOf(state));
     }
 
     public boolean isXIncludeAware() {
@@ -47,32 +47,29 @@ import org.xml.sax.XMLFilter;
  * @author Jason T. Greene
  */
 public final class __TransformerFactory extends SAXTransformerFactory {
-    private static final Constructor<? extends TransformerFactory> PLATFORM_FACTORY;
+    private static volatile Constructor<? extends TransformerFactory> PLATFORM_FACTORY;
     private static volatile Constructor<? extends TransformerFactory> DEFAULT_FACTORY;
 
+    /**
+     * The value of the selection property before it was redirected, if any.
+     */
+    private static final String PREVIOUS_FACTORY;
+
     static {
-        Thread thread = Thread.currentThread();
-        ClassLoader old = thread.getContextClassLoader();
-
-        // Unfortunately we can not use null because of a stupid bug in the jdk JAXP factory finder.
-        // Lack of tccl causes the provider file discovery to fallback to the jaxp loader (bootclasspath)
-        // which is correct. However, after parsing it, it then disables the fallback for the loading of the class.
-        // Thus, the class can not be found.
-        //
-        // Work around the problem by using the System CL, although in the future we may want to just "inherit"
-        // the environment's TCCL
-        thread.setContextClassLoader(ClassLoader.getSystemClassLoader());
-        try {
-            TransformerFactory factory = TransformerFactory.newInstance();
-            try {
-                DEFAULT_FACTORY = PLATFORM_FACTORY = factory.getClass().getConstructor();
-            } catch (NoSuchMethodException e) {
-                throw __RedirectedUtils.wrapped(new NoSuchMethodError(e.getMessage()), e);
+        PREVIOUS_FACTORY = __RedirectedUtils.redirect(TransformerFactory.class.getName(), __TransformerFactory.class.getName());
+    }
+
+    private static Constructor<? extends TransformerFactory> getPlatformFactory() {
+        Constructor<? extends TransformerFactory> factory = PLATFORM_FACTORY;
+        if (factory == null) {
+            synchronized (__TransformerFactory.class) {
+                factory = PLATFORM_FACTORY;
+                if (factory == null) {
+                    PLATFORM_FACTORY = factory = __RedirectedUtils.lookupPlatformFactory(TransformerFactory.class, TransformerFactory.class.getName(), PREVIOUS_FACTORY, "com.sun.org.apache.xalan.internal.xsltc.trax.TransformerFactoryImpl");
+                }
             }
-            System.setProperty(TransformerFactory.class.getName(), __TransformerFactory.class.getName());
-        } finally {
-            thread.setContextClassLoader(old);
         }
+        return factory;
     }
 
     public static void changeDefaultFactory(ModuleIdentifier id, ModuleLoader loader) {
@@ -87,7 +84,7 @@ public final class __TransformerFactory extends SAXTransformerFactory {
     }
 
     public static void restorePlatformFactory() {
-        DEFAULT_FACTORY = PLATFORM_FACTORY;
+        DEFAULT_FACTORY = null;
     }
 
     /**
@@ -99,7 +96,7 @@ public final class __TransformerFactory extends SAXTransformerFactory {
      * Construct a new instance.
      */
     public __TransformerFactory() {
-        Constructor<? extends TransformerFactory> factory = DEFAULT_FACTORY;
+        Constructor<? extends TransformerFactory> factory = null;
         ClassLoader loader = Thread.currentThread().getContextClassLoader();
         try {
             if (loader != null) {
@@ -107,6 +104,11 @@ public final class __TransformerFactory extends SAXTransformerFactory {
                 if (provider != null)
                     factory = provider.getConstructor();
             }
+            if (factory == null) {
+                factory = DEFAULT_FACTORY;
+                if (factory == null)
+                    factory = getPlatformFactory();
+            }
 
             actual = factory.newInstance();
             saxtual = (actual instanceof SAXTransformerFactory) ? (SAXTransformerFactory)actual : null;
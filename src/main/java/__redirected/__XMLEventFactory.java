@@ -54,32 +54,29 @@ import org.jboss.modules.ModuleLoader;
  */
 @SuppressWarnings("unchecked")
 public final class __XMLEventFactory extends XMLEventFactory {
-    private static final Constructor<? extends XMLEventFactory> PLATFORM_FACTORY;
+    private static volatile Constructor<? extends XMLEventFactory> PLATFORM_FACTORY;
     private static volatile Constructor<? extends XMLEventFactory> DEFAULT_FACTORY;
 
+    /**
+     * The value of the selection property before it was redirected, if any.
+     */
+    private static final String PREVIOUS_FACTORY;
+
     static {
-        Thread thread = Thread.currentThread();
-        ClassLoader old = thread.getContextClassLoader();
-
-        // Unfortunately we can not use null because of a stupid bug in the jdk JAXP factory finder.
-        // Lack of tccl causes the provider file discovery to fallback to the jaxp loader (bootclasspath)
-        // which is correct. However, after parsing it, it then disables the fallback for the loading of the class.
-        // Thus, the class can not be found.
-        //
-        // Work around the problem by using the System CL, although in the future we may want to just "inherit"
-        // the environment's TCCL
-        thread.setContextClassLoader(ClassLoader.getSystemClassLoader());
-        try {
-            XMLEventFactory factory = XMLEventFactory.newInstance();
-            try {
-                DEFAULT_FACTORY = PLATFORM_FACTORY = factory.getClass().getConstructor();
-            } catch (NoSuchMethodException e) {
-                throw __RedirectedUtils.wrapped(new NoSuchMethodError(e.getMessage()), e);
+        PREVIOUS_FACTORY = __RedirectedUtils.redirect(XMLEventFactory.class.getName(), __XMLEventFactory.class.getName());
+    }
+
+    private static Constructor<? extends XMLEventFactory> getPlatformFactory() {
+        Constructor<? extends XMLEventFactory> factory = PLATFORM_FACTORY;
+        if (factory == null) {
+            synchronized (__XMLEventFactory.class) {
+                factory = PLATFORM_FACTORY;
+                if (factory == null) {
+                    PLATFORM_FACTORY = factory = __RedirectedUtils.lookupPlatformFactory(XMLEventFactory.class, XMLEventFactory.class.getName(), PREVIOUS_FACTORY, "com.sun.xml.internal.stream.events.XMLEventFactoryImpl");
+                }
             }
-            System.setProperty(XMLEventFactory.class.getName(), __XMLEventFactory.class.getName());
-        } finally {
-            thread.setContextClassLoader(old);
         }
+        return factory;
     }
 
     public static void changeDefaultFactory(ModuleIdentifier id, ModuleLoader loader) {
@@ -94,7 +91,7 @@ public final class __XMLEventFactory extends XMLEventFactory {
     }
 
     public static void restorePlatformFactory() {
-        DEFAULT_FACTORY = PLATFORM_FACTORY;
+        DEFAULT_FACTORY = null;
     }
 
     /**
@@ -106,7 +103,7 @@ public final class __XMLEventFactory extends XMLEventFactory {
      * Construct a new instance.
      */
     public __XMLEventFactory() {
-        Constructor<? extends XMLEventFactory> factory = DEFAULT_FACTORY;
+        Constructor<? extends XMLEventFactory> factory = null;
         ClassLoader loader = Thread.currentThread().getContextClassLoader();
         try {
             if (loader != null) {
@@ -114,6 +111,11 @@ public final class __XMLEventFactory extends XMLEventFactory {
                 if (provider != null)
                     factory = provider.getConstructor();
             }
+            if (factory == null) {
+                factory = DEFAULT_FACTORY;
+                if (factory == null)
+                    factory = getPlatformFactory();
+            }
 
             actual = factory.newInstance();
         } catch (InstantiationException e) {
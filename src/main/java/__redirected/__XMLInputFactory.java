@@ -48,32 +48,29 @@ import org.jboss.modules.ModuleLoader;
  * @authore Jason T. Greene
  */
 public final class __XMLInputFactory extends XMLInputFactory {
-    private static final Constructor<? extends XMLInputFactory> PLATFORM_FACTORY;
+    private static volatile Constructor<? extends XMLInputFactory> PLATFORM_FACTORY;
     private static volatile Constructor<? extends XMLInputFactory> DEFAULT_FACTORY;
 
+    /**
+     * The value of the selection property before it was redirected, if any.
+     */
+    private static final String PREVIOUS_FACTORY;
+
     static {
-        Thread thread = Thread.currentThread();
-        ClassLoader old = thread.getContextClassLoader();
-
-        // Unfortunately we can not use null because of a stupid bug in the jdk JAXP factory finder.
-        // Lack of tccl causes the provider file discovery to fallback to the jaxp loader (bootclasspath)
-        // which is correct. However, after parsing it, it then disables the fallback for the loading of the class.
-        // Thus, the class can not be found.
-        //
-        // Work around the problem by using the System CL, although in the future we may want to just "inherit"
-        // the environment's TCCL
-        thread.setContextClassLoader(ClassLoader.getSystemClassLoader());
-        try {
-            XMLInputFactory factory = XMLInputFactory.newInstance();
-            try {
-                DEFAULT_FACTORY = PLATFORM_FACTORY = factory.getClass().getConstructor();
-            } catch (NoSuchMethodException e) {
-                throw __RedirectedUtils.wrapped(new NoSuchMethodError(e.getMessage()), e);
+        PREVIOUS_FACTORY = __RedirectedUtils.redirect(XMLInputFactory.class.getName(), __XMLInputFactory.class.getName());
+    }
+
+    private static Constructor<? extends XMLInputFactory> getPlatformFactory() {
+        Constructor<? extends XMLInputFactory> factory = PLATFORM_FACTORY;
+        if (factory == null) {
+            synchronized (__XMLInputFactory.class) {
+                factory = PLATFORM_FACTORY;
+                if (factory == null) {
+                    PLATFORM_FACTORY = factory = __RedirectedUtils.lookupPlatformFactory(XMLInputFactory.class, XMLInputFactory.class.getName(), PREVIOUS_FACTORY, "com.sun.xml.internal.stream.XMLInputFactoryImpl");
+                }
             }
-            System.setProperty(XMLInputFactory.class.getName(), __XMLInputFactory.class.getName());
-        } finally {
-            thread.setContextClassLoader(old);
         }
+        return factory;
     }
 
     public static void changeDefaultFactory(ModuleIdentifier id, ModuleLoader loader) {
@@ -93,14 +90,14 @@ public final class __XMLInputFactory extends XMLInputFactory {
     public static void init() {}
 
     public static void restorePlatformFactory() {
-        DEFAULT_FACTORY = PLATFORM_FACTORY;
+        DEFAULT_FACTORY = null;
     }
 
     /**
      * Construct a new instance.
      */
     public __XMLInputFactory() {
-        Constructor<? extends XMLInputFactory> factory = DEFAULT_FACTORY;
+        Constructor<? extends XMLInputFactory> factory = null;
         ClassLoader loader = Thread.currentThread().getContextClassLoader();
         try {
             if (loader != null) {
@@ -108,8 +105,19 @@ public final class __XMLInputFactory extends XMLInputFactory {
                 if (provider != null)
                     factory = provider.getConstructor();
             }
+            if (factory == null) {
+                factory = DEFAULT_FACTORY;
+                if (factory == null)
+                    factory = getPlatformFactory();
+            }
 
-            actual = factory.newInstance();
+            if (__ParserPool.isPooled(factory)) {
+                actual = __ParserPool.getSharedFactory(factory);
+                shared = true;
+            } else {
+                actual = factory.newInstance();
+            }
+            constructor = factory;
         } catch (InstantiationException e) {
             throw __RedirectedUtils.wrapped(new InstantiationError(e.getMessage()), e);
         } catch (IllegalAccessException e) {
@@ -121,7 +129,20 @@ public final class __XMLInputFactory extends XMLInputFactory {
         }
     }
 
-    private final XMLInputFactory actual;
+    private final Constructor<? extends XMLInputFactory> constructor;
+    private XMLInputFactory actual;
+    /**
+     * {@code true} if the actual factory is the pooled, shared one, which must be replaced before it is configured.
+     */
+    private boolean shared;
+
+    private XMLInputFactory configurable() {
+        if (shared) {
+            actual = __RedirectedUtils.newInstance(constructor);
+            shared = false;
+        }
+        return actual;
+    }
 
     public XMLStreamReader createXMLStreamReader(final Reader reader) throws XMLStreamException {
         return actual.createXMLStreamReader(reader);
@@ -188,7 +209,7 @@ public final class __XMLInputFactory extends XMLInputFactory {
     }
 
     public void setXMLResolver(final XMLResolver resolver) {
-        actual.setXMLResolver(resolver);
+        configurable().setXMLResolver(resolver);
     }
 
     public XMLReporter getXMLReporter() {
@@ -196,11 +217,11 @@ public final class __XMLInputFactory extends XMLInputFactory {
     }
 
     public void setXMLReporter(final XMLReporter reporter) {
-        actual.setXMLReporter(reporter);
+        configurable().setXMLReporter(reporter);
     }
 
     public void setProperty(final String name, final Object value) throws IllegalArgumentException {
-        actual.setProperty(name, value);
+        configurable().setProperty(name, value);
     }
 
     public Object getProperty(final String name) throws IllegalArgumentException {
@@ -212,7 +233,7 @@ public final class __XMLInputFactory extends XMLInputFactory {
     }
 
     public void setEventAllocator(final XMLEventAllocator allocator) {
-        actual.setEventAllocator(allocator);
+        configurable().setEventAllocator(allocator);
     }
 
     public XMLEventAllocator getEventAllocator() {
@@ -43,32 +43,29 @@ import org.jboss.modules.ModuleLoader;
  * @authore Jason T. Greene
  */
 public final class __XMLOutputFactory extends XMLOutputFactory {
-    private static final Constructor<? extends XMLOutputFactory> PLATFORM_FACTORY;
+    private static volatile Constructor<? extends XMLOutputFactory> PLATFORM_FACTORY;
     private static volatile Constructor<? extends XMLOutputFactory> DEFAULT_FACTORY;
 
+    /**
+     * The value of the selection property before it was redirected, if any.
+     */
+    private static final String PREVIOUS_FACTORY;
+
     static {
-        Thread thread = Thread.currentThread();
-        ClassLoader old = thread.getContextClassLoader();
-
-        // Unfortunately we can not use null because of a stupid bug in the jdk JAXP factory finder.
-        // Lack of tccl causes the provider file discovery to fallback to the jaxp loader (bootclasspath)
-        // which is correct. However, after parsing it, it then disables the fallback for the loading of the class.
-        // Thus, the class can not be found.
-        //
-        // Work around the problem by using the System CL, although in the future we may want to just "inherit"
-        // the environment's TCCL
-        thread.setContextClassLoader(ClassLoader.getSystemClassLoader());
-        try {
-            XMLOutputFactory factory = XMLOutputFactory.newInstance();
-            try {
-                DEFAULT_FACTORY = PLATFORM_FACTORY = factory.getClass().getConstructor();
-            } catch (NoSuchMethodException e) {
-                throw __RedirectedUtils.wrapped(new NoSuchMethodError(e.getMessage()), e);
+        PREVIOUS_FACTORY = __RedirectedUtils.redirect(XMLOutputFactory.class.getName(), __XMLOutputFactory.class.getName());
+    }
+
+    private static Constructor<? extends XMLOutputFactory> getPlatformFactory() {
+        Constructor<? extends XMLOutputFactory> factory = PLATFORM_FACTORY;
+        if (factory == null) {
+            synchronized (__XMLOutputFactory.class) {
+                factory = PLATFORM_FACTORY;
+                if (factory == null) {
+                    PLATFORM_FACTORY = factory = __RedirectedUtils.lookupPlatformFactory(XMLOutputFactory.class, XMLOutputFactory.class.getName(), PREVIOUS_FACTORY, "com.sun.xml.internal.stream.XMLOutputFactoryImpl");
+                }
             }
-            System.setProperty(XMLOutputFactory.class.getName(), __XMLOutputFactory.class.getName());
-        } finally {
-            thread.setContextClassLoader(old);
         }
+        return factory;
     }
 
     public static void changeDefaultFactory(ModuleIdentifier id, ModuleLoader loader) {
@@ -83,7 +80,7 @@ public final class __XMLOutputFactory extends XMLOutputFactory {
     }
 
     public static void restorePlatformFactory() {
-        DEFAULT_FACTORY = PLATFORM_FACTORY;
+        DEFAULT_FACTORY = null;
     }
 
     /**
@@ -95,7 +92,7 @@ public final class __XMLOutputFactory extends XMLOutputFactory {
      * Construct a new instance.
      */
     public __XMLOutputFactory() {
-        Constructor<? extends XMLOutputFactory> factory = DEFAULT_FACTORY;
+        Constructor<? extends XMLOutputFactory> factory = null;
         ClassLoader loader = Thread.currentThread().getContextClassLoader();
         try {
             if (loader != null) {
@@ -103,6 +100,11 @@ public final class __XMLOutputFactory extends XMLOutputFactory {
                 if (provider != null)
                     factory = provider.getConstructor();
             }
+            if (factory == null) {
+                factory = DEFAULT_FACTORY;
+                if (factory == null)
+                    factory = getPlatformFactory();
+            }
 
             actual = factory.newInstance();
         } catch (InstantiationException e) {
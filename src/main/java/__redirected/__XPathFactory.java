@@ -39,32 +39,29 @@ import java.lang.reflect.InvocationTargetException;
  * @author Jason T. Greene
  */
 public final class __XPathFactory extends XPathFactory {
-    private static final Constructor<? extends XPathFactory> PLATFORM_FACTORY;
+    private static volatile Constructor<? extends XPathFactory> PLATFORM_FACTORY;
     private static volatile Constructor<? extends XPathFactory> DEFAULT_FACTORY;
 
+    /**
+     * The value of the selection property before it was redirected, if any.
+     */
+    private static final String PREVIOUS_FACTORY;
+
     static {
-        Thread thread = Thread.currentThread();
-        ClassLoader old = thread.getContextClassLoader();
-
-        // Unfortunately we can not use null because of a stupid bug in the jdk JAXP factory finder.
-        // Lack of tccl causes the provider file discovery to fallback to the jaxp loader (bootclasspath)
-        // which is correct. However, after parsing it, it then disables the fallback for the loading of the class.
-        // Thus, the class can not be found.
-        //
-        // Work around the problem by using the System CL, although in the future we may want to just "inherit"
-        // the environment's TCCL
-        thread.setContextClassLoader(ClassLoader.getSystemClassLoader());
-        try {
-            XPathFactory factory = XPathFactory.newInstance();
-            try {
-                DEFAULT_FACTORY = PLATFORM_FACTORY = factory.getClass().getConstructor();
-            } catch (NoSuchMethodException e) {
-                throw __RedirectedUtils.wrapped(new NoSuchMethodError(e.getMessage()), e);
+        PREVIOUS_FACTORY = __RedirectedUtils.redirect(XPathFactory.class.getName() + ":" + XPathFactory.DEFAULT_OBJECT_MODEL_URI, __XPathFactory.class.getName());
+    }
+
+    private static Constructor<? extends XPathFactory> getPlatformFactory() {
+        Constructor<? extends XPathFactory> factory = PLATFORM_FACTORY;
+        if (factory == null) {
+            synchronized (__XPathFactory.class) {
+                factory = PLATFORM_FACTORY;
+                if (factory == null) {
+                    PLATFORM_FACTORY = factory = __RedirectedUtils.lookupPlatformFactory(XPathFactory.class, XPathFactory.class.getName() + ":" + XPathFactory.DEFAULT_OBJECT_MODEL_URI, PREVIOUS_FACTORY, "com.sun.org.apache.xpath.internal.jaxp.XPathFactoryImpl");
+                }
             }
-            System.setProperty(XPathFactory.class.getName() + ":" + XPathFactory.DEFAULT_OBJECT_MODEL_URI, __XPathFactory.class.getName());
-        } finally {
-            thread.setContextClassLoader(old);
         }
+        return factory;
     }
 
     public static void changeDefaultFactory(ModuleIdentifier id, ModuleLoader loader) {
@@ -79,7 +76,7 @@ public final class __XPathFactory extends XPathFactory {
     }
 
     public static void restorePlatformFactory() {
-        DEFAULT_FACTORY = PLATFORM_FACTORY;
+        DEFAULT_FACTORY = null;
     }
 
     /**
@@ -91,7 +88,7 @@ public final class __XPathFactory extends XPathFactory {
      * Construct a new instance.
      */
     public __XPathFactory() {
-        Constructor<? extends XPathFactory> factory = DEFAULT_FACTORY;
+        Constructor<? extends XPathFactory> factory = null;
         ClassLoader loader = Thread.currentThread().getContextClassLoader();
         try {
             if (loader != null) {
@@ -99,6 +96,11 @@ public final class __XPathFactory extends XPathFactory {
                 if (provider != null)
                     factory = provider.getConstructor();
             }
+            if (factory == null) {
+                factory = DEFAULT_FACTORY;
+                if (factory == null)
+                    factory = getPlatformFactory();
+            }
 
             actual = factory.newInstance();
 
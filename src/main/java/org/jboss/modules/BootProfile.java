@@ -0,0 +1,329 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.modules;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.modules.log.ModuleLogger;
+
+/**
+ * A boot profile, consisting of the ordered set of modules loaded and classes defined during a run.  A profile is
+ * recorded by intercepting the module logger, and replayed by loading the same modules and classes on a pool of
+ * worker threads while the main module runs.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class BootProfile {
+
+    private static final char MODULE = 'M';
+    private static final char CLASS = 'C';
+
+    /**
+     * The maximum number of entries recorded, so that a long-running process does not keep growing the profile.
+     */
+    static final int MAX_ENTRIES = 1 << 16;
+
+    private BootProfile() {
+    }
+
+    /**
+     * Start recording a boot profile.  The profile is written when the VM exits.  Recording continues until the
+     * recorder is {@linkplain Recorder#stop() stopped} at the end of boot, or until {@link #MAX_ENTRIES} entries
+     * have been recorded.
+     *
+     * @param file the profile file
+     * @return the recorder, which is installed as the module logger
+     */
+    static Recorder record(final File file) {
+        final Recorder recorder = new Recorder(Module.getModuleLogger(), MAX_ENTRIES);
+        Module.setModuleLogger(recorder);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                recorder.write(file);
+            }
+        }, "Boot Profile Writer"));
+        return recorder;
+    }
+
+    /**
+     * Replay a boot profile in the background.  Each module in the profile is loaded, and its recorded classes
+     * loaded, in a separate task; failures are ignored.
+     *
+     * @param file the profile file
+     * @param loader the module loader to load the profiled modules from
+     * @throws IOException if the profile could not be read
+     */
+    static void replay(final File file, final ModuleLoader loader) throws IOException {
+        final Map<ModuleIdentifier, List<String>> profile = read(file);
+        if (profile.isEmpty()) {
+            return;
+        }
+        final int threads = Math.min(Runtime.getRuntime().availableProcessors(), profile.size());
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 5L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger seq = new AtomicInteger(1);
+
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "Boot Preload Thread " + seq.getAndIncrement());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        for (Map.Entry<ModuleIdentifier, List<String>> entry : profile.entrySet()) {
+            executor.execute(new PreloadTask(loader, entry.getKey(), entry.getValue()));
+        }
+        executor.shutdown();
+    }
+
+    static Map<ModuleIdentifier, List<String>> read(final File file) throws IOException {
+        final Map<ModuleIdentifier, List<String>> profile = new LinkedHashMap<ModuleIdentifier, List<String>>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() < 3 || line.charAt(1) != '\t') {
+                    continue;
+                }
+                final int idx = line.indexOf('\t', 2);
+                final ModuleIdentifier identifier;
+                try {
+                    identifier = ModuleIdentifier.fromString(idx == -1 ? line.substring(2) : line.substring(2, idx));
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                List<String> classes = profile.get(identifier);
+                if (classes == null) {
+                    profile.put(identifier, classes = new ArrayList<String>());
+                }
+                if (line.charAt(0) == CLASS && idx != -1) {
+                    classes.add(line.substring(idx + 1));
+                }
+            }
+            return profile;
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+                // ignore
+            }
+        }
+    }
+
+    private static final class PreloadTask implements Runnable {
+        private final ModuleLoader loader;
+        private final ModuleIdentifier identifier;
+        private final List<String> classes;
+
+        PreloadTask(final ModuleLoader loader, final ModuleIdentifier identifier, final List<String> classes) {
+            this.loader = loader;
+            this.identifier = identifier;
+            this.classes = classes;
+        }
+
+        public void run() {
+            final Module module;
+            try {
+                module = loader.loadModule(identifier);
+            } catch (Throwable t) {
+                Module.log.trace(t, "Failed to preload %s", identifier);
+                return;
+            }
+            final ModuleClassLoader classLoader = module.getClassLoaderPrivate();
+            for (String className : classes) {
+                try {
+                    Class.forName(className, false, classLoader);
+                } catch (Throwable t) {
+                    Module.log.trace(t, "Failed to preload class %s from %s", className, identifier);
+                }
+            }
+        }
+    }
+
+    /**
+     * A module logger which records the modules and classes defined, and passes everything on to another logger.
+     */
+    static final class Recorder implements ModuleLogger {
+        private final Set<String> entries = new LinkedHashSet<String>();
+        private final int maxEntries;
+        private volatile ModuleLogger delegate;
+        private volatile boolean stopped;
+
+        Recorder(final ModuleLogger delegate, final int maxEntries) {
+            this.delegate = delegate;
+            this.maxEntries = maxEntries;
+        }
+
+        /**
+         * Change the logger to pass messages on to, with the same checks as {@link Module#setModuleLogger(ModuleLogger)}.
+         *
+         * @param delegate the new logger
+         */
+        void setDelegate(final ModuleLogger delegate) {
+            if (delegate == null) {
+                throw new IllegalArgumentException("delegate is null");
+            }
+            final SecurityManager sm = System.getSecurityManager();
+            if (sm != null) {
+                sm.checkPermission(Module.ACCESS_MODULE_LOGGER);
+            }
+            delegate.greeting();
+            this.delegate = delegate;
+        }
+
+        /**
+         * Stop recording.  Messages are still passed on to the delegate logger.
+         */
+        void stop() {
+            stopped = true;
+        }
+
+        void write(final File file) {
+            final List<String> entries;
+            synchronized (this.entries) {
+                entries = new ArrayList<String>(this.entries);
+            }
+            try {
+                final BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+                try {
+                    for (String entry : entries) {
+                        writer.write(entry);
+                        writer.write('\n');
+                    }
+                } finally {
+                    writer.close();
+                }
+            } catch (IOException e) {
+                System.err.println("WARNING: Failed to write boot profile " + file + ": " + e);
+            }
+        }
+
+        private void add(final String entry) {
+            if (stopped) {
+                return;
+            }
+            synchronized (entries) {
+                if (entries.size() < maxEntries) {
+                    entries.add(entry);
+                } else {
+                    stopped = true;
+                }
+            }
+        }
+
+        @Override
+        public void trace(final String message) {
+            delegate.trace(message);
+        }
+
+        @Override
+        public void trace(final String format, final Object arg1) {
+            delegate.trace(format, arg1);
+        }
+
+        @Override
+        public void trace(final String format, final Object arg1, final Object arg2) {
+            delegate.trace(format, arg1, arg2);
+        }
+
+        @Override
+        public void trace(final String format, final Object arg1, final Object arg2, final Object arg3) {
+            delegate.trace(format, arg1, arg2, arg3);
+        }
+
+        @Override
+        public void trace(final String format, final Object... args) {
+            delegate.trace(format, args);
+        }
+
+        @Override
+        public void trace(final Throwable t, final String message) {
+            delegate.trace(t, message);
+        }
+
+        @Override
+        public void trace(final Throwable t, final String format, final Object arg1) {
+            delegate.trace(t, format, arg1);
+        }
+
+        @Override
+        public void trace(final Throwable t, final String format, final Object arg1, final Object arg2) {
+            delegate.trace(t, format, arg1, arg2);
+        }
+
+        @Override
+        public void trace(final Throwable t, final String format, final Object arg1, final Object arg2, final Object arg3) {
+            delegate.trace(t, format, arg1, arg2, arg3);
+        }
+
+        @Override
+        public void trace(final Throwable t, final String format, final Object... args) {
+            delegate.trace(t, format, args);
+        }
+
+        @Override
+        public void greeting() {
+            delegate.greeting();
+        }
+
+        @Override
+        public void moduleDefined(final ModuleIdentifier identifier, final ModuleLoader moduleLoader) {
+            add(MODULE + "\t" + identifier);
+            delegate.moduleDefined(identifier, moduleLoader);
+        }
+
+        @Override
+        public void classDefineFailed(final Throwable throwable, final String className, final Module module) {
+            delegate.classDefineFailed(throwable, className, module);
+        }
+
+        @Override
+        public void classDefined(final String name, final Module module) {
+            add(CLASS + "\t" + module.getIdentifier() + "\t" + name);
+            delegate.classDefined(name, module);
+        }
+
+        @Override
+        public void providerUnloadable(final String name, final ClassLoader loader) {
+            delegate.providerUnloadable(name, loader);
+        }
+    }
+}
@@ -22,11 +22,19 @@
 
 package org.jboss.modules;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Iterator;
 
 /**
- * Various methods for obtaining caller info.
+ * Various methods for obtaining caller info.  The class context of the stack is captured, which is cheap while the
+ * stack is shallow.  Where the platform has {@code java.lang.StackWalker} and the stacks seen are deep, the stack is
+ * instead walked lazily, only as far as the calling class, and the class context is sampled now and then to notice
+ * when the stacks become shallow again.
  *
  * @author Jason T. Greene
  */
@@ -42,15 +50,63 @@ class CallerContext {
         }
     }
 
-    private static Hack hack = AccessController.doPrivileged(new PrivilegedAction<Hack>() {
+    /**
+     * The reflective entry points of the stack walker, or {@code null} if it is not available.
+     */
+    private static final Walker walker = AccessController.doPrivileged(new PrivilegedAction<Walker>() {
+        public Walker run() {
+            try {
+                return new Walker();
+            } catch (Throwable t) {
+                return null;
+            }
+        }
+    });
+
+    private static final Hack hack = AccessController.doPrivileged(new PrivilegedAction<Hack>() {
         @Override
         public Hack run() {
-            return new Hack();
+            try {
+                return new Hack();
+            } catch (RuntimeException e) {
+                // without a class context, every stack is walked
+                if (walker == null) {
+                    throw e;
+                }
+                return null;
+            }
         }
     });
 
+    /**
+     * The depth beyond which a stack is walked rather than captured.
+     */
+    private static final int WALK_DEPTH = 64;
+
+    /**
+     * The number of walks between samples of the class context, which must be a power of two.
+     */
+    private static final int SAMPLE_INTERVAL = 64;
+
+    /**
+     * {@code true} if the last class context captured was deeper than {@link #WALK_DEPTH}.
+     */
+    private static volatile boolean deep;
+
+    /**
+     * The number of walks so far; updated without synchronization, since it only paces the samples.
+     */
+    private static int walks;
+
     static Class<?> getCallingClass() {
+        final Walker walker = CallerContext.walker;
+        if (walker != null && (hack == null || deep && (++walks & (SAMPLE_INTERVAL - 1)) != 0)) {
+            return walker.getCallingClass();
+        }
         Class<?> stack[] = hack.getClassContext();
+        if (walker != null) {
+            deep = stack.length > WALK_DEPTH;
+        }
         int i = 3;
         while (stack[i] == stack[2]) {
             // skip nested calls front the same class
@@ -60,4 +116,69 @@ class CallerContext {
 
         return stack[i];
     }
+
+    /**
+     * A stack walk which stops at the first frame after the caller of {@link #getCallingClass()} and any nested
+     * calls from the same class.  The walk function is a proxy, since {@code java.util.function} cannot be named here.
+     */
+    private static final class Walker implements InvocationHandler {
+        private final Object stackWalker;
+        private final Method walk;
+        private final Method iterator;
+        private final Method getDeclaringClass;
+        private final Object function;
+
+        Walker() throws Exception {
+            final Class<?> stackWalkerClass = Class.forName("java.lang.StackWalker");
+            final Class<?> optionClass = Class.forName("java.lang.StackWalker$Option");
+            final Class<?> functionClass = Class.forName("java.util.function.Function");
+            stackWalker = stackWalkerClass.getMethod("getInstance", optionClass).invoke(null, optionClass.getField("RETAIN_CLASS_REFERENCE").get(null));
+            walk = stackWalkerClass.getMethod("walk", functionClass);
+            iterator = Class.forName("java.util.stream.BaseStream").getMethod("iterator");
+            getDeclaringClass = Class.forName("java.lang.StackWalker$StackFrame").getMethod("getDeclaringClass");
+            function = Proxy.newProxyInstance(CallerContext.class.getClassLoader(), new Class<?>[] { functionClass }, this);
+        }
+
+        Class<?> getCallingClass() {
+            try {
+                return (Class<?>) walk.invoke(stackWalker, function);
+            } catch (IllegalAccessException e) {
+                throw new IllegalAccessError(e.getMessage());
+            } catch (InvocationTargetException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                final String name = method.getName();
+                if (name.equals("equals")) {
+                    return Boolean.valueOf(proxy == args[0]);
+                } else if (name.equals("hashCode")) {
+                    return Integer.valueOf(System.identityHashCode(proxy));
+                } else {
+                    return "stack walk function";
+                }
+            }
+            final Iterator<?> frames = (Iterator<?>) iterator.invoke(args[0]);
+            Class<?> caller = null;
+            while (frames.hasNext()) {
+                final Class<?> clazz = (Class<?>) getDeclaringClass.invoke(frames.next());
+                if (caller == null) {
+                    if (clazz != Walker.class && clazz != CallerContext.class) {
+                        caller = clazz;
+                    }
+                } else if (clazz != caller) {
+                    return clazz;
+                }
+            }
+            return null;
+        }
+    }
 }
@@ -49,6 +49,7 @@ final class ClassPathModuleLoader extends ModuleLoader {
         }
         this.classPath = classPath;
         AccessController.doPrivileged(new PropertyWriteAction("java.class.path", classPath));
+        SystemLocalLoader.getInstance().classPathChanged();
         this.mainClass = mainClass;
     }
 
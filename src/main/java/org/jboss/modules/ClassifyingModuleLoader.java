@@ -22,8 +22,11 @@
 
 package org.jboss.modules;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A module loader which selects a delegate module loader based upon the prefix of the module name.  Longer
@@ -32,7 +35,9 @@ import java.util.Map;
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 public final class ClassifyingModuleLoader extends ModuleLoader {
-    private volatile Map<String, ModuleLoader> delegates;
+    private static final int MAX_ROUTES = 4096;
+
+    private volatile Routing routing;
     private final ModuleLoader defaultLoader;
     private final String name;
 
@@ -45,26 +50,25 @@ public final class ClassifyingModuleLoader extends ModuleLoader {
     public ClassifyingModuleLoader(final String name, final Map<String, ModuleLoader> delegates, final ModuleLoader defaultLoader) {
         super(true, false);
         this.defaultLoader = defaultLoader;
-        this.delegates = new HashMap<String, ModuleLoader>(delegates);
+        this.routing = new Routing(delegates);
         this.name = name;
     }
 
     /** {@inheritDoc} */
     protected Module preloadModule(final ModuleIdentifier moduleIdentifier) throws ModuleLoadException {
-        String name = moduleIdentifier.getName();
-        int idx;
-        final Map<String, ModuleLoader> delegates = this.delegates;
-        for (;;) {
-            final ModuleLoader loader = delegates.get(name);
-            if (loader != null) {
-                return preloadModule(moduleIdentifier, loader);
+        final String name = moduleIdentifier.getName();
+        final Routing routing = this.routing;
+        ModuleLoader loader = routing.routes.get(name);
+        if (loader == null) {
+            loader = routing.root.find(name);
+            if (loader == null) {
+                loader = defaultLoader;
             }
-            idx = name.lastIndexOf('.');
-            if (idx == -1) {
-                return preloadModule(moduleIdentifier, defaultLoader);
+            if (loader != null && routing.routes.size() < MAX_ROUTES) {
+                routing.routes.putIfAbsent(name, loader);
             }
-            name = name.substring(0, idx);
         }
+        return preloadModule(moduleIdentifier, loader);
     }
 
     /** {@inheritDoc} */
@@ -79,10 +83,92 @@ public final class ClassifyingModuleLoader extends ModuleLoader {
      * @param delegates the new delegates map to use
      */
     public void setDelegates(Map<String, ModuleLoader> delegates) {
-        this.delegates = new HashMap<String, ModuleLoader>(delegates);
+        this.routing = new Routing(delegates);
     }
 
     public String toString() {
         return String.format("Classifying Module Loader @%x \"%s\"", Integer.valueOf(hashCode()), name);
     }
+
+    /**
+     * The delegates compiled into a trie of name segments, along with the loader chosen for each name so far.  A
+     * new instance replaces the old one whenever the delegates change, so the two always agree.
+     */
+    private static final class Routing {
+        private final Node root = new Node();
+        private final ConcurrentMap<String, ModuleLoader> routes = new ConcurrentHashMap<String, ModuleLoader>();
+
+        Routing(final Map<String, ModuleLoader> delegates) {
+            for (Map.Entry<String, ModuleLoader> entry : delegates.entrySet()) {
+                final String key = entry.getKey();
+                if (key != null) {
+                    root.add(key, 0, entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * A node of the segment trie.  Segments are compared in place, so that finding a name allocates nothing.
+     */
+    private static final class Node {
+        private final List<String> segments = new ArrayList<String>(0);
+        private final List<Node> children = new ArrayList<Node>(0);
+        private ModuleLoader loader;
+
+        void add(final String key, final int start, final ModuleLoader loader) {
+            int end = key.indexOf('.', start);
+            if (end == -1) end = key.length();
+            final Node child = child(key, start, end, true);
+            if (end == key.length()) {
+                child.loader = loader;
+            } else {
+                child.add(key, end + 1, loader);
+            }
+        }
+
+        private Node child(final String name, final int start, final int end, final boolean create) {
+            final int length = end - start;
+            for (int i = 0; i < segments.size(); i++) {
+                final String segment = segments.get(i);
+                if (segment.length() == length && name.regionMatches(start, segment, 0, length)) {
+                    return children.get(i);
+                }
+            }
+            if (! create) {
+                return null;
+            }
+            final Node child = new Node();
+            segments.add(name.substring(start, end));
+            children.add(child);
+            return child;
+        }
+
+        /**
+         * Find the loader of the longest delegate prefix of a name.
+         *
+         * @param name the module name
+         * @return the loader, or {@code null} if there is none
+         */
+        ModuleLoader find(final String name) {
+            ModuleLoader found = null;
+            Node node = this;
+            int start = 0;
+            for (;;) {
+                int end = name.indexOf('.', start);
+                if (end == -1) end = name.length();
+                node = node.child(name, start, end, false);
+                if (node == null) {
+                    return found;
+                }
+                if (node.loader != null) {
+                    found = node.loader;
+                }
+                if (end == name.length()) {
+                    return found;
+                }
+                start = end + 1;
+            }
+        }
+    }
 }
@@ -0,0 +1,91 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.modules;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A cache of the classes which a module has resolved from its imports.  Classes are held weakly so that the cache
+ * never keeps a class loader alive; entries whose class has been collected are removed on lookup, or as new entries
+ * are added.
+ * <p>
+ * A cache belongs to a single path map of its module, and is discarded when the module is relinked.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class ImportedClassCache {
+
+    private final Object pathsKey;
+    private final ConcurrentMap<String, Ref> classes = new ConcurrentHashMap<String, Ref>();
+    private final ReferenceQueue<Class<?>> queue = new ReferenceQueue<Class<?>>();
+
+    ImportedClassCache(final Object pathsKey) {
+        this.pathsKey = pathsKey;
+    }
+
+    boolean isFor(final Object pathsKey) {
+        return this.pathsKey == pathsKey;
+    }
+
+    Class<?> get(final String className) {
+        final Ref ref = classes.get(className);
+        if (ref == null) {
+            return null;
+        }
+        final Class<?> clazz = ref.get();
+        if (clazz == null) {
+            classes.remove(className, ref);
+        }
+        return clazz;
+    }
+
+    void put(final String className, final Class<?> clazz) {
+        expunge();
+        classes.put(className, new Ref(className, clazz, queue));
+    }
+
+    int size() {
+        return classes.size();
+    }
+
+    private void expunge() {
+        Reference<? extends Class<?>> ref;
+        while ((ref = queue.poll()) != null) {
+            // a newer entry for the same name is left alone
+            classes.remove(((Ref) ref).className, ref);
+        }
+    }
+
+    private static final class Ref extends WeakReference<Class<?>> {
+        private final String className;
+
+        Ref(final String className, final Class<?> clazz, final ReferenceQueue<Class<?>> queue) {
+            super(clazz, queue);
+            this.className = className;
+        }
+    }
+}
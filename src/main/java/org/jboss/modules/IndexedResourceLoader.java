@@ -0,0 +1,66 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.modules;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * A resource loader whose path index is already known, so that the delegate never has to enumerate its content.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class IndexedResourceLoader implements ResourceLoader {
+
+    private final ResourceLoader loader;
+    private final Collection<String> paths;
+
+    IndexedResourceLoader(final ResourceLoader loader, final Collection<String> paths) {
+        this.loader = loader;
+        this.paths = paths;
+    }
+
+    public String getRootName() {
+        return loader.getRootName();
+    }
+
+    public ClassSpec getClassSpec(final String fileName) throws IOException {
+        return loader.getClassSpec(fileName);
+    }
+
+    public PackageSpec getPackageSpec(final String name) throws IOException {
+        return loader.getPackageSpec(name);
+    }
+
+    public Resource getResource(final String name) {
+        return loader.getResource(name);
+    }
+
+    public String getLibrary(final String name) {
+        return loader.getLibrary(name);
+    }
+
+    public Collection<String> getPaths() {
+        return paths;
+    }
+}
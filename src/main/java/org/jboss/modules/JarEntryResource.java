@@ -24,30 +24,73 @@ package org.jboss.modules;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 /**
+ * A resource backed by a JAR entry.  The resource URL of an entry whose name needs no quoting is only constructed
+ * when it is first requested, since most callers only want the content or size of the resource; any other URL is
+ * constructed up front, so that an entry without a valid URL is never returned as a resource.
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 final class JarEntryResource implements Resource {
     private final JarFile jarFile;
     private final JarEntry entry;
-    private final URL resourceURL;
+    private final String urlPrefix;
+    private volatile URL resourceURL;
 
-    JarEntryResource(final JarFile jarFile, final JarEntry entry, final URL resourceURL) {
+    private JarEntryResource(final JarFile jarFile, final JarEntry entry, final String urlPrefix, final URL resourceURL) {
         this.jarFile = jarFile;
         this.entry = entry;
+        this.urlPrefix = urlPrefix;
         this.resourceURL = resourceURL;
     }
 
+    /**
+     * Create a resource for a JAR entry.
+     *
+     * @param jarFile the JAR file
+     * @param entry the JAR entry
+     * @param urlPrefix the encoded {@code jar:} URL string of the root of the JAR file, ending with {@code !/}; it must
+     *      be a valid URL
+     * @return the resource, or {@code null} if the entry has no valid URL
+     */
+    static JarEntryResource create(final JarFile jarFile, final JarEntry entry, final String urlPrefix) {
+        final String entryName = entry.getName();
+        if (isURISafe(entryName)) {
+            // appending a name which needs no quoting to a valid prefix always yields a valid URL
+            return new JarEntryResource(jarFile, entry, urlPrefix, null);
+        }
+        try {
+            return new JarEntryResource(jarFile, entry, urlPrefix, new URI("jar", "file:" + jarFile.getName() + "!/" + entryName, null).toURL());
+        } catch (MalformedURLException e) {
+            // must be invalid...?  (todo: check this out)
+            return null;
+        } catch (URISyntaxException e) {
+            // must be invalid...?  (todo: check this out)
+            return null;
+        }
+    }
+
     public String getName() {
         return entry.getName();
     }
 
     public URL getURL() {
+        URL resourceURL = this.resourceURL;
+        if (resourceURL == null) {
+            try {
+                this.resourceURL = resourceURL = new URL(urlPrefix + entry.getName());
+            } catch (MalformedURLException e) {
+                // the prefix was checked by the resource loader
+                throw new IllegalStateException(e);
+            }
+        }
         return resourceURL;
     }
 
@@ -59,4 +102,29 @@ final class JarEntryResource implements Resource {
         final long size = entry.getSize();
         return size == -1 ? 0 : size;
     }
+
+    /**
+     * Get the encoded {@code jar:} URL string of the root of a JAR file.
+     *
+     * @param jarFile the JAR file
+     * @return the URL string
+     * @throws URISyntaxException if the JAR file name is not valid in a URI
+     */
+    static String getURLPrefix(final JarFile jarFile) throws URISyntaxException {
+        return new URI("jar", "file:" + jarFile.getName() + "!/", null).toString();
+    }
+
+    /**
+     * Determine whether a name consists only of characters which {@link URI} never quotes.
+     */
+    private static boolean isURISafe(final String name) {
+        final int length = name.length();
+        for (int i = 0; i < length; i++) {
+            final char c = name.charAt(i);
+            if (! (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '/' || c == '.' || c == '-' || c == '_' || c == '$' || c == '+' || c == '~' || c == '!' || c == '*' || c == '\'' || c == '(' || c == ')' || c == ',' || c == ';' || c == ':' || c == '@' || c == '&' || c == '=')) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
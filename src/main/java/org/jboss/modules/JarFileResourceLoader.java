@@ -53,6 +53,7 @@ final class JarFileResourceLoader extends AbstractResourceLoader {
     private final JarFile jarFile;
     private final String rootName;
     private final URL rootUrl;
+    private final String urlPrefix;
     private final String relativePath;
 
     JarFileResourceLoader(final String rootName, final JarFile jarFile) {
@@ -72,6 +73,9 @@ final class JarFileResourceLoader extends AbstractResourceLoader {
         this.relativePath = realPath;
         try {
             rootUrl = new URI("jar", "file:" + jarFile.getName() + (realPath == null ? "!/" : "!/" + realPath), null).toURL();
+            urlPrefix = JarEntryResource.getURLPrefix(jarFile);
+            // resources append their names to the prefix, so it has to be valid on its own
+            new URL(urlPrefix);
         } catch (URISyntaxException e) {
             throw new IllegalArgumentException("Invalid root file specified", e);
         } catch (MalformedURLException e) {
@@ -164,23 +168,14 @@ final class JarFileResourceLoader extends AbstractResourceLoader {
     }
 
     public Resource getResource(final String name) {
-        try {
-            final JarFile jarFile = this.jarFile;
-            String entryName = PathUtils.canonicalize(name);
-            if(entryName.startsWith("/"))
-                entryName = entryName.substring(1);
-            final JarEntry entry = getJarEntry(entryName);
-            if (entry == null) {
-                return null;
-            }
-            return new JarEntryResource(jarFile, entry, new URI("jar", "file:" + jarFile.getName() + "!/" + entry.getName(), null).toURL());
-        } catch (MalformedURLException e) {
-            // must be invalid...?  (todo: check this out)
-            return null;
-        } catch (URISyntaxException e) {
-            // must be invalid...?  (todo: check this out)
+        String entryName = PathUtils.canonicalize(name);
+        if(entryName.startsWith("/"))
+            entryName = entryName.substring(1);
+        final JarEntry entry = getJarEntry(entryName);
+        if (entry == null) {
             return null;
         }
+        return JarEntryResource.create(jarFile, entry, urlPrefix);
     }
 
     public Collection<String> getPaths() {
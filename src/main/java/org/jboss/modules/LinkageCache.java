@@ -0,0 +1,312 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.modules;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.AccessController;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.jboss.modules.filter.PathFilter;
+import org.jboss.modules.filter.PathFilters;
+
+/**
+ * A persistent cache of the resolved resource root path indexes of filesystem modules.  Each module's snapshot is
+ * keyed by a fingerprint consisting of the name, modification time, and size of its descriptor and of each of its
+ * resource root archives; if any part of the fingerprint differs, the snapshot is discarded and rebuilt.  Resource
+ * roots which are directories cannot be fingerprinted cheaply and are never cached.
+ * <p>
+ * The cache is enabled by setting the {@code jboss.modules.linkage-cache} system property to a directory name.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class LinkageCache {
+
+    private static final File CACHE_DIR;
+
+    private static final int MAGIC = 0x4a4d4c43;
+    private static final int VERSION = 1;
+
+    static {
+        final String dirName = AccessController.doPrivileged(new PropertyReadAction("jboss.modules.linkage-cache"));
+        CACHE_DIR = dirName == null ? null : new File(dirName).getAbsoluteFile();
+    }
+
+    private LinkageCache() {
+    }
+
+    /**
+     * Get the cache directory.
+     *
+     * @return the cache directory, or {@code null} if the cache is disabled
+     */
+    static File getCacheDir() {
+        return CACHE_DIR;
+    }
+
+    /**
+     * Apply the cached path indexes to a module specification, or calculate and store them if the snapshot is
+     * missing or stale.  The returned specification's cacheable resource roots report the cached paths and carry
+     * no path filter.
+     *
+     * @param spec the parsed module specification
+     * @param descriptor the module descriptor file
+     * @param rootFiles the archive files of the resource roots of the specification, keyed by loader
+     * @return the module specification to use
+     */
+    static ModuleSpec apply(final ModuleSpec spec, final File descriptor, final Map<ResourceLoader, File> rootFiles) {
+        final File cacheDir = CACHE_DIR;
+        if (cacheDir == null) {
+            return spec;
+        }
+        return apply(cacheDir, spec, descriptor, rootFiles);
+    }
+
+    static ModuleSpec apply(final File cacheDir, final ModuleSpec spec, final File descriptor, final Map<ResourceLoader, File> rootFiles) {
+        final ResourceLoaderSpec[] loaderSpecs = spec.getResourceLoaders();
+        final List<File> fingerprintFiles = new ArrayList<File>(loaderSpecs.length + 1);
+        fingerprintFiles.add(descriptor);
+        for (ResourceLoaderSpec loaderSpec : loaderSpecs) {
+            final File file = rootFiles.get(loaderSpec.getResourceLoader());
+            if (file != null) {
+                fingerprintFiles.add(file);
+            }
+        }
+        final Fingerprint fingerprint = new Fingerprint(fingerprintFiles);
+        final String identifier = spec.getModuleIdentifier().toString();
+        final File cacheFile = new File(cacheDir, fileNameOf(identifier, descriptor));
+        String[][] indexes = read(cacheFile, identifier, fingerprint, loaderSpecs, rootFiles);
+        if (indexes == null) {
+            indexes = new String[loaderSpecs.length][];
+            for (int i = 0; i < loaderSpecs.length; i++) {
+                final ResourceLoaderSpec loaderSpec = loaderSpecs[i];
+                if (rootFiles.containsKey(loaderSpec.getResourceLoader())) {
+                    final PathFilter filter = loaderSpec.getPathFilter();
+                    final List<String> paths = new ArrayList<String>();
+                    for (String path : loaderSpec.getResourceLoader().getPaths()) {
+                        if (filter.accept(path)) {
+                            paths.add(path);
+                        }
+                    }
+                    indexes[i] = paths.toArray(new String[paths.size()]);
+                }
+            }
+            write(cacheFile, identifier, fingerprint, loaderSpecs, indexes);
+        }
+        final ResourceLoaderSpec[] newLoaderSpecs = new ResourceLoaderSpec[loaderSpecs.length];
+        for (int i = 0; i < loaderSpecs.length; i++) {
+            final String[] index = indexes[i];
+            if (index == null) {
+                newLoaderSpecs[i] = loaderSpecs[i];
+            } else {
+                newLoaderSpecs[i] = new ResourceLoaderSpec(new IndexedResourceLoader(loaderSpecs[i].getResourceLoader(), Arrays.asList(index)), PathFilters.acceptAll());
+            }
+        }
+        return spec.withResourceLoaders(newLoaderSpecs);
+    }
+
+    /**
+     * Get the cache file name of a module.  The name includes a hash of the descriptor location, so that modules
+     * with the same identifier in different repositories do not share a file; a hash collision only costs a
+     * rebuild, since the fingerprint records the full descriptor path.
+     */
+    static String fileNameOf(final String identifier, final File descriptor) {
+        final StringBuilder b = new StringBuilder(identifier.length() + 17);
+        for (int i = 0; i < identifier.length(); i++) {
+            final char c = identifier.charAt(i);
+            if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '.' || c == '-') {
+                b.append(c);
+            } else {
+                b.append('_');
+            }
+        }
+        b.append('-');
+        final String hash = Integer.toHexString(descriptor.getAbsolutePath().hashCode());
+        for (int i = hash.length(); i < 8; i++) {
+            b.append('0');
+        }
+        return b.append(hash).append(".linkage").toString();
+    }
+
+    private static String[][] read(final File cacheFile, final String identifier, final Fingerprint fingerprint, final ResourceLoaderSpec[] loaderSpecs, final Map<ResourceLoader, File> rootFiles) {
+        if (! cacheFile.exists()) {
+            return null;
+        }
+        try {
+            final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+            try {
+                if (is.readInt() != MAGIC || is.readInt() != VERSION || ! identifier.equals(is.readUTF())) {
+                    return null;
+                }
+                if (! fingerprint.equals(Fingerprint.read(is))) {
+                    return null;
+                }
+                final int rootCount = is.readInt();
+                if (rootCount != loaderSpecs.length) {
+                    return null;
+                }
+                final String[][] indexes = new String[rootCount][];
+                for (int i = 0; i < rootCount; i++) {
+                    final ResourceLoader loader = loaderSpecs[i].getResourceLoader();
+                    final boolean cached = is.readBoolean();
+                    if (cached != rootFiles.containsKey(loader) || ! loader.getRootName().equals(is.readUTF())) {
+                        return null;
+                    }
+                    if (cached) {
+                        final String[] index = new String[is.readInt()];
+                        for (int j = 0; j < index.length; j++) {
+                            index[j] = is.readUTF();
+                        }
+                        indexes[i] = index;
+                    }
+                }
+                return indexes;
+            } finally {
+                safeClose(is);
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void write(final File cacheFile, final String identifier, final Fingerprint fingerprint, final ResourceLoaderSpec[] loaderSpecs, final String[][] indexes) {
+        final File dir = cacheFile.getParentFile();
+        if (! dir.isDirectory() && ! dir.mkdirs() && ! dir.isDirectory()) {
+            return;
+        }
+        boolean ok = false;
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(cacheFile.getName(), ".tmp", dir);
+            final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                os.writeInt(MAGIC);
+                os.writeInt(VERSION);
+                os.writeUTF(identifier);
+                fingerprint.write(os);
+                os.writeInt(loaderSpecs.length);
+                for (int i = 0; i < loaderSpecs.length; i++) {
+                    final String[] index = indexes[i];
+                    os.writeBoolean(index != null);
+                    os.writeUTF(loaderSpecs[i].getResourceLoader().getRootName());
+                    if (index != null) {
+                        os.writeInt(index.length);
+                        for (String path : index) {
+                            os.writeUTF(path);
+                        }
+                    }
+                }
+                os.close();
+            } finally {
+                safeClose(os);
+            }
+            // replace atomically where possible so concurrent readers never see a partial snapshot
+            ok = tempFile.renameTo(cacheFile) || cacheFile.delete() && tempFile.renameTo(cacheFile);
+        } catch (IOException e) {
+            // failed, ignore
+        } finally {
+            if (! ok && tempFile != null) {
+                // well, we tried...
+                tempFile.delete();
+            }
+        }
+    }
+
+    private static void safeClose(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+
+    static final class Fingerprint {
+        private final String[] names;
+        private final long[] times;
+        private final long[] sizes;
+
+        Fingerprint(final Collection<File> files) {
+            final int size = files.size();
+            names = new String[size];
+            times = new long[size];
+            sizes = new long[size];
+            int i = 0;
+            for (File file : files) {
+                names[i] = file.getAbsolutePath();
+                times[i] = file.lastModified();
+                sizes[i] = file.length();
+                i++;
+            }
+        }
+
+        private Fingerprint(final String[] names, final long[] times, final long[] sizes) {
+            this.names = names;
+            this.times = times;
+            this.sizes = sizes;
+        }
+
+        static Fingerprint read(final DataInputStream is) throws IOException {
+            final int size = is.readInt();
+            final String[] names = new String[size];
+            final long[] times = new long[size];
+            final long[] sizes = new long[size];
+            for (int i = 0; i < size; i++) {
+                names[i] = is.readUTF();
+                times[i] = is.readLong();
+                sizes[i] = is.readLong();
+            }
+            return new Fingerprint(names, times, sizes);
+        }
+
+        void write(final DataOutputStream os) throws IOException {
+            os.writeInt(names.length);
+            for (int i = 0; i < names.length; i++) {
+                os.writeUTF(names[i]);
+                os.writeLong(times[i]);
+                os.writeLong(sizes[i]);
+            }
+        }
+
+        public boolean equals(final Object obj) {
+            return obj instanceof Fingerprint && equals((Fingerprint) obj);
+        }
+
+        boolean equals(final Fingerprint other) {
+            return other != null && Arrays.equals(names, other.names) && Arrays.equals(times, other.times) && Arrays.equals(sizes, other.sizes);
+        }
+
+        public int hashCode() {
+            return (Arrays.hashCode(names) * 31 + Arrays.hashCode(times)) * 31 + Arrays.hashCode(sizes);
+        }
+    }
+}
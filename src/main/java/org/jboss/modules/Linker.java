@@ -0,0 +1,689 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.modules;
+
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.modules.filter.ClassFilter;
+import org.jboss.modules.filter.ClassFilters;
+import org.jboss.modules.filter.PathFilter;
+import org.jboss.modules.filter.PathFilters;
+
+/**
+ * The export linker.  Rather than recursing through each re-exported dependency, the linker discovers the graph
+ * of not-yet-linked modules reachable through re-exporting dependencies once, splits it into strongly connected
+ * components (using an iterative form of Tarjan's algorithm, so the stack depth does not depend on the graph), and
+ * links each component as a unit once all of the components it depends on are linked.  Cyclic re-exports are
+ * resolved by iterating the export maps of the members of a component to a fixed point.  Independent components
+ * of a large graph are linked in parallel.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class Linker {
+
+    private static final boolean PARALLEL;
+
+    /**
+     * The minimum number of components for which linking is spread across threads.
+     */
+    private static final int PARALLEL_THRESHOLD = 32;
+
+    static {
+        PARALLEL = Runtime.getRuntime().availableProcessors() > 1 && Boolean.parseBoolean(AccessController.doPrivileged(new PropertyReadAction("jboss.modules.parallel-link", "true")));
+    }
+
+    private final Map<Module, Node> nodes = new IdentityHashMap<Module, Node>();
+    private final List<Component> components = new ArrayList<Component>();
+    private int nextIndex;
+
+    private Linker() {
+    }
+
+    /**
+     * Link the exports of a module, along with any unlinked modules whose exports it depends on.
+     *
+     * @param module the module to link
+     * @param paths the current paths of the module
+     * @param dependencies the dependencies to link the module against
+     * @return the new paths of the module
+     * @throws ModuleLoadException if the module could not be linked
+     */
+    static Paths<LocalLoader, Dependency> linkExports(final Module module, final Paths<LocalLoader, Dependency> paths, final Dependency[] dependencies) throws ModuleLoadException {
+        final Linker linker = new Linker();
+        final Node root = linker.addNode(module, paths, dependencies);
+        linker.connect(root);
+        linker.link();
+        final ModuleLoadException failure = root.component.failure;
+        if (failure != null) {
+            throw failure;
+        }
+        return root.result;
+    }
+
+    /**
+     * Link the exports of every unlinked module which is imported through the given dependencies, so that the
+     * independent subtrees of a module's dependency graph can be linked together (and in parallel) before its
+     * imports are calculated.  Failures are not reported here; the affected modules are left unlinked so that the
+     * error is raised (or ignored, for optional dependencies) when the imports are linked.
+     *
+     * @param dependencies the dependencies whose targets should be linked
+     * @return the resolution of each dependency: the {@code Module}, the {@code ModuleLoadException} raised in
+     *      loading it, or {@code null} if the dependency is not a module dependency from which anything is imported
+     */
+    static Object[] linkDependencies(final Dependency[] dependencies) {
+        final Object[] resolved = new Object[dependencies.length];
+        Linker linker = null;
+        for (int i = 0; i < dependencies.length; i++) {
+            final Dependency dependency = dependencies[i];
+            if (! (dependency instanceof ModuleDependency) || dependency.getImportFilter() == PathFilters.rejectAll()) {
+                continue;
+            }
+            final ModuleDependency moduleDependency = (ModuleDependency) dependency;
+            final ModuleIdentifier id = moduleDependency.getIdentifier();
+            final Module module;
+            try {
+                module = moduleDependency.getModuleLoader().preloadModule(id);
+                if (module == null) {
+                    throw new ModuleNotFoundException(id.toString());
+                }
+            } catch (ModuleLoadException e) {
+                resolved[i] = e;
+                continue;
+            }
+            resolved[i] = module;
+            final Paths<LocalLoader, Dependency> paths = module.getCurrentPaths();
+            if (paths.getExportedPaths() != null) {
+                continue;
+            }
+            if (linker == null) {
+                linker = new Linker();
+            } else if (linker.nodes.containsKey(module)) {
+                continue;
+            }
+            linker.connect(linker.addNode(module, paths, paths.getSourceList(Module.NO_DEPENDENCIES)));
+        }
+        if (linker != null) {
+            linker.link();
+        }
+        return resolved;
+    }
+
+    // Discovery
+
+    private Node addNode(final Module module, final Paths<LocalLoader, Dependency> paths, final Dependency[] dependencies) {
+        final Node node = new Node(module, paths, dependencies);
+        nodes.put(module, node);
+        return node;
+    }
+
+    /**
+     * Resolve the target of a dependency of a node.  The result is a {@code Node} if the target still needs linking,
+     * a {@code Module} if its exports are already linked, or {@code null} if nothing is exported through the
+     * dependency (or if an optional dependency is missing).
+     */
+    private Object resolve(final Node node, final int idx) {
+        final Dependency dependency = node.dependencies[idx];
+        if (! (dependency instanceof ModuleDependency)) {
+            return null;
+        }
+        if (dependency.getImportFilter() == PathFilters.rejectAll() || dependency.getExportFilter() == PathFilters.rejectAll()) {
+            // we do not export anything from this dependency
+            return null;
+        }
+        final ModuleDependency moduleDependency = (ModuleDependency) dependency;
+        final ModuleIdentifier id = moduleDependency.getIdentifier();
+        final Module module;
+        try {
+            module = moduleDependency.getModuleLoader().preloadModule(id);
+            if (module == null) {
+                throw new ModuleNotFoundException(id.toString());
+            }
+        } catch (ModuleLoadException e) {
+            if (! moduleDependency.isOptional() && node.failure == null) {
+                node.failure = e;
+            }
+            return null;
+        }
+        final Node existing = nodes.get(module);
+        if (existing != null) {
+            return existing;
+        }
+        final Paths<LocalLoader, Dependency> paths = module.getCurrentPaths();
+        if (paths.getExportedPaths() != null) {
+            return module;
+        }
+        return addNode(module, paths, paths.getSourceList(Module.NO_DEPENDENCIES));
+    }
+
+    /**
+     * Tarjan's strongly connected components algorithm, with an explicit stack.  Components are emitted after all
+     * the components they depend on.  Nodes already visited from an earlier root are not visited again.
+     */
+    private void connect(final Node root) {
+        if (root.index != -1) {
+            return;
+        }
+        final Deque<Node> callStack = new ArrayDeque<Node>();
+        final Deque<Node> stack = new ArrayDeque<Node>();
+        visit(root, callStack, stack);
+        while (! callStack.isEmpty()) {
+            final Node v = callStack.peek();
+            final int idx = v.nextEdge;
+            if (idx < v.targets.length) {
+                v.nextEdge = idx + 1;
+                final Object target = resolve(v, idx);
+                v.targets[idx] = target;
+                if (target instanceof Node) {
+                    final Node w = (Node) target;
+                    if (w.index == -1) {
+                        visit(w, callStack, stack);
+                    } else if (w.onStack) {
+                        v.lowLink = Math.min(v.lowLink, w.index);
+                    }
+                }
+                continue;
+            }
+            callStack.pop();
+            final Node u = callStack.peek();
+            if (u != null) {
+                u.lowLink = Math.min(u.lowLink, v.lowLink);
+            }
+            if (v.lowLink == v.index) {
+                final List<Node> members = new ArrayList<Node>(1);
+                Node w;
+                do {
+                    w = stack.pop();
+                    w.onStack = false;
+                    members.add(w);
+                } while (w != v);
+                components.add(new Component(members.toArray(new Node[members.size()])));
+            }
+        }
+    }
+
+    private void visit(final Node node, final Deque<Node> callStack, final Deque<Node> stack) {
+        node.index = node.lowLink = nextIndex++;
+        node.onStack = true;
+        stack.push(node);
+        callStack.push(node);
+    }
+
+    // Linking
+
+    private void link() {
+        final List<Component> components = this.components;
+        // Propagate failures first; the component list is already in dependency order
+        for (Component component : components) {
+            component.resolveFailures();
+        }
+        if (PARALLEL && components.size() >= PARALLEL_THRESHOLD) {
+            linkParallel();
+        } else {
+            for (Component component : components) {
+                if (component.failure == null) {
+                    component.link();
+                }
+            }
+        }
+    }
+
+    private void linkParallel() {
+        final List<Component> ready = new ArrayList<Component>();
+        int count = 0;
+        for (Component component : components) {
+            if (component.failure != null) {
+                continue;
+            }
+            count++;
+            for (Node member : component.members) {
+                for (Object target : member.targets) {
+                    if (target instanceof Node) {
+                        final Component dependency = ((Node) target).component;
+                        if (dependency != component && dependency.failure == null && dependency.addDependent(component)) {
+                            component.pending.incrementAndGet();
+                        }
+                    }
+                }
+            }
+        }
+        for (Component component : components) {
+            if (component.failure == null && component.pending.get() == 0) {
+                ready.add(component);
+            }
+        }
+        final Schedule schedule = new Schedule(ExecutorHolder.EXECUTOR, count);
+        for (Component component : ready) {
+            schedule.submit(component);
+        }
+        schedule.await();
+    }
+
+    /**
+     * The ready components of a parallel link.  Pool threads and the linking thread all take components from the
+     * same queue, so the linking thread never waits on work which no thread has started; a link nested inside a
+     * pool task can therefore always complete even if every pool thread is busy.
+     */
+    private static final class Schedule implements Runnable {
+        private final Executor executor;
+        private final ArrayDeque<Component> ready = new ArrayDeque<Component>();
+        private int remaining;
+        private Throwable problem;
+
+        Schedule(final Executor executor, final int remaining) {
+            this.executor = executor;
+            this.remaining = remaining;
+        }
+
+        void submit(final Component component) {
+            synchronized (this) {
+                ready.add(component);
+                notifyAll();
+            }
+            executor.execute(this);
+        }
+
+        public void run() {
+            runNext();
+        }
+
+        /**
+         * Link the next ready component, if any.
+         *
+         * @return {@code true} if a component was linked, {@code false} if none was ready
+         */
+        boolean runNext() {
+            final Component component;
+            synchronized (this) {
+                if (problem != null || (component = ready.poll()) == null) {
+                    return false;
+                }
+            }
+            try {
+                component.link();
+            } catch (Throwable t) {
+                done(t);
+                return true;
+            }
+            final List<Component> dependents = component.dependents;
+            if (dependents != null) {
+                for (Component dependent : dependents) {
+                    if (dependent.pending.decrementAndGet() == 0) {
+                        submit(dependent);
+                    }
+                }
+            }
+            done(null);
+            return true;
+        }
+
+        private synchronized void done(final Throwable problem) {
+            if (problem != null && this.problem == null) {
+                this.problem = problem;
+            }
+            remaining--;
+            notifyAll();
+        }
+
+        void await() {
+            boolean intr = false;
+            try {
+                for (;;) {
+                    if (runNext()) {
+                        continue;
+                    }
+                    synchronized (this) {
+                        while (remaining > 0 && problem == null && ready.isEmpty()) {
+                            try {
+                                wait();
+                            } catch (InterruptedException e) {
+                                intr = true;
+                            }
+                        }
+                        if (remaining == 0 || problem != null) {
+                            break;
+                        }
+                    }
+                }
+                final Throwable problem;
+                synchronized (this) {
+                    problem = this.problem;
+                }
+                if (problem instanceof RuntimeException) {
+                    throw (RuntimeException) problem;
+                } else if (problem instanceof Error) {
+                    throw (Error) problem;
+                }
+            } finally {
+                if (intr) Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    static final class Node {
+        final Module module;
+        final Paths<LocalLoader, Dependency> paths;
+        final Dependency[] dependencies;
+        final Object[] targets;
+        final IdentityHashMap<LocalLoader, LocalLoader>[] filteredLoaders;
+        ModuleLoadException failure;
+
+        int index = -1;
+        int lowLink;
+        int nextEdge;
+        boolean onStack;
+
+        Component component;
+        int memberIndex;
+        Map<String, List<LocalLoader>> exports;
+        int exportCount;
+        Paths<LocalLoader, Dependency> result;
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Node(final Module module, final Paths<LocalLoader, Dependency> paths, final Dependency[] dependencies) {
+            this.module = module;
+            this.paths = paths;
+            this.dependencies = dependencies;
+            targets = new Object[dependencies.length];
+            filteredLoaders = new IdentityHashMap[dependencies.length];
+        }
+
+        /**
+         * Get the current export map of a dependency target, or {@code null} if nothing is to be exported from it.
+         */
+        Map<String, List<LocalLoader>> getExports(final Object target, final Component component) {
+            if (target instanceof Node) {
+                final Node node = (Node) target;
+                if (node.component == component) {
+                    return node.exports;
+                }
+                final Paths<LocalLoader, Dependency> result = node.result;
+                return result == null ? null : result.getExportedPaths();
+            } else if (target instanceof Module) {
+                return ((Module) target).getPaths(true);
+            } else {
+                return null;
+            }
+        }
+
+        /**
+         * Calculate this node's export map from the current export maps of its dependencies.
+         *
+         * @param trails the loader trails to track filtered loaders around a cycle, or {@code null} if the node is
+         *      not part of a cycle
+         * @return the number of entries in the new map
+         */
+        int calculate(final Map<LocalLoader, BitSet> trails) {
+            final Map<String, List<LocalLoader>> newMap = new HashMap<String, List<LocalLoader>>();
+            final Dependency[] dependencies = this.dependencies;
+            for (int i = 0; i < dependencies.length; i++) {
+                final Dependency dependency = dependencies[i];
+                final PathFilter exportFilter = dependency.getExportFilter();
+                final PathFilter importFilter = dependency.getImportFilter();
+                if (importFilter == PathFilters.rejectAll() || exportFilter == PathFilters.rejectAll()) {
+                    // we do not export anything from this dependency
+                    continue;
+                }
+                final ClassFilter classExportFilter = dependency.getClassExportFilter();
+                final PathFilter resourceExportFilter = dependency.getResourceExportFilter();
+                final boolean skipFilters = classExportFilter == ClassFilters.acceptAll() && resourceExportFilter == PathFilters.acceptAll();
+                final PathFilter packageFilter = resourceExportFilter == PathFilters.acceptAll() ? ClassFilters.getPackagePathFilter(classExportFilter) : null;
+
+                if (dependency instanceof LocalDependency) {
+                    final LocalDependency localDependency = (LocalDependency) dependency;
+                    final LocalLoader localLoader = skipFilters ? localDependency.getLocalLoader() : filter(i, localDependency.getLocalLoader(), null);
+                    mark(localLoader, trails);
+                    if (packageFilter != null) {
+                        mark(localDependency.getLocalLoader(), trails);
+                    }
+                    for (String path : localDependency.getPaths()) {
+                        if (importFilter.accept(path) && exportFilter.accept(path)) {
+                            Module.addToMapList(newMap, path, packageFilter != null && packageFilter.accept(path) ? localDependency.getLocalLoader() : localLoader);
+                        }
+                    }
+                } else if (dependency instanceof ModuleClassLoaderDependency) {
+                    final ModuleClassLoaderDependency moduleClassLoaderDependency = (ModuleClassLoaderDependency) dependency;
+                    final LocalLoader localLoader = skipFilters ? moduleClassLoaderDependency.getLocalLoader() : filter(i, moduleClassLoaderDependency.getLocalLoader(), null);
+                    mark(localLoader, trails);
+                    if (packageFilter != null) {
+                        mark(moduleClassLoaderDependency.getLocalLoader(), trails);
+                    }
+                    for (String path : moduleClassLoaderDependency.getPaths()) {
+                        if (importFilter.accept(path) && exportFilter.accept(path)) {
+                            Module.addToMapList(newMap, path, packageFilter != null && packageFilter.accept(path) ? moduleClassLoaderDependency.getLocalLoader() : localLoader);
+                        }
+                    }
+                } else if (dependency instanceof ModuleDependency) {
+                    final Map<String, List<LocalLoader>> pathsMap = getExports(targets[i], component);
+                    if (pathsMap == null) {
+                        continue;
+                    }
+                    for (Map.Entry<String, List<LocalLoader>> entry : pathsMap.entrySet()) {
+                        final String path = entry.getKey();
+                        // Check it against what we import and export
+                        if (importFilter.accept(path) && exportFilter.accept(path)) {
+                            final List<LocalLoader> loaders = entry.getValue();
+                            if (skipFilters || packageFilter != null && packageFilter.accept(path)) {
+                                Module.addToMapList(newMap, path, loaders);
+                            } else {
+                                for (LocalLoader loader : loaders) {
+                                    final LocalLoader filtered = filter(i, loader, trails);
+                                    if (filtered != null) {
+                                        Module.addToMapList(newMap, path, filtered);
+                                    }
+                                }
+                            }
+                        }
+                    }
+                } else {
+                    throw new IllegalArgumentException("Invalid dependency " + dependency + " encountered");
+                }
+            }
+
+            // Final optimizing step
+            Module.removeDuplicatesFromLists(newMap.values());
+
+            exports = newMap;
+            int count = 0;
+            for (List<LocalLoader> list : newMap.values()) {
+                count += list.size();
+            }
+            return count;
+        }
+
+        /**
+         * Record that this node exports a loader directly, so that filtered views of it which come back around
+         * the cycle are not exported again.
+         */
+        private void mark(final LocalLoader loader, final Map<LocalLoader, BitSet> trails) {
+            if (trails != null) {
+                BitSet trail = trails.get(loader);
+                if (trail == null) {
+                    trails.put(loader, trail = new BitSet());
+                }
+                trail.set(memberIndex);
+            }
+        }
+
+        /**
+         * Get the filtered form of a loader for a dependency.  Within a cycle, a loader which has already been
+         * filtered by this node is not filtered again; the result could only be a narrower view of a loader which
+         * this node already exports.
+         */
+        private LocalLoader filter(final int idx, final LocalLoader loader, final Map<LocalLoader, BitSet> trails) {
+            final BitSet trail = trails == null ? null : trails.get(loader);
+            if (trail != null && trail.get(memberIndex)) {
+                return null;
+            }
+            IdentityHashMap<LocalLoader, LocalLoader> filteredLoaders = this.filteredLoaders[idx];
+            if (filteredLoaders == null) {
+                filteredLoaders = this.filteredLoaders[idx] = new IdentityHashMap<LocalLoader, LocalLoader>();
+            }
+            LocalLoader filtered = filteredLoaders.get(loader);
+            if (filtered == null) {
+                final Dependency dependency = dependencies[idx];
+                filtered = LocalLoaders.createFilteredLocalLoader(dependency.getClassExportFilter(), dependency.getResourceExportFilter(), loader);
+                filteredLoaders.put(loader, filtered);
+                if (trails != null) {
+                    final BitSet newTrail = trail == null ? new BitSet() : (BitSet) trail.clone();
+                    newTrail.set(memberIndex);
+                    trails.put(filtered, newTrail);
+                }
+            }
+            return filtered;
+        }
+
+        void publish() {
+            final Paths<LocalLoader, Dependency> newPaths = new Paths<LocalLoader, Dependency>(dependencies, null, exports);
+            module.compareAndSetPaths(paths, newPaths);
+            exports = null;
+            result = newPaths;
+        }
+    }
+
+    static final class Component {
+        final Node[] members;
+        final boolean cyclic;
+        final AtomicInteger pending = new AtomicInteger();
+        List<Component> dependents;
+        ModuleLoadException failure;
+
+        Component(final Node[] members) {
+            this.members = members;
+            boolean cyclic = members.length > 1;
+            for (int i = 0; i < members.length; i++) {
+                final Node member = members[i];
+                member.component = this;
+                member.memberIndex = i;
+                for (Object target : member.targets) {
+                    if (target == member) {
+                        cyclic = true;
+                    }
+                }
+            }
+            this.cyclic = cyclic;
+        }
+
+        boolean addDependent(final Component dependent) {
+            List<Component> dependents = this.dependents;
+            if (dependents == null) {
+                dependents = this.dependents = new ArrayList<Component>();
+            } else if (dependents.contains(dependent)) {
+                return false;
+            }
+            dependents.add(dependent);
+            return true;
+        }
+
+        /**
+         * A component fails to link if any member failed to resolve a required dependency, or requires a
+         * dependency that failed to link.  Members of a cycle fail together.
+         */
+        void resolveFailures() {
+            for (Node member : members) {
+                if (member.failure != null) {
+                    failure = member.failure;
+                    return;
+                }
+                for (int i = 0; i < member.targets.length; i++) {
+                    final Object target = member.targets[i];
+                    if (target instanceof Node) {
+                        final Component dependency = ((Node) target).component;
+                        if (dependency != this && dependency.failure != null && ! ((ModuleDependency) member.dependencies[i]).isOptional()) {
+                            failure = dependency.failure;
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+
+        void link() {
+            if (! cyclic) {
+                final Node member = members[0];
+                member.calculate(null);
+                member.publish();
+                return;
+            }
+            // Iterate to a fixed point; the export maps only ever grow
+            final Map<LocalLoader, BitSet> trails = new IdentityHashMap<LocalLoader, BitSet>();
+            boolean changed;
+            do {
+                changed = false;
+                for (Node member : members) {
+                    final int count = member.calculate(trails);
+                    if (count != member.exportCount) {
+                        member.exportCount = count;
+                        changed = true;
+                    }
+                }
+            } while (changed);
+            for (Node member : members) {
+                member.publish();
+            }
+        }
+    }
+
+    private static final class ExecutorHolder {
+
+        static final Executor EXECUTOR;
+
+        static {
+            final int threads = Runtime.getRuntime().availableProcessors();
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger seq = new AtomicInteger(1);
+
+                public Thread newThread(final Runnable r) {
+                    // do not let the thread inherit the access control context of whoever happens to start it
+                    return AccessController.doPrivileged(new PrivilegedAction<Thread>() {
+                        public Thread run() {
+                            final Thread thread = new Thread(r, "Module Linker Thread " + seq.getAndIncrement());
+                            thread.setDaemon(true);
+                            thread.setContextClassLoader(null);
+                            return thread;
+                        }
+                    });
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            EXECUTOR = executor;
+        }
+
+        private ExecutorHolder() {
+        }
+    }
+}
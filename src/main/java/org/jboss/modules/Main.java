@@ -84,6 +84,11 @@ public final class Main {
         System.out.println("                  The module to use to load the system logmanager");
         System.out.println("    -jaxpmodule <module-name>");
         System.out.println("                  The default JAXP implementation to use of the JDK");
+        System.out.println("    -recordprofile <file-name>");
+        System.out.println("                  Record the modules and classes loaded until the main method returns");
+        System.out.println("                  to a boot profile");
+        System.out.println("    -replayprofile <file-name>");
+        System.out.println("                  Preload the modules and classes of a boot profile in the background");
         System.out.println("    -version      Print version and exit\n");
     }
 
@@ -107,6 +112,8 @@ public final class Main {
         String moduleIdentifierOrExeName = null;
         ModuleIdentifier logManagerModuleIdentifier = null;
         ModuleIdentifier jaxpModuleIdentifier = null;
+        String recordProfile = null;
+        String replayProfile = null;
         for (int i = 0, argsLength = argsLen; i < argsLength; i++) {
             final String arg = args[i];
             try {
@@ -143,6 +150,18 @@ public final class Main {
                         logManagerModuleIdentifier = ModuleIdentifier.fromString(args[++i]);
                     } else if ("-jaxpmodule".equals(arg)) {
                         jaxpModuleIdentifier = ModuleIdentifier.fromString(args[++i]);
+                    } else if ("-recordprofile".equals(arg)) {
+                        if (recordProfile != null) {
+                            System.err.println("-recordprofile may only be specified once");
+                            System.exit(1);
+                        }
+                        recordProfile = args[++i];
+                    } else if ("-replayprofile".equals(arg)) {
+                        if (replayProfile != null) {
+                            System.err.println("-replayprofile may only be specified once");
+                            System.exit(1);
+                        }
+                        replayProfile = args[++i];
                     } else if ("-jar".equals(arg)) {
                         if (jar) {
                             System.err.println("-jar flag may only be specified once");
@@ -173,6 +192,7 @@ public final class Main {
                         classpathDefined = true;
                         classpath = args[++i];
                         AccessController.doPrivileged(new PropertyWriteAction("java.class.path", classpath));
+                        SystemLocalLoader.getInstance().classPathChanged();
                     } else if ("-dep".equals(arg) || "-dependencies".equals(arg)) {
                         if (deps != null) {
                             System.err.println("-dep or -dependencies may only be specified once.");
@@ -249,6 +269,7 @@ public final class Main {
             moduleIdentifier = ModuleIdentifier.fromString(moduleIdentifierOrExeName);
         }
         Module.initBootModuleLoader(loader);
+        final BootProfile.Recorder recorder = recordProfile == null ? null : BootProfile.record(new File(recordProfile));
         if (logManagerModuleIdentifier != null) {
             final ModuleClassLoader classLoader = loader.loadModule(logManagerModuleIdentifier).getClassLoaderPrivate();
             final InputStream stream = classLoader.getResourceAsStream("META-INF/services/java.util.logging.LogManager");
@@ -274,7 +295,11 @@ public final class Main {
                             if (LogManager.getLogManager().getClass() == LogManager.class) {
                                 System.err.println("WARNING: Failed to load the specified logmodule " + logManagerModuleIdentifier);
                             } else {
-                                Module.setModuleLogger(new JDKModuleLogger());
+                                if (recorder != null) {
+                                    recorder.setDelegate(new JDKModuleLogger());
+                                } else {
+                                    Module.setModuleLogger(new JDKModuleLogger());
+                                }
                             }
                         } finally {
                             setContextClassLoader(old);
@@ -296,6 +321,14 @@ public final class Main {
         if (jaxpModuleIdentifier != null)
             __JAXPRedirected.changeAll(jaxpModuleIdentifier, Module.getBootModuleLoader());
 
+        if (replayProfile != null) {
+            try {
+                BootProfile.replay(new File(replayProfile), loader);
+            } catch (IOException e) {
+                System.err.println("WARNING: Failed to read boot profile " + replayProfile + ": " + e);
+            }
+        }
+
         final Module module;
         try {
             module = loader.loadModule(moduleIdentifier);
@@ -309,6 +342,11 @@ public final class Main {
             module.run(moduleArgs);
         } catch (InvocationTargetException e) {
             throw e.getCause();
+        } finally {
+            if (recorder != null) {
+                // boot is over once the main method returns
+                recorder.stop();
+            }
         }
         return;
     }
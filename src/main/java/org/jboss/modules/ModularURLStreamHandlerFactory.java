@@ -28,7 +28,8 @@ import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
@@ -39,58 +40,120 @@ import java.util.concurrent.CopyOnWriteArrayList;
 final class ModularURLStreamHandlerFactory implements URLStreamHandlerFactory {
     private static final PrivilegedAction<String> URL_MODULES_LIST_ACTION = new PropertyReadAction("jboss.protocol.handler.modules");
 
-    private static final List<Module> modules;
+    private static final int MAX_CACHED = 256;
 
-    static {
-        CopyOnWriteArrayList<Module> list = new CopyOnWriteArrayList<Module>();
-        final SecurityManager sm = System.getSecurityManager();
-        final String urlModulesList;
-        if (sm != null) {
-            urlModulesList = AccessController.doPrivileged(URL_MODULES_LIST_ACTION);
-        } else {
-            urlModulesList = URL_MODULES_LIST_ACTION.run();
+    /**
+     * The cached result for a protocol which no factory handles.
+     */
+    private static final Object NO_HANDLER = new Object();
+
+    private static volatile Resolutions resolutions = new Resolutions();
+
+    static void addHandlerModule(Module module) {
+        HandlerModules.MODULES.add(module);
+        resolutions = new Resolutions();
+    }
+
+    public URLStreamHandler createURLStreamHandler(final String protocol) {
+        final Resolutions resolutions = ModularURLStreamHandlerFactory.resolutions;
+        final Object cached = resolutions.handlers.get(protocol);
+        if (cached != null) {
+            return cached == NO_HANDLER ? null : (URLStreamHandler) cached;
         }
-        if (urlModulesList != null) {
-            final List<Module> moduleList = new ArrayList<Module>();
-            int f = 0;
-            int i;
-            do {
-                i = urlModulesList.indexOf('|', f);
-                final String moduleId = (i == -1 ? urlModulesList.substring(f) : urlModulesList.substring(f, i)).trim();
-                if (moduleId.length() > 0) {
-                    try {
-                        final ModuleIdentifier identifier = ModuleIdentifier.fromString(moduleId);
-                        Module module = Module.getBootModuleLoader().loadModule(identifier);
-                        moduleList.add(module);
-                    } catch (RuntimeException e) {
-                        // skip it
-                    } catch (ModuleLoadException e) {
-                        // skip it
-                    }
-                }
-                f = i + 1;
-            } while (i != -1);
-            list.addAll(moduleList);
+        final List<URLStreamHandlerFactory> factories = resolutions.getFactories();
+        if (factories == null) {
+            // the handler modules are being loaded by this thread
+            return null;
+        }
+        final URLStreamHandler handler = resolve(factories, protocol);
+        if (resolutions.handlers.size() < MAX_CACHED) {
+            resolutions.handlers.putIfAbsent(protocol, handler == null ? NO_HANDLER : handler);
         }
-        modules = list;
+        return handler;
     }
 
-    static void addHandlerModule(Module module) {
-        modules.add(module);
+    private static URLStreamHandler resolve(final List<URLStreamHandlerFactory> factories, final String protocol) {
+        for (URLStreamHandlerFactory factory : factories) try {
+            final URLStreamHandler handler = factory.createURLStreamHandler(protocol);
+            if (handler != null) {
+                return handler;
+            }
+        } catch (RuntimeException e) {
+            // ignored
+        }
+        return null;
     }
 
-    public URLStreamHandler createURLStreamHandler(final String protocol) {
-        for (Module module : modules) {
-            ServiceLoader<URLStreamHandlerFactory> loader = module.loadService(URLStreamHandlerFactory.class);
-            for (URLStreamHandlerFactory factory : loader) try {
-                final URLStreamHandler handler = factory.createURLStreamHandler(protocol);
-                if (handler != null) {
-                    return handler;
+    /**
+     * The factories of the registered modules, and the handler resolved for each protocol so far.  A new instance
+     * replaces the old one whenever a module is registered.
+     */
+    private static final class Resolutions {
+        private final ConcurrentMap<String, Object> handlers = new ConcurrentHashMap<String, Object>();
+        private volatile List<URLStreamHandlerFactory> factories;
+
+        List<URLStreamHandlerFactory> getFactories() {
+            List<URLStreamHandlerFactory> factories = this.factories;
+            if (factories == null) {
+                final List<Module> modules = HandlerModules.MODULES;
+                if (modules == null) {
+                    return null;
+                }
+                // not locked, since loading the factories may itself need a handler; a racing copy is harmless
+                factories = new ArrayList<URLStreamHandlerFactory>();
+                for (Module module : modules) {
+                    for (URLStreamHandlerFactory factory : module.loadService(URLStreamHandlerFactory.class)) {
+                        factories.add(factory);
+                    }
                 }
-            } catch (RuntimeException e) {
-                // ignored
+                this.factories = factories;
             }
+            return factories;
+        }
+    }
+
+    /**
+     * The handler modules, which are loaded from the system property on first use rather than when the module system
+     * starts.
+     */
+    private static final class HandlerModules {
+        static final List<Module> MODULES;
+
+        static {
+            CopyOnWriteArrayList<Module> list = new CopyOnWriteArrayList<Module>();
+            final SecurityManager sm = System.getSecurityManager();
+            final String urlModulesList;
+            if (sm != null) {
+                urlModulesList = AccessController.doPrivileged(URL_MODULES_LIST_ACTION);
+            } else {
+                urlModulesList = URL_MODULES_LIST_ACTION.run();
+            }
+            if (urlModulesList != null) {
+                final List<Module> moduleList = new ArrayList<Module>();
+                int f = 0;
+                int i;
+                do {
+                    i = urlModulesList.indexOf('|', f);
+                    final String moduleId = (i == -1 ? urlModulesList.substring(f) : urlModulesList.substring(f, i)).trim();
+                    if (moduleId.length() > 0) {
+                        try {
+                            final ModuleIdentifier identifier = ModuleIdentifier.fromString(moduleId);
+                            Module module = Module.getBootModuleLoader().loadModule(identifier);
+                            moduleList.add(module);
+                        } catch (RuntimeException e) {
+                            // skip it
+                        } catch (ModuleLoadException e) {
+                            // skip it
+                        }
+                    }
+                    f = i + 1;
+                } while (i != -1);
+                list.addAll(moduleList);
+            }
+            MODULES = list;
+        }
+
+        private HandlerModules() {
         }
-        return null;
     }
 }
@@ -23,6 +23,7 @@
 package org.jboss.modules;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
@@ -40,6 +41,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.ServiceConfigurationError;
 import java.util.ServiceLoader;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
@@ -165,14 +167,24 @@ public final class Module {
      */
     private volatile Paths<LocalLoader, Dependency> paths = Paths.none();
 
+    /**
+     * The classes resolved from the imports of the current paths.
+     */
+    private volatile ImportedClassCache importedClassCache;
+
+    /**
+     * The service providers visible through the current paths.
+     */
+    private volatile ServiceIndex serviceIndex;
+
     // private constants
 
-    private static final Dependency[] NO_DEPENDENCIES = new Dependency[0];
+    static final Dependency[] NO_DEPENDENCIES = new Dependency[0];
 
     private static final RuntimePermission GET_CLASS_LOADER = new RuntimePermission("getClassLoader");
     private static final RuntimePermission GET_SYSTEM_MODULE = new RuntimePermission("getSystemModule");
     private static final RuntimePermission GET_BOOT_MODULE_LOADER = new RuntimePermission("getBootModuleLoader");
-    private static final RuntimePermission ACCESS_MODULE_LOGGER = new RuntimePermission("accessModuleLogger");
+    static final RuntimePermission ACCESS_MODULE_LOGGER = new RuntimePermission("accessModuleLogger");
     private static final RuntimePermission ADD_CONTENT_HANDLER_FACTORY = new RuntimePermission("addContentHandlerFactory");
     private static final RuntimePermission ADD_URL_STREAM_HANDLER_FACTORY = new RuntimePermission("addURLStreamHandlerFactory");
 
@@ -306,6 +318,50 @@ public final class Module {
         return ServiceLoader.load(serviceType, moduleClassLoader);
     }
 
+    /**
+     * Load the provider classes of a service from this module, in the order in which {@link #loadService(Class)}
+     * would find them.  The provider configuration files are read and the classes loaded once; the result is
+     * cached until the module is relinked.  The provider classes are not initialized or instantiated.
+     *
+     * @param serviceType the service type class
+     * @param <S> the service type
+     * @return the provider classes
+     * @throws ServiceConfigurationError if a provider configuration file cannot be read, or a provider class cannot be
+     *         loaded or is not a subtype of the service type
+     */
+    @SuppressWarnings("unchecked")
+    public <S> List<Class<? extends S>> loadServiceClasses(Class<S> serviceType) {
+        final ServiceIndex index = getServiceIndex();
+        List<Class<?>> classes = index.getProviderClasses(serviceType);
+        if (classes == null) {
+            final List<String> names = getServiceProviderNames(index, serviceType.getName());
+            classes = new ArrayList<Class<?>>(names.size());
+            for (String name : names) {
+                final Class<?> clazz;
+                try {
+                    clazz = Class.forName(name, false, moduleClassLoader);
+                } catch (ClassNotFoundException e) {
+                    throw new ServiceConfigurationError(serviceType.getName() + ": Provider " + name + " not found", e);
+                }
+                if (! serviceType.isAssignableFrom(clazz)) {
+                    throw new ServiceConfigurationError(serviceType.getName() + ": Provider " + name + " not a subtype");
+                }
+                classes.add(clazz);
+            }
+            index.putProviderClasses(serviceType, classes);
+        }
+        return (List<Class<? extends S>>) (List<?>) Collections.unmodifiableList(classes);
+    }
+
+    private List<String> getServiceProviderNames(final ServiceIndex index, final String serviceName) {
+        List<String> names = index.getProviderNames(serviceName);
+        if (names == null) {
+            names = ServiceIndex.readProviderNames(serviceName, getResources("META-INF/services/" + serviceName, false));
+            index.putProviderNames(serviceName, names);
+        }
+        return names;
+    }
+
     /**
      * Load a service loader from a module in the caller's module loader. The caller's
      * module loader refers to the loader of the module of the class that calls this method.
@@ -579,14 +635,26 @@ public final class Module {
                 }
             }
         }
+        // one snapshot, so that the cache always belongs to the path map it is filled from
+        final Paths<LocalLoader, Dependency> linkedPaths = getLinkedPaths(exportsOnly);
+        final Map<String, List<LocalLoader>> paths = linkedPaths.getPaths(exportsOnly);
+        final ImportedClassCache cache = exportsOnly ? null : getImportedClassCache(linkedPaths);
+        if (cache != null && ! resolve) {
+            final Class<?> clazz = cache.get(className);
+            if (clazz != null) {
+                return clazz;
+            }
+        }
         final String path = pathOfClass(className);
-        final Map<String, List<LocalLoader>> paths = getPaths(exportsOnly);
         final List<LocalLoader> loaders = paths.get(path);
         if (loaders != null) {
             Class<?> clazz;
             for (LocalLoader loader : loaders) {
                 clazz = loader.loadClassLocal(className, resolve);
                 if (clazz != null) {
+                    if (cache != null && clazz.getClassLoader() != moduleClassLoader) {
+                        cache.put(className, clazz);
+                    }
                     return clazz;
                 }
             }
@@ -611,6 +679,30 @@ public final class Module {
                 return moduleClassLoader.getResource(name);
             }
         }
+        final Resource resource = loadResource(name, exportsOnly);
+        return resource == null ? null : resource.getURL();
+    }
+
+    /**
+     * Open a resource from a local loader.  The resource is streamed directly from its loader, without creating or
+     * opening its URL.
+     *
+     * @param name the resource name
+     * @param exportsOnly {@code true} to only consider exported resources
+     * @return the resource stream, or {@code null} if not found
+     * @throws IOException if the resource could not be opened
+     */
+    InputStream getResourceAsStream(final String name, final boolean exportsOnly) throws IOException {
+        for (String s : Module.systemPaths) {
+            if (name.startsWith(s)) {
+                return moduleClassLoader.getResourceAsStream(name);
+            }
+        }
+        final Resource resource = loadResource(name, exportsOnly);
+        return resource == null ? null : resource.openStream();
+    }
+
+    private Resource loadResource(final String name, final boolean exportsOnly) {
         log.trace("Attempting to find resource %s in %s", name, this);
         final String path = pathOf(name);
         final Map<String, List<LocalLoader>> paths = getPaths(exportsOnly);
@@ -619,7 +711,7 @@ public final class Module {
             for (LocalLoader loader : loaders) {
                 final List<Resource> resourceList = loader.loadResourceLocal(name);
                 for (Resource resource : resourceList) {
-                    return resource.getURL();
+                    return resource;
                 }
             }
         }
@@ -627,7 +719,7 @@ public final class Module {
         if (fallbackLoader != null) {
             final List<Resource> resourceList = fallbackLoader.loadResourceLocal(name);
             for (Resource resource : resourceList) {
-                return resource.getURL();
+                return resource;
             }
         }
         return null;
@@ -654,25 +746,12 @@ public final class Module {
         final String path = pathOf(name);
         final Map<String, List<LocalLoader>> paths = getPaths(exportsOnly);
         final List<LocalLoader> loaders = paths.get(path);
-
-        final List<URL> list = new ArrayList<URL>();
-        if (loaders != null) {
-            for (LocalLoader loader : loaders) {
-                final List<Resource> resourceList = loader.loadResourceLocal(name);
-                for (Resource resource : resourceList) {
-                    list.add(resource.getURL());
-                }
-            }
-        }
         final LocalLoader fallbackLoader = this.fallbackLoader;
-        if (fallbackLoader != null) {
-            final List<Resource> resourceList = fallbackLoader.loadResourceLocal(name);
-            for (Resource resource : resourceList) {
-                list.add(resource.getURL());
-            }
+        if (loaders == null && fallbackLoader == null) {
+            return ConcurrentClassLoader.EMPTY_ENUMERATION;
         }
-
-        return list.size() == 0 ? ConcurrentClassLoader.EMPTY_ENUMERATION : Collections.enumeration(list);
+        // loaders are searched as the enumeration is consumed; many callers only want the first few
+        return new ResourceURLEnumeration(name, loaders, fallbackLoader);
     }
 
     /**
@@ -837,143 +916,24 @@ public final class Module {
     // Linking and resolution
 
     Paths<LocalLoader, Dependency> linkExports(final Paths<LocalLoader, Dependency> paths) throws ModuleLoadException {
-        return linkExports(paths, new FastCopyHashSet<Module>());
+        return linkExports(paths, paths.getSourceList(NO_DEPENDENCIES));
     }
 
-    Paths<LocalLoader, Dependency> linkExports(final Paths<LocalLoader, Dependency> paths, Set<Module> visited) throws ModuleLoadException {
-        return linkExports(paths, paths.getSourceList(NO_DEPENDENCIES), visited);
-    }
-
-    Paths<LocalLoader, Dependency> linkExports(final Paths<LocalLoader, Dependency> paths, final Dependency[] dependencies, final Set<Module> visited) throws ModuleLoadException {
-
-        if (! visited.add(this)) {
-            throw new ModuleLoadException("Circular export path in " + identifier);
-        }
-
-        final Map<String, List<LocalLoader>> newMap = new HashMap<String, List<LocalLoader>>();
-
-        // Iterate dependencies and get their export paths.
-        for (Dependency dependency : dependencies) {
-            final PathFilter exportFilter = dependency.getExportFilter();
-            final PathFilter importFilter = dependency.getImportFilter();
-            final ClassFilter classExportFilter = dependency.getClassExportFilter();
-            final PathFilter resourceExportFilter = dependency.getResourceExportFilter();
-            if (importFilter == PathFilters.rejectAll() || exportFilter == PathFilters.rejectAll()) {
-                // we do not export anything from this dependency
-                continue;
-            }
-            final boolean skipFilters = classExportFilter == ClassFilters.acceptAll() && resourceExportFilter == PathFilters.acceptAll();
-            Map<LocalLoader, LocalLoader> filteredLoaders = null;
-
-            if (dependency instanceof LocalDependency) {
-                final LocalDependency localDependency = (LocalDependency) dependency;
-                final LocalLoader localLoader;
-                final LocalLoader localDependencyLocalLoader = localDependency.getLocalLoader();
-                if (skipFilters) {
-                    // do not pay the cost if it can be avoided
-                    localLoader = localDependencyLocalLoader;
-                } else {
-                    if (filteredLoaders == null) {
-                        filteredLoaders = new IdentityHashMap<LocalLoader, LocalLoader>();
-                    }
-                    if (filteredLoaders.containsKey(localDependencyLocalLoader)) {
-                        localLoader = filteredLoaders.get(localDependencyLocalLoader);
-                    } else {
-                        localLoader = LocalLoaders.createFilteredLocalLoader(classExportFilter, resourceExportFilter, localDependencyLocalLoader);
-                        filteredLoaders.put(localDependencyLocalLoader, localLoader);
-                    }
-                }
-                for (String path : localDependency.getPaths()) {
-                    if (importFilter.accept(path) && exportFilter.accept(path)) {
-                        addToMapList(newMap, path, localLoader);
-                    }
-                }
-            } else if (dependency instanceof ModuleClassLoaderDependency) {
-                final ModuleClassLoaderDependency moduleClassLoaderDependency = (ModuleClassLoaderDependency) dependency;
-                final LocalLoader localLoader;
-                final LocalLoader localDependencyLocalLoader = moduleClassLoaderDependency.getLocalLoader();
-                if (skipFilters) {
-                    // do not pay the cost if it can be avoided
-                    localLoader = localDependencyLocalLoader;
-                } else {
-                    if (filteredLoaders == null) {
-                        filteredLoaders = new IdentityHashMap<LocalLoader, LocalLoader>();
-                    }
-                    if (filteredLoaders.containsKey(localDependencyLocalLoader)) {
-                        localLoader = filteredLoaders.get(localDependencyLocalLoader);
-                    } else {
-                        localLoader = LocalLoaders.createFilteredLocalLoader(classExportFilter, resourceExportFilter, localDependencyLocalLoader);
-                        filteredLoaders.put(localDependencyLocalLoader, localLoader);
-                    }
-                }
-                for (String path : moduleClassLoaderDependency.getPaths()) {
-                    if (importFilter.accept(path) && exportFilter.accept(path)) {
-                        addToMapList(newMap, path, localLoader);
-                    }
-                }
-            } else if (dependency instanceof ModuleDependency) {
-                final ModuleDependency moduleDependency = (ModuleDependency) dependency;
-                final Module module;
-                final ModuleLoader moduleLoader = moduleDependency.getModuleLoader();
-                final ModuleIdentifier id = moduleDependency.getIdentifier();
-
-                try {
-                    module = moduleLoader.loadModule(id, visited);
-                } catch (ModuleLoadException ex) {
-                    if (moduleDependency.isOptional()) {
-                        continue;
-                    } else {
-                        throw ex;
-                    }
-                }
-
-                // Get the set that they export
-                final Map<String, List<LocalLoader>> pathsMap = module.getPaths(true);
-                for (String path : pathsMap.keySet()) {
-                    // Check it against what we import and export
-                    if (importFilter.accept(path) && exportFilter.accept(path)) {
-                        final List<LocalLoader> loaders = pathsMap.get(path);
-                        if (skipFilters) {
-                            addToMapList(newMap, path, loaders);
-                        } else {
-                            if (filteredLoaders == null) {
-                                filteredLoaders = new IdentityHashMap<LocalLoader, LocalLoader>();
-                            }
-                            for (LocalLoader loader : loaders) {
-                                if (filteredLoaders.containsKey(loader)) {
-                                    addToMapList(newMap, path, filteredLoaders.get(loader));
-                                } else {
-                                    LocalLoader filtered = LocalLoaders.createFilteredLocalLoader(classExportFilter, resourceExportFilter, loader);
-                                    addToMapList(newMap, path, filtered);
-                                    filteredLoaders.put(loader, filtered);
-                                }
-                            }
-                        }
-                    }
-                }
-            } else {
-                throw new IllegalArgumentException("Invalid dependency " + dependency + " encountered");
-            }
-        }
-
-        // Final optimizing step
-        removeDuplicatesFromLists(newMap.values());
-
-        final Paths<LocalLoader, Dependency> newPaths = new Paths<LocalLoader, Dependency>(dependencies, null, newMap);
-        pathsUpdater.compareAndSet(this, paths, newPaths);
-        visited.remove(this);
-        return newPaths;
+    Paths<LocalLoader, Dependency> linkExports(final Paths<LocalLoader, Dependency> paths, final Dependency[] dependencies) throws ModuleLoadException {
+        return Linker.linkExports(this, paths, dependencies);
     }
 
     private void linkImports(final Paths<LocalLoader, Dependency> paths) throws ModuleLoadException {
-        final Set<Module> visited = new FastCopyHashSet<Module>();
-        visited.add(this);
         final Map<String, List<LocalLoader>> newMap = new HashMap<String, List<LocalLoader>>();
 
         final Dependency[] dependencies = paths.getSourceList(NO_DEPENDENCIES);
 
+        // Link the exports of all our dependencies up front, so independent ones may be linked concurrently
+        final Object[] resolved = Linker.linkDependencies(dependencies);
+
         // Iterate dependencies and get their export paths.
-        for (Dependency dependency : dependencies) {
+        for (int i = 0; i < dependencies.length; i++) {
+            final Dependency dependency = dependencies[i];
             final PathFilter importFilter = dependency.getImportFilter();
             if (importFilter == PathFilters.rejectAll()) {
                 // we do not import anything from this dependency
@@ -983,6 +943,8 @@ public final class Module {
             final ClassFilter classImportFilter = dependency.getClassImportFilter();
             final PathFilter resourceImportFilter = dependency.getResourceImportFilter();
             final boolean skipFilters = classImportFilter == ClassFilters.acceptAll() && resourceImportFilter == PathFilters.acceptAll();
+            // a package-granular class filter can be decided here, per path, rather than on every load
+            final PathFilter packageFilter = resourceImportFilter == PathFilters.acceptAll() ? ClassFilters.getPackagePathFilter(classImportFilter) : null;
             Map<LocalLoader, LocalLoader> filteredLoaders = null;
 
             if (dependency instanceof LocalDependency) {
@@ -1004,7 +966,7 @@ public final class Module {
                 }
                 for (String path : localDependency.getPaths()) {
                     if (importFilter.accept(path)) {
-                        addToMapList(newMap, path, localLoader);
+                        addToMapList(newMap, path, packageFilter != null && packageFilter.accept(path) ? localDependencyLocalLoader : localLoader);
                     }
                 }
             } else if (dependency instanceof ModuleClassLoaderDependency) {
@@ -1026,17 +988,21 @@ public final class Module {
                 }
                 for (String path : moduleClassLoaderDependency.getPaths()) {
                     if (importFilter.accept(path)) {
-                        addToMapList(newMap, path, localLoader);
+                        addToMapList(newMap, path, packageFilter != null && packageFilter.accept(path) ? localDependencyLocalLoader : localLoader);
                     }
                 }
             } else if (dependency instanceof ModuleDependency) {
                 final ModuleDependency moduleDependency = (ModuleDependency) dependency;
                 final Module module;
-                final ModuleLoader moduleLoader = moduleDependency.getModuleLoader();
-                final ModuleIdentifier id = moduleDependency.getIdentifier();
 
                 try {
-                    module = moduleLoader.loadModule(id, visited);
+                    // reuse the module already found by the linker, rather than looking it up again
+                    final Object target = resolved[i];
+                    if (target instanceof ModuleLoadException) {
+                        throw (ModuleLoadException) target;
+                    }
+                    module = (Module) target;
+                    module.linkExportsIfNeeded();
                 } catch (ModuleLoadException ex) {
                     if (moduleDependency.isOptional()) {
                         continue;
@@ -1051,7 +1017,7 @@ public final class Module {
                     // Check it against what we import
                     if (importFilter.accept(path)) {
                         final List<LocalLoader> loaders = pathsMap.get(path);
-                        if (skipFilters) {
+                        if (skipFilters || packageFilter != null && packageFilter.accept(path)) {
                             addToMapList(newMap, path, loaders);
                         } else {
                             if (filteredLoaders == null) {
@@ -1083,11 +1049,40 @@ public final class Module {
         pathsUpdater.compareAndSet(this, paths, newPaths);
     }
 
+    private ImportedClassCache getImportedClassCache(final Paths<LocalLoader, Dependency> paths) {
+        ImportedClassCache cache = importedClassCache;
+        if (cache == null || ! cache.isFor(paths)) {
+            // new paths mean new imports; start over
+            importedClassCache = cache = new ImportedClassCache(paths);
+        }
+        return cache;
+    }
+
+    private ServiceIndex getServiceIndex() {
+        // link first, so the index belongs to the paths it is read from
+        final Paths<LocalLoader, Dependency> paths = getLinkedPaths(false);
+        ServiceIndex index = serviceIndex;
+        if (index == null || ! index.isFor(paths)) {
+            // new paths mean new imports; start over
+            serviceIndex = index = new ServiceIndex(paths);
+        }
+        return index;
+    }
+
     Map<String, List<LocalLoader>> getPaths(final boolean exportsOnly) {
+        return getLinkedPaths(exportsOnly).getPaths(exportsOnly);
+    }
+
+    /**
+     * Get a snapshot of this module's paths in which the requested path map is linked.
+     *
+     * @param exportsOnly {@code true} to require the exported path map, {@code false} to require the full path map
+     * @return the paths snapshot
+     */
+    private Paths<LocalLoader, Dependency> getLinkedPaths(final boolean exportsOnly) {
         final Paths<LocalLoader, Dependency> paths = this.paths;
-        Map<String, List<LocalLoader>> map = paths.getPaths(exportsOnly);
-        if (map != null) {
-            return map;
+        if (paths.getPaths(exportsOnly) != null) {
+            return paths;
         }
         if (exportsOnly) {
             try {
@@ -1104,10 +1099,10 @@ public final class Module {
                 throw e.toError();
             }
         }
-        return getPaths(exportsOnly);
+        return getLinkedPaths(exportsOnly);
     }
 
-    private static <K, V> void addToMapList(Map<K, List<V>> map, K key, V item) {
+    static <K, V> void addToMapList(Map<K, List<V>> map, K key, V item) {
         List<V> list = map.get(key);
         if (list == null) {
             list = new ArrayList<V>();
@@ -1116,7 +1111,7 @@ public final class Module {
         list.add(item);
     }
 
-    private static <K, V> void addToMapList(Map<K, List<V>> map, K key, List<V> items) {
+    static <K, V> void addToMapList(Map<K, List<V>> map, K key, List<V> items) {
         List<V> list = map.get(key);
         if (list == null) {
             list = new ArrayList<V>();
@@ -1125,7 +1120,7 @@ public final class Module {
         list.addAll(items);
     }
 
-    private static <E> void removeDuplicatesFromLists(Collection<List<E>> lists) {
+    static <E> void removeDuplicatesFromLists(Collection<List<E>> lists) {
         Set<E> set = new IdentityHashSet<E>(128);
         for (List<E> list: lists) {
             if (list.size() <= 1) {
@@ -1140,13 +1135,21 @@ public final class Module {
         }
     }
 
-    void linkExportsIfNeeded(final Set<Module> visited) throws ModuleLoadException {
+    void linkExportsIfNeeded() throws ModuleLoadException {
         final Paths<LocalLoader, Dependency> paths = this.paths;
         if (paths.getExportedPaths() == null) {
-            linkExports(paths, visited);
+            linkExports(paths);
         }
     }
 
+    Paths<LocalLoader, Dependency> getCurrentPaths() {
+        return paths;
+    }
+
+    boolean compareAndSetPaths(final Paths<LocalLoader, Dependency> expect, final Paths<LocalLoader, Dependency> update) {
+        return pathsUpdater.compareAndSet(this, expect, update);
+    }
+
     void relink() throws ModuleLoadException {
         linkImports(linkExports(paths));
     }
@@ -1156,7 +1159,7 @@ public final class Module {
     }
 
     void setDependencies(final List<DependencySpec> dependencySpecs) throws ModuleLoadException {
-        linkExports(paths, calculateDependencies(dependencySpecs), new FastCopyHashSet<Module>());
+        linkExports(paths, calculateDependencies(dependencySpecs));
     }
 
     private Dependency[] calculateDependencies(final List<DependencySpec> dependencySpecs) {
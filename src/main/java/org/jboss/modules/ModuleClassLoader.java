@@ -105,7 +105,7 @@ public class ModuleClassLoader extends ConcurrentClassLoader {
         // the ModuleClassLoader must live in complete isolation
         super(null);
         module = configuration.getModule();
-        paths = new Paths<ResourceLoader, ResourceLoaderSpec>(configuration.getResourceLoaders(), Collections.<String, List<ResourceLoader>>emptyMap(), Collections.<String, List<ResourceLoader>>emptyMap());
+        paths = new Paths<ResourceLoader, ResourceLoaderSpec>(configuration.getResourceLoaders(), PathMap.<ResourceLoader>empty(), PathMap.<ResourceLoader>empty());
         final AssertionSetting setting = configuration.getAssertionSetting();
         if (setting != AssertionSetting.INHERIT) {
             setDefaultAssertionStatus(setting == AssertionSetting.ENABLED);
@@ -144,7 +144,7 @@ public class ModuleClassLoader extends ConcurrentClassLoader {
                 if (filter.accept(path)) {
                     final List<ResourceLoader> allLoaders = allPaths.get(path);
                     if (allLoaders == null) {
-                        ArrayList<ResourceLoader> newList = new ArrayList<ResourceLoader>(16);
+                        ArrayList<ResourceLoader> newList = new ArrayList<ResourceLoader>(2);
                         newList.add(loader);
                         allPaths.put(path, newList);
                     } else {
@@ -506,8 +506,7 @@ public class ModuleClassLoader extends ConcurrentClassLoader {
     @Override
     public final InputStream findResourceAsStream(final String name, boolean exportsOnly) {
         try {
-            final URL resource = findResource(name, exportsOnly);
-            return resource == null ? null : resource.openStream();
+            return module.getResourceAsStream(name, exportsOnly);
         } catch (IOException e) {
             return null;
         }
@@ -169,15 +169,11 @@ public abstract class ModuleLoader {
      * @throws ModuleLoadException if the Module can not be loaded
      */
     public final Module loadModule(ModuleIdentifier identifier) throws ModuleLoadException {
-        return loadModule(identifier, new FastCopyHashSet<Module>());
-    }
-
-    final Module loadModule(ModuleIdentifier identifier, Set<Module> visited) throws ModuleLoadException {
         final Module module = preloadModule(identifier);
         if (module == null) {
             throw new ModuleNotFoundException(identifier.toString());
         }
-        module.linkExportsIfNeeded(visited);
+        module.linkExportsIfNeeded();
         return module;
     }
 
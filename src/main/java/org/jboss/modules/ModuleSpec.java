@@ -94,6 +94,10 @@ public final class ModuleSpec {
         return classFileTransformer;
     }
 
+    ModuleSpec withResourceLoaders(final ResourceLoaderSpec[] resourceLoaders) {
+        return new ModuleSpec(moduleIdentifier, mainClass, assertionSetting, resourceLoaders, dependencies, fallbackLoader, moduleClassLoaderFactory, classFileTransformer);
+    }
+
     /**
      * A builder for new module specifications.
      *
@@ -37,6 +37,7 @@ import java.io.InputStream;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
@@ -197,16 +198,20 @@ final class ModuleXmlParser {
             throw new ModuleLoadException("No module.xml file found at " + moduleInfoFile);
         }
         try {
-            return parseModuleXml(new ResourceRootFactory() {
+            final Map<ResourceLoader, File> rootFiles = new IdentityHashMap<ResourceLoader, File>();
+            final ModuleSpec moduleSpec = parseModuleXml(new ResourceRootFactory() {
                     public ResourceLoader createResourceLoader(final String rootPath, final String loaderPath, final String loaderName) throws IOException {
                         File file = new File(rootPath, loaderPath);
                         if (file.isDirectory()) {
                             return new FileResourceLoader(loaderName, file);
                         } else {
-                            return new JarFileResourceLoader(loaderName, new JarFile(file));
+                            final ResourceLoader loader = new JarFileResourceLoader(loaderName, new JarFile(file));
+                            rootFiles.put(loader, file);
+                            return loader;
                         }
                     }
                 }, root.getPath(), fis, moduleInfoFile.getPath(), moduleIdentifier);
+            return LinkageCache.apply(moduleSpec, moduleInfoFile, rootFiles);
         } finally {
             safeClose(fis);
         }
@@ -0,0 +1,222 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.modules;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * An immutable map of path names to lists of loaders, specialized for the path maps held by {@link Paths}.  The
+ * keys are stored in a single open-addressed array along with their cached hash codes, and each value is stored
+ * as an immutable, exactly sized list which is built once at construction and returned as-is by {@link #get(Object)}.
+ *
+ * @param <T> the loader type
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class PathMap<T> extends AbstractMap<String, List<T>> {
+
+    private static final PathMap<?> EMPTY = new PathMap<Object>(new String[1], new int[1], new List<?>[1], 0);
+
+    private final String[] keys;
+    private final int[] hashes;
+    private final List<?>[] values;
+    private final int size;
+
+    private PathMap(final String[] keys, final int[] hashes, final List<?>[] values, final int size) {
+        this.keys = keys;
+        this.hashes = hashes;
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * Get the empty path map.
+     *
+     * @param <T> the loader type
+     * @return the empty path map
+     */
+    @SuppressWarnings({ "unchecked" })
+    static <T> PathMap<T> empty() {
+        return (PathMap<T>) EMPTY;
+    }
+
+    /**
+     * Create a compact copy of the given map.  Empty lists are retained as empty entries.
+     *
+     * @param map the map to copy
+     * @param <T> the loader type
+     * @return the compact path map
+     */
+    static <T> PathMap<T> copyOf(final Map<String, ? extends List<T>> map) {
+        if (map instanceof PathMap) {
+            @SuppressWarnings({ "unchecked" })
+            final PathMap<T> pathMap = (PathMap<T>) map;
+            return pathMap;
+        }
+        final int size = map.size();
+        if (size == 0) {
+            return empty();
+        }
+        // keep the load factor at or under 0.75
+        int capacity = Integer.highestOneBit(size + (size >> 1) + 1) << 1;
+        if (capacity < 2) capacity = 2;
+        final int mask = capacity - 1;
+        final String[] keys = new String[capacity];
+        final int[] hashes = new int[capacity];
+        final List<?>[] values = new List<?>[capacity];
+        for (Map.Entry<String, ? extends List<T>> entry : map.entrySet()) {
+            final String key = entry.getKey();
+            final int hash = hashOf(key);
+            int idx = hash & mask;
+            while (keys[idx] != null) {
+                idx = (idx + 1) & mask;
+            }
+            keys[idx] = key;
+            hashes[idx] = hash;
+            values[idx] = listOf(entry.getValue());
+        }
+        return new PathMap<T>(keys, hashes, values, size);
+    }
+
+    private static int hashOf(final String key) {
+        final int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private int indexOf(final Object key) {
+        if (! (key instanceof String)) {
+            return -1;
+        }
+        final String[] keys = this.keys;
+        final int[] hashes = this.hashes;
+        final int mask = keys.length - 1;
+        final int hash = hashOf((String) key);
+        int idx = hash & mask;
+        String test;
+        while ((test = keys[idx]) != null) {
+            if (hashes[idx] == hash && (test == key || test.equals(key))) {
+                return idx;
+            }
+            idx = (idx + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static <T> List<T> listOf(final List<T> list) {
+        switch (list.size()) {
+            case 0: return Collections.emptyList();
+            case 1: return Collections.singletonList(list.get(0));
+            default: return new ArrayView<T>(list.toArray());
+        }
+    }
+
+    @SuppressWarnings({ "unchecked" })
+    private List<T> valueAt(final int idx) {
+        return (List<T>) values[idx];
+    }
+
+    public List<T> get(final Object key) {
+        final int idx = indexOf(key);
+        return idx == -1 ? null : valueAt(idx);
+    }
+
+    public boolean containsKey(final Object key) {
+        return indexOf(key) != -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public Set<Entry<String, List<T>>> entrySet() {
+        return new AbstractSet<Entry<String, List<T>>>() {
+            public Iterator<Entry<String, List<T>>> iterator() {
+                return new EntryIterator();
+            }
+
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private final class EntryIterator implements Iterator<Entry<String, List<T>>> {
+        private int idx = advance(0);
+
+        private int advance(int idx) {
+            final String[] keys = PathMap.this.keys;
+            final int length = keys.length;
+            while (idx < length && keys[idx] == null) {
+                idx++;
+            }
+            return idx;
+        }
+
+        public boolean hasNext() {
+            return idx < keys.length;
+        }
+
+        public Entry<String, List<T>> next() {
+            final int idx = this.idx;
+            if (idx >= keys.length) {
+                throw new NoSuchElementException();
+            }
+            this.idx = advance(idx + 1);
+            return new SimpleImmutableEntry<String, List<T>>(keys[idx], valueAt(idx));
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private static final class ArrayView<T> extends AbstractList<T> implements RandomAccess {
+        private final Object[] array;
+
+        ArrayView(final Object[] array) {
+            this.array = array;
+        }
+
+        @SuppressWarnings({ "unchecked" })
+        public T get(final int index) {
+            return (T) array[index];
+        }
+
+        public int size() {
+            return array.length;
+        }
+    }
+}
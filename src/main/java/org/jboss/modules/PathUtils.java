@@ -39,6 +39,58 @@ public final class PathUtils {
      * @return the canonical path
      */
     public static String canonicalize(String path) {
+        return isCanonical(path) ? path : canonicalizeSlow(path);
+    }
+
+    /**
+     * Canonicalize the given path.  Removes all {@code .} and {@code ..} segments from the path.  The characters of
+     * the path are read in place, so a path which is being assembled in a {@link StringBuilder} need not be
+     * converted to a string first.
+     *
+     * @param path the relative or absolute possibly non-canonical path
+     * @return the canonical path
+     */
+    public static String canonicalize(CharSequence path) {
+        if (path instanceof String) {
+            return canonicalize((String) path);
+        }
+        return isCanonical(path) ? path.toString() : canonicalizeSlow(path);
+    }
+
+    /**
+     * Determine whether the given path is already canonical, that is, whether {@link #canonicalize(String)} would
+     * return it unchanged.  This is the case if it has no empty segments other than a leading or trailing one, no
+     * {@code .} or {@code ..} segments, and no segment other than the last which ends with a dot.
+     *
+     * @param path the path
+     * @return {@code true} if the path is canonical, {@code false} if it must be canonicalized
+     */
+    static boolean isCanonical(CharSequence path) {
+        final int length = path.length();
+        // length of the current segment, and the number of dots in it
+        int segment = 0;
+        int dots = 0;
+        char prev = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = path.charAt(i);
+            if (c == '/') {
+                if (segment == 0 ? i > 0 : prev == '.') {
+                    return false;
+                }
+                segment = 0;
+                dots = 0;
+            } else {
+                segment++;
+                if (c == '.') {
+                    dots++;
+                }
+            }
+            prev = c;
+        }
+        return segment == 0 || dots != segment || segment > 2;
+    }
+
+    private static String canonicalizeSlow(CharSequence path) {
         final int length = path.length();
         // 0 - start
         // 1 - got one .
@@ -46,7 +98,7 @@ public final class PathUtils {
         // 3 - got /
         int state = 0;
         if (length == 0) {
-            return path;
+            return "";
         }
         final char[] targetBuf = new char[length];
         // string segment end exclusive
@@ -81,7 +133,7 @@ public final class PathUtils {
                     // fall thru
                 }
                 default: {
-                    final int newE = e > 0 ? path.lastIndexOf('/', e - 1) : -1;
+                    final int newE = e > 0 ? lastIndexOf(path, '/', e - 1) : -1;
                     final int segmentLength = e - newE - 1;
                     if (skip > 0) {
                         skip--;
@@ -89,7 +141,7 @@ public final class PathUtils {
                         if (state == 3) {
                             targetBuf[a--] = '/';
                         }
-                        path.getChars(newE + 1, e, targetBuf, (a -= segmentLength) + 1);
+                        getChars(path, newE + 1, e, targetBuf, (a -= segmentLength) + 1);
                     }
                     state = 0;
                     i = newE + 1;
@@ -103,4 +155,28 @@ public final class PathUtils {
         }
         return new String(targetBuf, a + 1, length - a - 1);
     }
+
+    private static int lastIndexOf(CharSequence path, char ch, int from) {
+        if (path instanceof String) {
+            return ((String) path).lastIndexOf(ch, from);
+        }
+        for (int i = from; i >= 0; i--) {
+            if (path.charAt(i) == ch) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void getChars(CharSequence path, int start, int end, char[] dest, int destStart) {
+        if (path instanceof String) {
+            ((String) path).getChars(start, end, dest, destStart);
+        } else if (path instanceof StringBuilder) {
+            ((StringBuilder) path).getChars(start, end, dest, destStart);
+        } else {
+            for (int i = start; i < end; i++) {
+                dest[destStart++] = path.charAt(i);
+            }
+        }
+    }
 }
@@ -26,7 +26,7 @@ import java.util.List;
 import java.util.Map;
 
 /**
- * A pair of path maps.
+ * A pair of path maps.  The maps are stored in compact form as {@link PathMap} instances.
  *
  * @param <T> the type of object that each path refers to
  * @param <A> the type of the source object used to calculate the path maps
@@ -35,24 +35,24 @@ import java.util.Map;
  */
 final class Paths<T, A> {
     private final A[] sourceList;
-    private final Map<String, List<T>> allPaths;
-    private final Map<String, List<T>> exportedPaths;
+    private final PathMap<T> allPaths;
+    private final PathMap<T> exportedPaths;
 
     Paths(final A[] sourceList, final Map<String, List<T>> allPaths, final Map<String, List<T>> exportedPaths) {
         this.sourceList = sourceList;
-        this.allPaths = allPaths;
-        this.exportedPaths = exportedPaths;
+        this.allPaths = allPaths == null ? null : PathMap.copyOf(allPaths);
+        this.exportedPaths = exportedPaths == null ? null : PathMap.copyOf(exportedPaths);
     }
 
-    Map<String, List<T>> getAllPaths() {
+    PathMap<T> getAllPaths() {
         return allPaths;
     }
 
-    Map<String, List<T>> getExportedPaths() {
+    PathMap<T> getExportedPaths() {
         return exportedPaths;
     }
 
-    Map<String, List<T>> getPaths(boolean export) {
+    PathMap<T> getPaths(boolean export) {
         return export ? exportedPaths : allPaths;
     }
 
@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.modules;
+
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An enumeration of the URLs of the resources of a given name from a sequence of local loaders.  Each loader is only
+ * consulted once the resources of the loaders before it have been enumerated, and each URL is only obtained when
+ * it is requested.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class ResourceURLEnumeration implements Enumeration<URL> {
+
+    private final String name;
+    private final List<LocalLoader> loaders;
+    private final LocalLoader fallbackLoader;
+    private int idx;
+    private Iterator<Resource> current;
+
+    /**
+     * Construct a new instance.
+     *
+     * @param name the resource name
+     * @param loaders the loaders to search, or {@code null} for none
+     * @param fallbackLoader the loader to search last, or {@code null} for none
+     */
+    ResourceURLEnumeration(final String name, final List<LocalLoader> loaders, final LocalLoader fallbackLoader) {
+        this.name = name;
+        this.loaders = loaders;
+        this.fallbackLoader = fallbackLoader;
+    }
+
+    public boolean hasMoreElements() {
+        Iterator<Resource> current = this.current;
+        while (current == null || ! current.hasNext()) {
+            final List<LocalLoader> loaders = this.loaders;
+            final int idx = this.idx;
+            final LocalLoader loader;
+            if (loaders != null && idx < loaders.size()) {
+                loader = loaders.get(idx);
+            } else if (fallbackLoader != null && idx == (loaders == null ? 0 : loaders.size())) {
+                loader = fallbackLoader;
+            } else {
+                return false;
+            }
+            this.idx = idx + 1;
+            this.current = current = loader.loadResourceLocal(name).iterator();
+        }
+        return true;
+    }
+
+    public URL nextElement() {
+        if (! hasMoreElements()) {
+            throw new NoSuchElementException();
+        }
+        return current.next().getURL();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.modules;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An index of the service providers visible to a module.  The provider names of each service are read from the
+ * {@code META-INF/services} files of the module once, on first use; the provider classes are held weakly so that
+ * the index never keeps a class loader alive.
+ * <p>
+ * An index belongs to a single path map of its module, and is discarded when the module is relinked.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class ServiceIndex {
+
+    private final Object pathsKey;
+    private final ConcurrentMap<String, List<String>> providerNames = new ConcurrentHashMap<String, List<String>>();
+    private final ConcurrentMap<String, Providers> providers = new ConcurrentHashMap<String, Providers>();
+
+    ServiceIndex(final Object pathsKey) {
+        this.pathsKey = pathsKey;
+    }
+
+    boolean isFor(final Object pathsKey) {
+        return this.pathsKey == pathsKey;
+    }
+
+    List<String> getProviderNames(final String serviceName) {
+        return providerNames.get(serviceName);
+    }
+
+    void putProviderNames(final String serviceName, final List<String> names) {
+        providerNames.put(serviceName, names);
+    }
+
+    /**
+     * Get the cached provider classes of a service type.
+     *
+     * @param serviceType the service type
+     * @return the provider classes, or {@code null} if they are not cached or have been collected
+     */
+    List<Class<?>> getProviderClasses(final Class<?> serviceType) {
+        final Providers providers = this.providers.get(serviceType.getName());
+        return providers == null ? null : providers.get(serviceType);
+    }
+
+    void putProviderClasses(final Class<?> serviceType, final List<Class<?>> classes) {
+        providers.put(serviceType.getName(), new Providers(serviceType, classes));
+    }
+
+    /**
+     * Read the provider names from a sequence of provider configuration files.  Names are returned in the order in
+     * which they are first found, without duplicates, as {@link java.util.ServiceLoader} would find them.
+     *
+     * @param serviceName the service type name
+     * @param urls the provider configuration file URLs
+     * @return the provider names
+     * @throws ServiceConfigurationError if a provider configuration file cannot be read
+     */
+    static List<String> readProviderNames(final String serviceName, final Enumeration<URL> urls) {
+        final Set<String> names = new LinkedHashSet<String>();
+        while (urls.hasMoreElements()) {
+            final URL url = urls.nextElement();
+            try {
+                final InputStream is = url.openStream();
+                try {
+                    final BufferedReader reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        final int idx = line.indexOf('#');
+                        if (idx != -1) {
+                            line = line.substring(0, idx);
+                        }
+                        line = line.trim();
+                        if (line.length() > 0) {
+                            names.add(line);
+                        }
+                    }
+                } finally {
+                    try {
+                        is.close();
+                    } catch (IOException ignored) {
+                        // ignore
+                    }
+                }
+            } catch (IOException e) {
+                throw new ServiceConfigurationError(serviceName + ": Error reading configuration file " + url, e);
+            }
+        }
+        return names.isEmpty() ? Collections.<String>emptyList() : Collections.unmodifiableList(new ArrayList<String>(names));
+    }
+
+    private static final class Providers {
+        private final WeakReference<Class<?>> serviceType;
+        private final WeakReference<Class<?>>[] classes;
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Providers(final Class<?> serviceType, final List<Class<?>> classes) {
+            this.serviceType = new WeakReference<Class<?>>(serviceType);
+            final WeakReference<Class<?>>[] array = new WeakReference[classes.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = new WeakReference<Class<?>>(classes.get(i));
+            }
+            this.classes = array;
+        }
+
+        List<Class<?>> get(final Class<?> serviceType) {
+            if (this.serviceType.get() != serviceType) {
+                // same name, different type
+                return null;
+            }
+            final List<Class<?>> list = new ArrayList<Class<?>>(classes.length);
+            for (WeakReference<Class<?>> ref : classes) {
+                final Class<?> clazz = ref.get();
+                if (clazz == null) {
+                    return null;
+                }
+                list.add(clazz);
+            }
+            return list;
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.modules;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.security.AccessController;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The index of the paths available from the system class path.  Each class path element is scanned separately, in
+ * parallel where there is more than one to scan.  On a runtime without a boot class path, the packages of the boot
+ * module layer stand in for it, which avoids opening the runtime image at all.
+ * <p>
+ * If the {@linkplain LinkageCache linkage cache} is enabled, the paths of each archive on the class path are stored in
+ * it, keyed by the fingerprint of the archive, so only new or changed archives are scanned again.  Directories are
+ * always scanned.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class SystemClassPathIndex {
+
+    private static final String CACHE_FILE_NAME = "system-class-path.index";
+
+    private static final int MAGIC = 0x4a4d5350;
+    private static final int VERSION = 1;
+
+    private SystemClassPathIndex() {
+    }
+
+    /**
+     * Build the path set of the system class path.
+     *
+     * @return the path set
+     */
+    static Set<String> buildPathSet() {
+        final String sunBootClassPath = AccessController.doPrivileged(new PropertyReadAction("sun.boot.class.path"));
+        final String javaClassPath = AccessController.doPrivileged(new PropertyReadAction("java.class.path"));
+        final File cacheDir = LinkageCache.getCacheDir();
+        return buildPathSet(sunBootClassPath, javaClassPath, cacheDir == null ? null : new File(cacheDir, CACHE_FILE_NAME));
+    }
+
+    /**
+     * Build the path set of the given class paths.
+     *
+     * @param sunBootClassPath the boot class path, or {@code null} to use the packages of the boot module layer
+     * @param javaClassPath the application class path, or {@code null} for none
+     * @param cacheFile the file which caches the paths of archives, or {@code null} to scan every archive
+     * @return the path set
+     */
+    static Set<String> buildPathSet(final String sunBootClassPath, final String javaClassPath, final File cacheFile) {
+        final Set<String> pathSet = new FastCopyHashSet<String>(1024);
+        if (sunBootClassPath == null) {
+            addBootLayerPackages(pathSet);
+        }
+        final Set<String> items = new LinkedHashSet<String>();
+        addClassPathItems(sunBootClassPath, items);
+        addClassPathItems(javaClassPath, items);
+
+        final Map<String, CacheEntry> cached = cacheFile == null ? Collections.<String, CacheEntry>emptyMap() : read(cacheFile);
+        final List<CacheEntry> archives = new ArrayList<CacheEntry>();
+        final List<Callable<Collection<String>>> tasks = new ArrayList<Callable<Collection<String>>>();
+        boolean changed = false;
+        for (String item : items) {
+            final File file = new File(item);
+            if (file.isDirectory()) {
+                tasks.add(new DirectoryScan(file));
+            } else if (file.isFile()) {
+                final LinkageCache.Fingerprint fingerprint = new LinkageCache.Fingerprint(Collections.singleton(file));
+                final CacheEntry entry = cached.get(file.getAbsolutePath());
+                if (entry != null && entry.fingerprint.equals(fingerprint)) {
+                    archives.add(entry);
+                    Collections.addAll(pathSet, entry.paths);
+                } else {
+                    tasks.add(new ArchiveScan(file, fingerprint));
+                    changed = true;
+                }
+            }
+        }
+        for (Collection<String> paths : runAll(tasks)) {
+            pathSet.addAll(paths);
+        }
+        for (Callable<Collection<String>> task : tasks) {
+            if (task instanceof ArchiveScan && ((ArchiveScan) task).entry != null) {
+                archives.add(((ArchiveScan) task).entry);
+            }
+        }
+        if (cacheFile != null && (changed || archives.size() != cached.size())) {
+            write(cacheFile, archives);
+        }
+        return pathSet;
+    }
+
+    private static void addClassPathItems(final String classPath, final Set<String> items) {
+        if (classPath == null) return;
+        int s = 0, e;
+        do {
+            e = classPath.indexOf(File.pathSeparatorChar, s);
+            final String item = e == -1 ? classPath.substring(s) : classPath.substring(s, e);
+            if (item.length() > 0) {
+                items.add(item);
+            }
+            s = e + 1;
+        } while (e != -1);
+    }
+
+    /**
+     * Add the packages of the modules of the boot layer, if there is one.  Reflection is used since the module
+     * system API may not be present.
+     */
+    private static void addBootLayerPackages(final Set<String> pathSet) {
+        try {
+            final Class<?> layerClass = Class.forName("java.lang.ModuleLayer");
+            final Object bootLayer = layerClass.getMethod("boot").invoke(null);
+            final Set<?> modules = (Set<?>) layerClass.getMethod("modules").invoke(bootLayer);
+            final Method getPackages = Class.forName("java.lang.Module").getMethod("getPackages");
+            for (Object module : modules) {
+                for (Object packageName : (Set<?>) getPackages.invoke(module)) {
+                    pathSet.add(((String) packageName).replace('.', '/'));
+                }
+            }
+        } catch (ClassNotFoundException e) {
+            // no module system
+        } catch (Exception e) {
+            Module.log.trace(e, "Failed to read the packages of the boot layer");
+        }
+    }
+
+    private static List<Collection<String>> runAll(final List<Callable<Collection<String>>> tasks) {
+        final int size = tasks.size();
+        final List<Collection<String>> results = new ArrayList<Collection<String>>(size);
+        final int threads = Math.min(Runtime.getRuntime().availableProcessors(), size);
+        if (threads <= 1) {
+            for (Callable<Collection<String>> task : tasks) {
+                results.add(call(task));
+            }
+            return results;
+        }
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger seq = new AtomicInteger(1);
+
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "System Class Path Scan Thread " + seq.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            final List<Future<Collection<String>>> futures = new ArrayList<Future<Collection<String>>>(size);
+            for (Callable<Collection<String>> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            boolean intr = false;
+            try {
+                for (int i = 0; i < size; i++) {
+                    final Future<Collection<String>> future = futures.get(i);
+                    for (;;) {
+                        try {
+                            results.add(future.get());
+                            break;
+                        } catch (InterruptedException e) {
+                            intr = true;
+                        } catch (ExecutionException e) {
+                            results.add(Collections.<String>emptySet());
+                            break;
+                        }
+                    }
+                }
+            } finally {
+                if (intr) Thread.currentThread().interrupt();
+            }
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Collection<String> call(final Callable<Collection<String>> task) {
+        try {
+            return task.call();
+        } catch (Exception e) {
+            return Collections.emptySet();
+        }
+    }
+
+    private static final class CacheEntry {
+        private final String name;
+        private final LinkageCache.Fingerprint fingerprint;
+        private final String[] paths;
+
+        CacheEntry(final String name, final LinkageCache.Fingerprint fingerprint, final String[] paths) {
+            this.name = name;
+            this.fingerprint = fingerprint;
+            this.paths = paths;
+        }
+    }
+
+    private static final class ArchiveScan implements Callable<Collection<String>> {
+        private final File file;
+        private final LinkageCache.Fingerprint fingerprint;
+        private volatile CacheEntry entry;
+
+        ArchiveScan(final File file, final LinkageCache.Fingerprint fingerprint) {
+            this.file = file;
+            this.fingerprint = fingerprint;
+        }
+
+        public Collection<String> call() {
+            final Set<String> pathSet = new LinkedHashSet<String>();
+            try {
+                final ZipFile zipFile = new ZipFile(file);
+                try {
+                    final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                    while (entries.hasMoreElements()) {
+                        final ZipEntry entry = entries.nextElement();
+                        final String name = entry.getName();
+                        final int lastSlash = name.lastIndexOf('/');
+                        if (lastSlash != -1) {
+                            final String dirName = name.substring(0, lastSlash);
+                            if (dirName.equals("META-INF")) {
+                                // skip non-exported META-INF
+                                continue;
+                            }
+                            pathSet.add(dirName);
+                        }
+                    }
+                } finally {
+                    zipFile.close();
+                }
+            } catch (IOException ex) {
+                // ignore, and do not cache the failure
+                return pathSet;
+            }
+            entry = new CacheEntry(file.getAbsolutePath(), fingerprint, pathSet.toArray(new String[pathSet.size()]));
+            return pathSet;
+        }
+    }
+
+    private static final class DirectoryScan implements Callable<Collection<String>> {
+        private final File file;
+
+        DirectoryScan(final File file) {
+            this.file = file;
+        }
+
+        public Collection<String> call() {
+            final Set<String> pathSet = new LinkedHashSet<String>();
+            processDirectory0(pathSet, file);
+            return pathSet;
+        }
+    }
+    private static void processDirectory0(final Set<String> pathSet, final File file) {
+        for (File entry : file.listFiles()) {
+            if (entry.getName().equals("META-INF")) {
+                // skip non-exported META-INF
+                continue;
+            }
+            if (entry.isDirectory()) {
+                processDirectory1(pathSet, entry, file.getPath());
+            } else {
+                final String parent = entry.getParent();
+                if (parent != null) pathSet.add(parent);
+            }
+        }
+    }
+
+    private static void processDirectory1(final Set<String> pathSet, final File file, final String pathBase) {
+        for (File entry : file.listFiles()) {
+            if (entry.isDirectory()) {
+                processDirectory1(pathSet, entry, pathBase);
+            } else {
+                String packagePath = entry.getParent();
+                if (packagePath != null) {
+                    packagePath = packagePath.substring(pathBase.length()).replace('\\', '/');;
+                    if(packagePath.startsWith("/")) {
+                        packagePath = packagePath.substring(1);
+                    }
+                    pathSet.add(packagePath);
+                }
+            }
+        }
+    }
+
+    private static Map<String, CacheEntry> read(final File cacheFile) {
+        if (! cacheFile.exists()) {
+            return Collections.emptyMap();
+        }
+        try {
+            final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+            try {
+                if (is.readInt() != MAGIC || is.readInt() != VERSION) {
+                    return Collections.emptyMap();
+                }
+                final int count = is.readInt();
+                final Map<String, CacheEntry> entries = new HashMap<String, CacheEntry>(count * 2);
+                for (int i = 0; i < count; i++) {
+                    final String name = is.readUTF();
+                    final LinkageCache.Fingerprint fingerprint = LinkageCache.Fingerprint.read(is);
+                    final String[] paths = new String[is.readInt()];
+                    for (int j = 0; j < paths.length; j++) {
+                        paths[j] = is.readUTF();
+                    }
+                    entries.put(name, new CacheEntry(name, fingerprint, paths));
+                }
+                return entries;
+            } finally {
+                safeClose(is);
+            }
+        } catch (IOException e) {
+            return Collections.emptyMap();
+        }
+    }
+
+    private static void write(final File cacheFile, final List<CacheEntry> entries) {
+        final File dir = cacheFile.getParentFile();
+        if (! dir.isDirectory() && ! dir.mkdirs() && ! dir.isDirectory()) {
+            return;
+        }
+        boolean ok = false;
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(cacheFile.getName(), ".tmp", dir);
+            final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                os.writeInt(MAGIC);
+                os.writeInt(VERSION);
+                os.writeInt(entries.size());
+                for (CacheEntry entry : entries) {
+                    os.writeUTF(entry.name);
+                    entry.fingerprint.write(os);
+                    os.writeInt(entry.paths.length);
+                    for (String path : entry.paths) {
+                        os.writeUTF(path);
+                    }
+                }
+                os.close();
+            } finally {
+                safeClose(os);
+            }
+            // replace atomically where possible so concurrent readers never see a partial snapshot
+            ok = tempFile.renameTo(cacheFile) || cacheFile.delete() && tempFile.renameTo(cacheFile);
+        } catch (IOException e) {
+            // failed, ignore
+        } finally {
+            if (! ok && tempFile != null) {
+                // well, we tried...
+                tempFile.delete();
+            }
+        }
+    }
+
+    private static void safeClose(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+}
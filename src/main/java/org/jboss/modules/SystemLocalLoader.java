@@ -22,33 +22,30 @@
 
 package org.jboss.modules;
 
-import java.io.File;
 import java.io.IOException;
 import java.net.URL;
-import java.security.AccessController;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 final class SystemLocalLoader implements LocalLoader {
 
-    private final Set<String> pathSet;
+    private static final int MAX_CACHED = 1024;
+
+    private volatile Set<String> pathSet;
+    private volatile LookupCache lookupCache = new LookupCache();
 
     private SystemLocalLoader() {
-        final Set<String> pathSet = new FastCopyHashSet<String>(1024);
-        final Set<String> jarSet = new FastCopyHashSet<String>(1024);
-        final String sunBootClassPath = AccessController.doPrivileged(new PropertyReadAction("sun.boot.class.path"));
-        final String javaClassPath = AccessController.doPrivileged(new PropertyReadAction("java.class.path"));
-        processClassPathItem(sunBootClassPath, jarSet, pathSet);
-        processClassPathItem(javaClassPath, jarSet, pathSet);
-        this.pathSet = pathSet;
     }
 
     // Public members
@@ -63,17 +60,33 @@ final class SystemLocalLoader implements LocalLoader {
     }
 
     public List<Resource> loadResourceLocal(final String name) {
+        final LookupCache cache = lookupCache;
+        final List<Resource> cached = cache.resources.get(name);
+        if (cached != null) {
+            return cached;
+        }
         final Enumeration<URL> urls;
         try {
             urls = SYSTEM_CL.getResources(name);
         } catch (IOException e) {
             return Collections.emptyList();
         }
-        final List<Resource> list = new ArrayList<Resource>();
-        while (urls.hasMoreElements()) {
-            list.add(new URLResource(urls.nextElement()));
+        if (cache.resources.size() >= MAX_CACHED) {
+            return urls.hasMoreElements() ? new URLResourceList(urls) : Collections.<Resource>emptyList();
         }
-        return list;
+        final List<Resource> list;
+        if (urls.hasMoreElements()) {
+            final List<Resource> read = new ArrayList<Resource>(2);
+            do {
+                read.add(new URLResource(urls.nextElement()));
+            } while (urls.hasMoreElements());
+            list = Collections.unmodifiableList(read);
+        } else {
+            // negative entry
+            list = Collections.emptyList();
+        }
+        final List<Resource> appearing = cache.resources.putIfAbsent(name, list);
+        return appearing == null ? list : appearing;
     }
 
     // Nonpublic API
@@ -82,7 +95,23 @@ final class SystemLocalLoader implements LocalLoader {
         return INSTANCE;
     }
 
+    /**
+     * Discard the cached resource lookups.  Called wherever the system class path property is rewritten.
+     */
+    void classPathChanged() {
+        lookupCache = new LookupCache();
+    }
+
     Set<String> getPathSet() {
+        Set<String> pathSet = this.pathSet;
+        if (pathSet == null) {
+            synchronized (this) {
+                pathSet = this.pathSet;
+                if (pathSet == null) {
+                    this.pathSet = pathSet = SystemClassPathIndex.buildPathSet();
+                }
+            }
+        }
         return pathSet;
     }
 
@@ -92,75 +121,66 @@ final class SystemLocalLoader implements LocalLoader {
 
     private static final ClassLoader SYSTEM_CL = SystemLocalLoader.class.getClassLoader();
 
-    private static void processClassPathItem(final String classPath, final Set<String> jarSet, final Set<String> pathSet) {
-        if (classPath == null) return;
-        int s = 0, e;
-        do {
-            e = classPath.indexOf(File.pathSeparatorChar, s);
-            String item = e == -1 ? classPath.substring(s) : classPath.substring(s, e);
-            if (! jarSet.contains(item)) {
-                final File file = new File(item);
-                if (file.isDirectory()) {
-                    processDirectory0(pathSet, file);
-                } else {
-                    try {
-                        final ZipFile zipFile = new ZipFile(file);
-                        try {
-                            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
-                            while (entries.hasMoreElements()) {
-                                final ZipEntry entry = entries.nextElement();
-                                final String name = entry.getName();
-                                final int lastSlash = name.lastIndexOf('/');
-                                if (lastSlash != -1) {
-                                    final String dirName = name.substring(0, lastSlash);
-                                    if (dirName.equals("META-INF")) {
-                                        // skip non-exported META-INF
-                                        continue;
-                                    }
-                                    pathSet.add(dirName);
-                                }
-                            }
-                        } finally {
-                            zipFile.close();
-                        }
-                    } catch (IOException ex) {
-                        // ignore
-                    }
-                }
-            }
-            s = e + 1;
-        } while (e != -1);
+    /**
+     * The results of resource lookups against the system class loader.  A resource name with no resources maps to
+     * an empty list.
+     */
+    private static final class LookupCache {
+        private final ConcurrentMap<String, List<Resource>> resources = new ConcurrentHashMap<String, List<Resource>>();
     }
 
-    private static void processDirectory0(final Set<String> pathSet, final File file) {
-        for (File entry : file.listFiles()) {
-            if (entry.getName().equals("META-INF")) {
-                // skip non-exported META-INF
-                continue;
+    /**
+     * A list of resources which is read from an enumeration of URLs as it is iterated.
+     */
+    static final class URLResourceList extends AbstractList<Resource> {
+        private final Enumeration<URL> urls;
+        private final List<Resource> read = new ArrayList<Resource>(2);
+
+        URLResourceList(final Enumeration<URL> urls) {
+            this.urls = urls;
+        }
+
+        private boolean readTo(final int index) {
+            while (read.size() <= index) {
+                if (! urls.hasMoreElements()) {
+                    return false;
+                }
+                read.add(new URLResource(urls.nextElement()));
             }
-            if (entry.isDirectory()) {
-                processDirectory1(pathSet, entry, file.getPath());
-            } else {
-                final String parent = entry.getParent();
-                if (parent != null) pathSet.add(parent);
+            return true;
+        }
+
+        public Resource get(final int index) {
+            if (index < 0 || ! readTo(index)) {
+                throw new IndexOutOfBoundsException();
             }
+            return read.get(index);
+        }
+
+        public int size() {
+            while (readTo(read.size())) {}
+            return read.size();
         }
-    }
 
-    private static void processDirectory1(final Set<String> pathSet, final File file, final String pathBase) {
-        for (File entry : file.listFiles()) {
-            if (entry.isDirectory()) {
-                processDirectory1(pathSet, entry, pathBase);
-            } else {
-                String packagePath = entry.getParent();
-                if (packagePath != null) {
-                    packagePath = packagePath.substring(pathBase.length()).replace('\\', '/');;
-                    if(packagePath.startsWith("/")) {
-                        packagePath = packagePath.substring(1);
+        public Iterator<Resource> iterator() {
+            return new Iterator<Resource>() {
+                private int idx;
+
+                public boolean hasNext() {
+                    return readTo(idx);
+                }
+
+                public Resource next() {
+                    if (! readTo(idx)) {
+                        throw new NoSuchElementException();
                     }
-                    pathSet.add(packagePath);
+                    return read.get(idx++);
                 }
-            }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
         }
     }
 }
@@ -56,6 +56,13 @@ final class AggregatePathFilter implements PathFilter {
         return ! any;
     }
 
+    boolean isAny() {
+        return any;
+    }
+
+    PathFilter[] getDelegates() {
+        return delegates;
+    }
 
     public int hashCode() {
         return Boolean.valueOf(any).hashCode() ^ Arrays.hashCode(delegates);
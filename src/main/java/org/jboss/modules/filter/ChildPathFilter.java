@@ -37,8 +37,12 @@ final class ChildPathFilter implements PathFilter {
         return path.startsWith(prefix);
     }
 
+    String getPrefix() {
+        return prefix;
+    }
+
     public boolean equals(final Object obj) {
-        return obj instanceof EqualsPathFilter && equals((ChildPathFilter) obj);
+        return obj instanceof ChildPathFilter && equals((ChildPathFilter) obj);
     }
 
     public boolean equals(final ChildPathFilter obj) {
@@ -50,4 +50,40 @@ public final class ClassFilters {
         return BooleanClassFilter.FALSE;
     }
 
+    /**
+     * Get a filter which accepts classes whose package matches the given path filter.  The path filter is applied to
+     * the package name with "{@code .}" characters replaced by "{@code /}" (the default package is the empty path).
+     * Since the decision depends only on the package, it is computed once per package.
+     *
+     * @param packagePathFilter the filter to apply to package paths
+     * @return the class filter
+     */
+    public static ClassFilter fromPackagePathFilter(PathFilter packagePathFilter) {
+        if (packagePathFilter == PathFilters.acceptAll()) {
+            return BooleanClassFilter.TRUE;
+        } else if (packagePathFilter == PathFilters.rejectAll()) {
+            return BooleanClassFilter.FALSE;
+        }
+        return new PackageClassFilter(packagePathFilter);
+    }
+
+    /**
+     * Get the package path filter of a class filter which has package granularity (that is, one which accepts either
+     * all or none of the classes of any given package).
+     *
+     * @param classFilter the class filter
+     * @return the filter applied to package paths, or {@code null} if the class filter does not have package granularity
+     */
+    public static PathFilter getPackagePathFilter(ClassFilter classFilter) {
+        if (classFilter == BooleanClassFilter.TRUE) {
+            return PathFilters.acceptAll();
+        } else if (classFilter == BooleanClassFilter.FALSE) {
+            return PathFilters.rejectAll();
+        } else if (classFilter instanceof PackageClassFilter) {
+            return ((PackageClassFilter) classFilter).getPackagePathFilter();
+        } else {
+            return null;
+        }
+    }
+
 }
@@ -40,6 +40,10 @@ final class EqualsPathFilter implements PathFilter {
         return path.equals(this.path);
     }
 
+    String getPath() {
+        return path;
+    }
+
     public boolean equals(final Object obj) {
         return obj instanceof EqualsPathFilter && equals((EqualsPathFilter) obj);
     }
@@ -22,20 +22,51 @@
 
 package org.jboss.modules.filter;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * Default implementation of PathFilter.  Uses glob based includes and excludes to determine whether to export.  
+ * <p>
+ * The glob is compiled into a sequence of match operations.  The most common shapes (a literal path, a literal prefix
+ * followed by <code>**</code>, and a single <code>*</code> segment) are matched directly; any other glob is matched
+ * by a simple backtracking matcher.
  *
  * @author John E. Bailey
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 final class GlobPathFilter implements PathFilter {
-    private static final Pattern GLOB_PATTERN = Pattern.compile("(\\*\\*?)|(\\?)|(\\\\.)|(/+)|([^*?]+)");
+
+    // match operations
+
+    private static final byte OP_END = 0;
+    /** Match a literal string. */
+    private static final byte OP_LITERAL = 1;
+    /** Match {@code ?}: any single non-slash character. */
+    private static final byte OP_ANY = 2;
+    /** Match {@code *}: zero or more non-slash characters. */
+    private static final byte OP_STAR = 3;
+    /** Match {@code **}: zero or more characters, including slashes. */
+    private static final byte OP_DOUBLE_STAR = 4;
+    /** Match one or more slash characters. */
+    private static final byte OP_SLASHES = 5;
+    /** Match the end of the path, or any subdirectory. */
+    private static final byte OP_TAIL = 6;
+
+    // glob shapes
+
+    private static final int SHAPE_GENERAL = 0;
+    private static final int SHAPE_LITERAL = 1;
+    private static final int SHAPE_PREFIX = 2;
+    private static final int SHAPE_SEGMENT = 3;
 
     private final String glob;
-    private final Pattern pattern;
+    private final byte[] ops;
+    private final String[] literals;
+    private final int shape;
+    private final String prefix;
+    private final String suffix;
 
     /**
      * Construct a new instance.
@@ -43,23 +74,43 @@ final class GlobPathFilter implements PathFilter {
      * @param glob the path glob to match
      */
     GlobPathFilter(final String glob) {
-        pattern = getGlobPattern(glob);
         this.glob = glob;
+        final List<String> literalList = new ArrayList<String>();
+        final byte[] ops = compile(glob, literalList);
+        final String[] literals = literalList.toArray(new String[literalList.size()]);
+        this.ops = ops;
+        this.literals = literals;
+        // now look for a fast path
+        int i = 0;
+        String prefix = "";
+        if (ops[i] == OP_LITERAL) {
+            prefix = literals[i++];
+        }
+        String suffix = null;
+        int shape = SHAPE_GENERAL;
+        if (ops[i] == OP_TAIL) {
+            shape = SHAPE_LITERAL;
+        } else if (ops[i] == OP_DOUBLE_STAR && (ops[i + 1] == OP_TAIL || ops[i + 1] == OP_END)) {
+            // "**" followed by an optional subdirectory is still just "**"
+            shape = SHAPE_PREFIX;
+        } else if (ops[i] == OP_STAR) {
+            i++;
+            suffix = "";
+            if (ops[i] == OP_LITERAL) {
+                suffix = literals[i++];
+            }
+            if (ops[i] == OP_TAIL && suffix.indexOf('/') == -1) {
+                shape = SHAPE_SEGMENT;
+            }
+        }
+        this.shape = shape;
+        this.prefix = prefix;
+        this.suffix = suffix;
     }
 
     /**
-     * Determine whether a path should be accepted.
-     *
-     * @param path the path to check
-     * @return true if the path should be accepted, false if not
-     */
-    public boolean accept(final String path) {
-        return pattern.matcher(path).matches();
-    }
-
-    /**
-     * Get a regular expression pattern which accept any path names which match the given glob.  The glob patterns
-     * function similarly to {@code ant} file patterns.  Valid metacharacters in the glob pattern include:
+     * Compile a glob into a sequence of match operations.  The glob patterns function similarly to {@code ant} file
+     * patterns.  Valid metacharacters in the glob pattern include:
      * <ul>
      * <li><code>"\"</code> - escape the next character (treat it literally, even if it is itself a recognized metacharacter)</li>
      * <li><code>"?"</code> - match any non-slash character</li>
@@ -70,50 +121,233 @@ final class GlobPathFilter implements PathFilter {
      * In addition, any glob pattern matches all subdirectories thereof.  A glob pattern ending in {@code /} is equivalent
      * to a glob pattern ending in <code>/**</code> in that the named directory is not itself included in the glob.
      * <p/>
+     * Escapes and slash runs are only recognized at the start of a glob or directly after a metacharacter, escape,
+     * or slash run; elsewhere they are part of the surrounding literal text.
+     * <p/>
      * <b>See also:</b> <a href="http://ant.apache.org/manual/dirtasks.html#patterns">"Patterns" in the Ant Manual</a>
      *
      * @param glob the glob to match
+     * @param literals the list to which the literal of each operation is added
      *
-     * @return the pattern
+     * @return the operations
      */
-    private static Pattern getGlobPattern(final String glob) {
-        StringBuilder patternBuilder = new StringBuilder();
-        final Matcher m = GLOB_PATTERN.matcher(glob);
+    private static byte[] compile(final String glob, final List<String> literals) {
+        final List<Byte> ops = new ArrayList<Byte>();
+        final int length = glob.length();
         boolean lastWasSlash = false;
-        while (m.find()) {
+        int i = 0;
+        while (i < length) {
             lastWasSlash = false;
-            String grp;
-            if ((grp = m.group(1)) != null) {
-                // match a * or **
-                if (grp.length() == 2) {
-                    // it's a **
-                    patternBuilder.append(".*");
+            final char c = glob.charAt(i);
+            if (c == '*') {
+                if (i + 1 < length && glob.charAt(i + 1) == '*') {
+                    add(ops, literals, OP_DOUBLE_STAR, null);
+                    i += 2;
                 } else {
-                    // it's a *
-                    patternBuilder.append("[^/]*");
+                    add(ops, literals, OP_STAR, null);
+                    i++;
                 }
-            } else if ((grp = m.group(2)) != null) {
-                // match a '?' glob pattern; any non-slash character
-                patternBuilder.append("[^/]");
-            } else if ((grp = m.group(3)) != null) {
+            } else if (c == '?') {
+                add(ops, literals, OP_ANY, null);
+                i++;
+            } else if (c == '\\' && i + 1 < length && ! isLineTerminator(glob.charAt(i + 1))) {
                 // backslash-escaped value
-                patternBuilder.append(Pattern.quote(m.group().substring(1)));
-            } else if ((grp = m.group(4)) != null) {
+                final int end = i + 1 + Character.charCount(glob.codePointAt(i + 1));
+                add(ops, literals, OP_LITERAL, glob.substring(i + 1, end));
+                i = end;
+            } else if (c == '/') {
                 // match any number of / chars
-                patternBuilder.append("/+");
+                do {
+                    i++;
+                } while (i < length && glob.charAt(i) == '/');
+                add(ops, literals, OP_SLASHES, null);
                 lastWasSlash = true;
             } else {
                 // some other string
-                patternBuilder.append(Pattern.quote(m.group()));
+                final int start = i;
+                do {
+                    i++;
+                } while (i < length && glob.charAt(i) != '*' && glob.charAt(i) != '?');
+                add(ops, literals, OP_LITERAL, glob.substring(start, i));
             }
         }
         if (lastWasSlash) {
             // ends in /, append **
-            patternBuilder.append(".*");
+            add(ops, literals, OP_DOUBLE_STAR, null);
         } else {
-            patternBuilder.append("(?:/.*)?");
+            add(ops, literals, OP_TAIL, null);
+        }
+        add(ops, literals, OP_END, null);
+        final byte[] array = new byte[ops.size()];
+        for (int j = 0; j < array.length; j++) {
+            array[j] = ops.get(j).byteValue();
+        }
+        return array;
+    }
+
+    private static void add(final List<Byte> ops, final List<String> literals, final byte op, final String literal) {
+        final int last = ops.size() - 1;
+        if (op == OP_LITERAL && last >= 0 && ops.get(last).byteValue() == OP_LITERAL) {
+            // merge adjacent literals
+            literals.set(last, literals.get(last) + literal);
+            return;
+        }
+        ops.add(Byte.valueOf(op));
+        literals.add(literal);
+    }
+
+    /**
+     * Collect the trie keys of this glob, if it is prefix-shaped.
+     *
+     * @param keys the key collection to add to
+     * @return {@code true} if this glob is prefix-shaped, {@code false} otherwise
+     */
+    boolean collectKeys(final Collection<String> keys) {
+        switch (shape) {
+            case SHAPE_LITERAL: {
+                keys.add(prefix);
+                keys.add(prefix + "/");
+                return true;
+            }
+            case SHAPE_PREFIX: {
+                keys.add(prefix);
+                return true;
+            }
+            default: {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Determine whether a path should be accepted.
+     *
+     * @param path the path to check
+     * @return true if the path should be accepted, false if not
+     */
+    public boolean accept(final String path) {
+        switch (shape) {
+            case SHAPE_LITERAL: {
+                return path.startsWith(prefix) && matchTail(path, prefix.length());
+            }
+            case SHAPE_PREFIX: {
+                return path.startsWith(prefix) && ! hasLineTerminator(path, prefix.length());
+            }
+            case SHAPE_SEGMENT: {
+                final int start = prefix.length();
+                if (! path.startsWith(prefix)) {
+                    return false;
+                }
+                int end = path.indexOf('/', start);
+                if (end == -1) end = path.length();
+                return end - start >= suffix.length() && path.startsWith(suffix, end - suffix.length()) && matchTail(path, end);
+            }
+            default: {
+                return match(path, 0, 0);
+            }
+        }
+    }
+
+    private boolean match(final String path, int op, int pos) {
+        final byte[] ops = this.ops;
+        final int length = path.length();
+        for (;;) {
+            switch (ops[op]) {
+                case OP_END: {
+                    return pos == length;
+                }
+                case OP_LITERAL: {
+                    final String literal = literals[op];
+                    if (! path.startsWith(literal, pos)) {
+                        return false;
+                    }
+                    pos += literal.length();
+                    op++;
+                    break;
+                }
+                case OP_ANY: {
+                    if (pos == length || path.charAt(pos) == '/') {
+                        return false;
+                    }
+                    pos += Character.charCount(path.codePointAt(pos));
+                    op++;
+                    break;
+                }
+                case OP_STAR: {
+                    int end = pos;
+                    while (end < length && path.charAt(end) != '/') {
+                        end++;
+                    }
+                    for (int i = end; i >= pos; i--) {
+                        if (match(path, op + 1, i)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+                case OP_DOUBLE_STAR: {
+                    int end = pos;
+                    while (end < length && ! isLineTerminator(path.charAt(end))) {
+                        end++;
+                    }
+                    if (ops[op + 1] == OP_END) {
+                        return end == length;
+                    }
+                    for (int i = end; i >= pos; i--) {
+                        if (match(path, op + 1, i)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+                case OP_SLASHES: {
+                    if (pos == length || path.charAt(pos) != '/') {
+                        return false;
+                    }
+                    int end = pos + 1;
+                    while (end < length && path.charAt(end) == '/') {
+                        end++;
+                    }
+                    for (int i = end; i > pos; i--) {
+                        if (match(path, op + 1, i)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+                case OP_TAIL: {
+                    return matchTail(path, pos);
+                }
+                default: {
+                    throw new IllegalStateException();
+                }
+            }
+        }
+    }
+
+    /**
+     * Match the end of the path, or a slash followed by anything.
+     */
+    private static boolean matchTail(final String path, final int pos) {
+        return pos == path.length() || path.charAt(pos) == '/' && ! hasLineTerminator(path, pos + 1);
+    }
+
+    static boolean hasLineTerminator(final String path, final int start) {
+        final int length = path.length();
+        for (int i = start; i < length; i++) {
+            if (isLineTerminator(path.charAt(i))) {
+                return true;
+            }
         }
-        return Pattern.compile(patternBuilder.toString());
+        return false;
+    }
+
+    /**
+     * Determine whether a character is a line terminator, which is never matched by a wildcard (this is the
+     * definition used by {@link java.util.regex.Pattern} for {@code "."}, which earlier versions of this filter used).
+     */
+    static boolean isLineTerminator(final char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
     }
 
     public int hashCode() {
@@ -125,17 +359,13 @@ final class GlobPathFilter implements PathFilter {
     }
 
     public boolean equals(final GlobPathFilter obj) {
-        return obj != null && obj.pattern.equals(pattern);
+        return obj != null && obj.glob.equals(glob);
     }
 
     public String toString() {
         final StringBuilder b = new StringBuilder();
         b.append("match ");
-        if (glob != null) {
-            b.append('"').append(glob).append('"');
-        } else {
-            b.append('/').append(pattern).append('/');
-        }
+        b.append('"').append(glob).append('"');
         return b.toString();
     }
 }
@@ -22,28 +22,127 @@
 
 package org.jboss.modules.filter;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
 final class MultiplePathFilter implements PathFilter {
+
+    private static final byte NO_MATCH = 0;
+    private static final byte INCLUDE = 1;
+    private static final byte EXCLUDE = 2;
+
     private final PathFilter[] filters;
     private final boolean[] includeFlag;
     private final boolean defaultVal;
 
+    /**
+     * Compiled runs of prefix-shaped rules, indexed by the first rule of each run, or {@code null} if there are none.
+     */
+    private final PathTrie[] runs;
+    private final int[] runEnds;
+
     MultiplePathFilter(final PathFilter[] filters, final boolean[] includeFlag, final boolean defaultVal) {
+        this(filters, includeFlag, defaultVal, null, null);
+    }
+
+    private MultiplePathFilter(final PathFilter[] filters, final boolean[] includeFlag, final boolean defaultVal, final PathTrie[] runs, final int[] runEnds) {
         this.filters = filters;
         this.includeFlag = includeFlag;
         this.defaultVal = defaultVal;
+        this.runs = runs;
+        this.runEnds = runEnds;
+    }
+
+    PathFilter[] getFilters() {
+        return filters;
+    }
+
+    /**
+     * Compile each run of two or more consecutive prefix-shaped rules into a trie.
+     *
+     * @return the compiled filter, or this filter if there is nothing to compile
+     */
+    PathFilter compileRuns() {
+        final int len = filters.length;
+        PathTrie[] runs = null;
+        int[] runEnds = null;
+        int start = 0;
+        while (start < len) {
+            final Set<String> keys = new HashSet<String>();
+            int end = start;
+            while (end < len && PathTrie.collectKeys(filters[end], keys)) {
+                end++;
+            }
+            if (end - start >= 2) {
+                final int runStart = start;
+                final int runEnd = end;
+                final PathTrie trie = PathTrie.build(keys, new PathTrie.Decider() {
+                    public byte decide(final String path) {
+                        for (int i = runStart; i < runEnd; i++) {
+                            if (filters[i].accept(path)) return includeFlag[i] ? INCLUDE : EXCLUDE;
+                        }
+                        return NO_MATCH;
+                    }
+                }, hasGlob(start, end));
+                if (trie != null) {
+                    if (runs == null) {
+                        runs = new PathTrie[len];
+                        runEnds = new int[len];
+                    }
+                    runs[start] = trie;
+                    runEnds[start] = end;
+                }
+            }
+            start = end + 1;
+        }
+        return runs == null ? this : new MultiplePathFilter(filters, includeFlag, defaultVal, runs, runEnds);
+    }
+
+    private boolean hasGlob(final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            if (PathTrie.hasGlob(filters[i])) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public boolean accept(final String path) {
+        final PathTrie[] runs = this.runs;
         final int len = filters.length;
         for (int i = 0; i < len; i++) {
+            if (runs != null && runs[i] != null) {
+                switch (runs[i].decide(path)) {
+                    case INCLUDE: return true;
+                    case EXCLUDE: return false;
+                    case NO_MATCH: {
+                        i = runEnds[i] - 1;
+                        continue;
+                    }
+                    // otherwise fall back to the individual rules
+                }
+            }
             if (filters[i].accept(path)) return includeFlag[i];
         }
         return defaultVal;
     }
 
+    public int hashCode() {
+        return (Arrays.hashCode(filters) * 31 + Arrays.hashCode(includeFlag)) * 31 + Boolean.valueOf(defaultVal).hashCode();
+    }
+
+    public boolean equals(final Object obj) {
+        return obj instanceof MultiplePathFilter && equals((MultiplePathFilter) obj);
+    }
+
+    public boolean equals(final MultiplePathFilter obj) {
+        return obj != null && obj.defaultVal == defaultVal && Arrays.equals(obj.filters, filters) && Arrays.equals(obj.includeFlag, includeFlag);
+    }
+
     public String toString() {
         StringBuilder builder = new StringBuilder();
         builder.append("multi-path filter {");
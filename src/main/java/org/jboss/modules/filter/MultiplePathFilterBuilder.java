@@ -60,16 +60,7 @@ public class MultiplePathFilterBuilder {
      * @return the path filter
      */
     public PathFilter create() {
-        final PathFilter[] filters = this.filters.toArray(new PathFilter[this.filters.size()]);
-        final boolean[] includeFlags = new boolean[this.includeFlags.size()];
-        for (int i = 0, includeFlagsSize = this.includeFlags.size(); i < includeFlagsSize; i++) {
-            includeFlags[i] = this.includeFlags.get(i).booleanValue();
-        }
-        if (filters.length == 0) {
-            return defaultVal ? PathFilters.acceptAll() : PathFilters.rejectAll();
-        } else {
-            return new MultiplePathFilter(filters, includeFlags, defaultVal);
-        }
+        return PathFilters.multiple(filters, includeFlags, defaultVal);
     }
 
     /**
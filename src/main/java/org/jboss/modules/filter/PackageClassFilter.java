@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2011, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.modules.filter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A class filter whose decision depends only on the package of the class.  Since all the classes of a package share
+ * a decision, decisions are cached per package.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class PackageClassFilter implements ClassFilter {
+
+    /**
+     * The maximum number of cached package decisions.  Packages beyond this are decided on each call.
+     */
+    private static final int MAX_CACHED = 512;
+
+    private final PathFilter packagePathFilter;
+    private final ConcurrentMap<String, Boolean> decisions = new ConcurrentHashMap<String, Boolean>();
+
+    PackageClassFilter(final PathFilter packagePathFilter) {
+        if (packagePathFilter == null) {
+            throw new IllegalArgumentException("packagePathFilter is null");
+        }
+        this.packagePathFilter = packagePathFilter;
+    }
+
+    public boolean accept(final String className) {
+        final int idx = className.lastIndexOf('.');
+        final String packageName = idx == -1 ? "" : className.substring(0, idx);
+        final Boolean cached = decisions.get(packageName);
+        if (cached != null) {
+            return cached.booleanValue();
+        }
+        final boolean result = packagePathFilter.accept(packageName.replace('.', '/'));
+        if (decisions.size() < MAX_CACHED) {
+            decisions.putIfAbsent(packageName, Boolean.valueOf(result));
+        }
+        return result;
+    }
+
+    PathFilter getPackagePathFilter() {
+        return packagePathFilter;
+    }
+
+    public int hashCode() {
+        return 31 * packagePathFilter.hashCode();
+    }
+
+    public boolean equals(final Object obj) {
+        return obj instanceof PackageClassFilter && equals((PackageClassFilter) obj);
+    }
+
+    public boolean equals(final PackageClassFilter obj) {
+        return obj != null && obj.packagePathFilter.equals(packagePathFilter);
+    }
+
+    public String toString() {
+        return "classes in packages " + packagePathFilter;
+    }
+}
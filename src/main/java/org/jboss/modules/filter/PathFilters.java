@@ -22,12 +22,20 @@
 
 package org.jboss.modules.filter;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 /**
- * Static factory methods for path filter types.
+ * Static factory methods for path filter types.  Filters returned by these methods are simplified and interned, so
+ * that equivalent filter expressions are generally represented by the same instance; in particular, any expression
+ * which always accepts or always rejects is reduced to {@link #acceptAll()} or {@link #rejectAll()}.
  *
  * @author <a href="mailto:david.lloyd@redhat.com">David M. Lloyd</a>
  */
@@ -41,7 +49,7 @@ public final class PathFilters {
      * @return the "all" filter
      */
     public static PathFilter all(PathFilter... filters) {
-        return new AggregatePathFilter(false, filters);
+        return aggregate(false, filters);
     }
 
     /**
@@ -61,7 +69,49 @@ public final class PathFilters {
      * @return the "any" filter
      */
     public static PathFilter any(PathFilter... filters) {
-        return new AggregatePathFilter(true, filters);
+        return aggregate(true, filters);
+    }
+
+    private static PathFilter aggregate(final boolean any, final PathFilter[] filters) {
+        final PathFilter absorbing = any ? BooleanPathFilter.TRUE : BooleanPathFilter.FALSE;
+        final Set<PathFilter> delegates = new LinkedHashSet<PathFilter>();
+        if (addDelegates(any, filters, delegates)) {
+            return absorbing;
+        }
+        switch (delegates.size()) {
+            case 0: return any ? BooleanPathFilter.FALSE : BooleanPathFilter.TRUE;
+            case 1: return delegates.iterator().next();
+            default: return internCompiled(new AggregatePathFilter(any, delegates.toArray(new PathFilter[delegates.size()])));
+        }
+    }
+
+    /**
+     * Add the given filters to an aggregate's delegate set, flattening nested aggregates of the same kind and
+     * dropping filters which cannot affect the result.
+     *
+     * @return {@code true} if one of the filters determines the result of the aggregate on its own
+     */
+    private static boolean addDelegates(final boolean any, final PathFilter[] filters, final Set<PathFilter> delegates) {
+        for (PathFilter filter : filters) {
+            if (filter == null) {
+                throw new IllegalArgumentException("filter is null");
+            }
+            if (filter == BooleanPathFilter.TRUE || filter == BooleanPathFilter.FALSE) {
+                if ((filter == BooleanPathFilter.TRUE) == any) {
+                    return true;
+                }
+                continue;
+            }
+            final PathFilter original = original(filter);
+            if (original instanceof AggregatePathFilter && ((AggregatePathFilter) original).isAny() == any) {
+                if (addDelegates(any, ((AggregatePathFilter) original).getDelegates(), delegates)) {
+                    return true;
+                }
+                continue;
+            }
+            delegates.add(filter);
+        }
+        return false;
     }
 
     /**
@@ -81,7 +131,16 @@ public final class PathFilters {
      * @return the inverting filter
      */
     public static PathFilter not(PathFilter filter) {
-        return new InvertingPathFilter(filter);
+        if (filter == BooleanPathFilter.TRUE) {
+            return BooleanPathFilter.FALSE;
+        } else if (filter == BooleanPathFilter.FALSE) {
+            return BooleanPathFilter.TRUE;
+        }
+        final PathFilter original = original(filter);
+        if (original instanceof InvertingPathFilter) {
+            return ((InvertingPathFilter) original).getDelegate();
+        }
+        return internCompiled(new InvertingPathFilter(filter));
     }
 
     /**
@@ -93,7 +152,7 @@ public final class PathFilters {
      * @return a filter which returns {@code true} if the glob matches
      */
     public static PathFilter match(String glob) {
-        return new GlobPathFilter(glob);
+        return intern(new GlobPathFilter(glob));
     }
 
     /**
@@ -103,7 +162,7 @@ public final class PathFilters {
      * @return a filter which returns {@code true} if the path name is an exact match
      */
     public static PathFilter is(String path) {
-        return new EqualsPathFilter(path);
+        return intern(new EqualsPathFilter(path));
     }
 
     /**
@@ -114,7 +173,7 @@ public final class PathFilters {
      * @return a filter which returns {@code true} if the path name is a child of the given path
      */
     public static PathFilter isChildOf(String path) {
-        return new ChildPathFilter(path);
+        return intern(new ChildPathFilter(path));
     }
 
     /**
@@ -154,7 +213,112 @@ public final class PathFilters {
      * @return the filter
      */
     public static PathFilter in(Set<String> paths) {
-        return new SetPathFilter(new HashSet<String>(paths));
+        switch (paths.size()) {
+            case 0: return BooleanPathFilter.FALSE;
+            case 1: return is(paths.iterator().next());
+            default: return intern(new SetPathFilter(new HashSet<String>(paths)));
+        }
+    }
+
+    /**
+     * Create a simplified multiple-path filter.  Rules which can never be reached, or whose outcome is the same as
+     * that of the rules after them, are removed.
+     *
+     * @param filters the rule filters
+     * @param includeFlags the rule flags
+     * @param defaultVal the default value
+     * @return the filter
+     */
+    static PathFilter multiple(final List<PathFilter> filters, final List<Boolean> includeFlags, boolean defaultVal) {
+        final List<PathFilter> newFilters = new ArrayList<PathFilter>(filters.size());
+        final List<Boolean> newFlags = new ArrayList<Boolean>(filters.size());
+        final Set<PathFilter> seen = new HashSet<PathFilter>();
+        for (int i = 0; i < filters.size(); i++) {
+            final PathFilter filter = filters.get(i);
+            final boolean include = includeFlags.get(i).booleanValue();
+            if (filter == BooleanPathFilter.TRUE) {
+                // matches everything; no later rule is reachable
+                defaultVal = include;
+                break;
+            }
+            if (filter != BooleanPathFilter.FALSE && seen.add(filter)) {
+                newFilters.add(filter);
+                newFlags.add(Boolean.valueOf(include));
+            }
+        }
+        // trailing rules which agree with the default have no effect
+        int len = newFilters.size();
+        while (len > 0 && newFlags.get(len - 1).booleanValue() == defaultVal) {
+            len--;
+        }
+        if (len == 0) {
+            return defaultVal ? BooleanPathFilter.TRUE : BooleanPathFilter.FALSE;
+        }
+        final PathFilter[] filterArray = newFilters.subList(0, len).toArray(new PathFilter[len]);
+        final boolean[] flagArray = new boolean[len];
+        for (int i = 0; i < len; i++) {
+            flagArray[i] = newFlags.get(i).booleanValue();
+        }
+        return internCompiled(new MultiplePathFilter(filterArray, flagArray, defaultVal));
+    }
+
+    private static PathFilter original(final PathFilter filter) {
+        return filter instanceof TriePathFilter ? ((TriePathFilter) filter).getOriginal() : filter;
+    }
+
+    private static final Map<PathFilter, WeakReference<PathFilter>> interned = new WeakHashMap<PathFilter, WeakReference<PathFilter>>();
+
+    /**
+     * Get the canonical instance of a filter.  Interned filters are held weakly.
+     *
+     * @param filter the filter
+     * @return the canonical filter which is equal to the given filter
+     */
+    private static PathFilter intern(final PathFilter filter) {
+        synchronized (interned) {
+            final WeakReference<PathFilter> ref = interned.get(filter);
+            if (ref != null) {
+                final PathFilter existing = ref.get();
+                if (existing != null) {
+                    return existing;
+                }
+            }
+            interned.put(filter, new WeakReference<PathFilter>(filter));
+            return filter;
+        }
+    }
+
+    /**
+     * Get the canonical compiled instance of a filter.  The filter is only compiled if no equal filter has been
+     * interned yet.
+     *
+     * @param filter the uncompiled filter
+     * @return the canonical compiled filter which is equal to the given filter
+     */
+    private static PathFilter internCompiled(final PathFilter filter) {
+        synchronized (interned) {
+            final WeakReference<PathFilter> ref = interned.get(filter);
+            if (ref != null) {
+                final PathFilter existing = ref.get();
+                if (existing != null) {
+                    return existing;
+                }
+            }
+        }
+        final PathFilter compiled = TriePathFilter.compile(filter);
+        // key the entry by a filter which is equal to the uncompiled one, and which the compiled one keeps alive
+        final PathFilter key = compiled instanceof TriePathFilter ? ((TriePathFilter) compiled).getOriginal() : compiled;
+        synchronized (interned) {
+            final WeakReference<PathFilter> ref = interned.get(key);
+            if (ref != null) {
+                final PathFilter existing = ref.get();
+                if (existing != null) {
+                    return existing;
+                }
+            }
+            interned.put(key, new WeakReference<PathFilter>(compiled));
+            return compiled;
+        }
     }
 
     private static final PathFilter defaultImportFilter;
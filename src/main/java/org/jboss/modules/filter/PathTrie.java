@@ -0,0 +1,289 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.modules.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A compressed character trie of path decisions.  A trie is built from the literal keys of a set of <em>prefix-shaped</em> rules
+ * (rules which match either an exact path or every path starting with a given string).  The outcome of any
+ * combination of such rules depends only on the longest key which prefixes a path and on whether the path ends there,
+ * so each node records two precomputed decisions: one for a path which ends at the node, and one for a path which
+ * continues past the node with a character that leads nowhere in the trie.  Deciding a path therefore takes a single
+ * walk of the path, regardless of the number of rules.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class PathTrie {
+
+    /**
+     * The decision returned when the trie cannot decide a path, and the rules must be evaluated directly.
+     */
+    static final byte FALLBACK = -1;
+
+    /**
+     * The maximum total length of keys for which a trie is built.
+     */
+    private static final int MAX_KEY_CHARS = 8192;
+
+    /**
+     * The minimum number of keys for which a trie is built; below this, evaluating the rules directly is faster.
+     */
+    private static final int MIN_KEYS = 6;
+
+    private static final char[] NO_CHARS = new char[0];
+    private static final int[] NO_INTS = new int[0];
+    private static final String[] NO_STRINGS = new String[0];
+
+    private final char[][] firstChars;
+    private final String[][] edges;
+    private final int[][] children;
+    private final byte[] endDecisions;
+    private final byte[] exitDecisions;
+    private final boolean checkLineTerminators;
+
+    private PathTrie(final char[][] firstChars, final String[][] edges, final int[][] children, final byte[] endDecisions, final byte[] exitDecisions, final boolean checkLineTerminators) {
+        this.firstChars = firstChars;
+        this.edges = edges;
+        this.children = children;
+        this.endDecisions = endDecisions;
+        this.exitDecisions = exitDecisions;
+        this.checkLineTerminators = checkLineTerminators;
+    }
+
+    /**
+     * A source of decisions for the paths of the trie.
+     */
+    interface Decider {
+        byte decide(String path);
+    }
+
+    /**
+     * Collect the keys of a prefix-shaped filter.
+     *
+     * @param filter the filter
+     * @param keys the key collection to add to
+     * @return {@code true} if the filter is prefix-shaped, {@code false} otherwise
+     */
+    static boolean collectKeys(final PathFilter filter, final Collection<String> keys) {
+        if (filter instanceof BooleanPathFilter) {
+            return true;
+        } else if (filter instanceof EqualsPathFilter) {
+            keys.add(((EqualsPathFilter) filter).getPath());
+            return true;
+        } else if (filter instanceof SetPathFilter) {
+            keys.addAll(((SetPathFilter) filter).getPaths());
+            return true;
+        } else if (filter instanceof ChildPathFilter) {
+            keys.add(((ChildPathFilter) filter).getPrefix());
+            return true;
+        } else if (filter instanceof GlobPathFilter) {
+            return ((GlobPathFilter) filter).collectKeys(keys);
+        } else if (filter instanceof InvertingPathFilter) {
+            return collectKeys(((InvertingPathFilter) filter).getDelegate(), keys);
+        } else if (filter instanceof AggregatePathFilter) {
+            return collectKeys(((AggregatePathFilter) filter).getDelegates(), keys);
+        } else if (filter instanceof MultiplePathFilter) {
+            return collectKeys(((MultiplePathFilter) filter).getFilters(), keys);
+        } else if (filter instanceof TriePathFilter) {
+            return collectKeys(((TriePathFilter) filter).getOriginal(), keys);
+        } else {
+            return false;
+        }
+    }
+
+    static boolean collectKeys(final PathFilter[] filters, final Collection<String> keys) {
+        for (PathFilter filter : filters) {
+            if (! collectKeys(filter, keys)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Determine whether any of the given filters are subject to the line terminator rule of globs.
+     */
+    static boolean hasGlob(final PathFilter filter) {
+        if (filter instanceof GlobPathFilter) {
+            return true;
+        } else if (filter instanceof InvertingPathFilter) {
+            return hasGlob(((InvertingPathFilter) filter).getDelegate());
+        } else if (filter instanceof AggregatePathFilter) {
+            return hasGlob(((AggregatePathFilter) filter).getDelegates());
+        } else if (filter instanceof MultiplePathFilter) {
+            return hasGlob(((MultiplePathFilter) filter).getFilters());
+        } else if (filter instanceof TriePathFilter) {
+            return hasGlob(((TriePathFilter) filter).getOriginal());
+        } else {
+            return false;
+        }
+    }
+
+    static boolean hasGlob(final PathFilter[] filters) {
+        for (PathFilter filter : filters) {
+            if (hasGlob(filter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Build a trie.
+     *
+     * @param keys the rule keys
+     * @param decider the decision source
+     * @param checkLineTerminators {@code true} to return {@link #FALLBACK} for paths which contain a line terminator
+     * @return the trie, or {@code null} if the keys are unsuitable
+     */
+    static PathTrie build(final Set<String> keys, final Decider decider, final boolean checkLineTerminators) {
+        if (keys.size() < MIN_KEYS) {
+            return null;
+        }
+        int total = 0;
+        for (String key : keys) {
+            total += key.length();
+            if (total > MAX_KEY_CHARS || checkLineTerminators && GlobPathFilter.hasLineTerminator(key, 0)) {
+                return null;
+            }
+        }
+        // build the character tree
+        final List<TreeMap<Character, Integer>> nodes = new ArrayList<TreeMap<Character, Integer>>();
+        final BitSet keyNodes = new BitSet();
+        nodes.add(new TreeMap<Character, Integer>());
+        for (String key : keys) {
+            int node = 0;
+            for (int i = 0; i < key.length(); i++) {
+                final Character c = Character.valueOf(key.charAt(i));
+                final TreeMap<Character, Integer> map = nodes.get(node);
+                final Integer next = map.get(c);
+                if (next == null) {
+                    final int newNode = nodes.size();
+                    nodes.add(new TreeMap<Character, Integer>());
+                    map.put(c, Integer.valueOf(newNode));
+                    node = newNode;
+                } else {
+                    node = next.intValue();
+                }
+            }
+            keyNodes.set(node);
+        }
+        // collapse chains of single-child nodes which are not keys into edges, and decide each remaining node
+        final List<char[]> firstChars = new ArrayList<char[]>();
+        final List<String[]> edges = new ArrayList<String[]>();
+        final List<int[]> children = new ArrayList<int[]>();
+        final List<String> nodePaths = new ArrayList<String>();
+        final List<Integer> sources = new ArrayList<Integer>();
+        nodePaths.add("");
+        sources.add(Integer.valueOf(0));
+        for (int node = 0; node < sources.size(); node++) {
+            final TreeMap<Character, Integer> map = nodes.get(sources.get(node).intValue());
+            final String path = nodePaths.get(node);
+            final int cnt = map.size();
+            final char[] nodeFirstChars = cnt == 0 ? NO_CHARS : new char[cnt];
+            final String[] nodeEdges = cnt == 0 ? NO_STRINGS : new String[cnt];
+            final int[] nodeChildren = cnt == 0 ? NO_INTS : new int[cnt];
+            int i = 0;
+            for (Map.Entry<Character, Integer> entry : map.entrySet()) {
+                final StringBuilder edge = new StringBuilder().append(entry.getKey().charValue());
+                int target = entry.getValue().intValue();
+                TreeMap<Character, Integer> targetMap;
+                while (! keyNodes.get(target) && (targetMap = nodes.get(target)).size() == 1) {
+                    final Map.Entry<Character, Integer> only = targetMap.firstEntry();
+                    edge.append(only.getKey().charValue());
+                    target = only.getValue().intValue();
+                }
+                nodeFirstChars[i] = entry.getKey().charValue();
+                nodeEdges[i] = edge.toString();
+                nodeChildren[i] = sources.size();
+                sources.add(Integer.valueOf(target));
+                nodePaths.add(path + nodeEdges[i]);
+                i++;
+            }
+            firstChars.add(nodeFirstChars);
+            edges.add(nodeEdges);
+            children.add(nodeChildren);
+        }
+        final int size = sources.size();
+        final byte[] endDecisions = new byte[size];
+        final byte[] exitDecisions = new byte[size];
+        for (int node = 0; node < size; node++) {
+            final String path = nodePaths.get(node);
+            endDecisions[node] = decider.decide(path);
+            // any character which leads nowhere is representative of all such characters; a path which leaves or ends
+            // part way along an edge matches no more keys than this either
+            exitDecisions[node] = decider.decide(path + exitChar(firstChars.get(node)));
+        }
+        return new PathTrie(firstChars.toArray(new char[size][]), edges.toArray(new String[size][]), children.toArray(new int[size][]), endDecisions, exitDecisions, checkLineTerminators);
+    }
+
+    private static char exitChar(final char[] labels) {
+        char c = 0;
+        while (Arrays.binarySearch(labels, c) >= 0 || GlobPathFilter.isLineTerminator(c)) {
+            c++;
+        }
+        return c;
+    }
+
+    /**
+     * Decide a path.
+     *
+     * @param path the path
+     * @return the decision, or {@link #FALLBACK} if the trie cannot decide this path
+     */
+    byte decide(final String path) {
+        final int length = path.length();
+        int node = 0;
+        int i = 0;
+        while (i < length) {
+            final char[] nodeFirstChars = firstChars[node];
+            final char c = path.charAt(i);
+            final int idx = nodeFirstChars.length == 1 ? (nodeFirstChars[0] == c ? 0 : -1) : Arrays.binarySearch(nodeFirstChars, c);
+            if (idx < 0) {
+                return exit(node, path, i);
+            }
+            final String edge = edges[node][idx];
+            if (! path.regionMatches(i, edge, 0, edge.length())) {
+                return exit(node, path, i);
+            }
+            i += edge.length();
+            node = children[node][idx];
+        }
+        return endDecisions[node];
+    }
+
+    private byte exit(final int node, final String path, final int idx) {
+        if (checkLineTerminators && GlobPathFilter.hasLineTerminator(path, idx)) {
+            return FALLBACK;
+        }
+        return exitDecisions[node];
+    }
+}
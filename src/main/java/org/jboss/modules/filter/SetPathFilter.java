@@ -40,6 +40,10 @@ final class SetPathFilter implements PathFilter {
         return paths.contains(path);
     }
 
+    Set<String> getPaths() {
+        return paths;
+    }
+
     public String toString() {
         final StringBuilder b = new StringBuilder();
         b.append("in {");
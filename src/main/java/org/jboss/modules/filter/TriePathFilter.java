@@ -0,0 +1,99 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.modules.filter;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A path filter tree compiled into a {@link PathTrie}.  The original filter is retained for identity and for
+ * paths which the trie cannot decide.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+final class TriePathFilter implements PathFilter {
+
+    private static final byte REJECT = 0;
+    private static final byte ACCEPT = 1;
+
+    private final PathFilter original;
+    private final PathTrie trie;
+
+    private TriePathFilter(final PathFilter original, final PathTrie trie) {
+        this.original = original;
+        this.trie = trie;
+    }
+
+    /**
+     * Compile a filter tree into a trie, if all of its rules are prefix-shaped.  Filters which cannot be compiled are
+     * returned as-is, except that the prefix-shaped runs of a {@link MultiplePathFilter} are still compiled.
+     *
+     * @param filter the filter to compile
+     * @return the compiled filter
+     */
+    static PathFilter compile(final PathFilter filter) {
+        if (filter instanceof TriePathFilter) {
+            return filter;
+        }
+        final Set<String> keys = new HashSet<String>();
+        if (PathTrie.collectKeys(filter, keys)) {
+            final PathTrie trie = PathTrie.build(keys, new PathTrie.Decider() {
+                public byte decide(final String path) {
+                    return filter.accept(path) ? ACCEPT : REJECT;
+                }
+            }, PathTrie.hasGlob(filter));
+            if (trie != null) {
+                return new TriePathFilter(filter, trie);
+            }
+        }
+        if (filter instanceof MultiplePathFilter) {
+            return ((MultiplePathFilter) filter).compileRuns();
+        }
+        return filter;
+    }
+
+    PathFilter getOriginal() {
+        return original;
+    }
+
+    public boolean accept(final String path) {
+        final byte decision = trie.decide(path);
+        return decision == PathTrie.FALLBACK ? original.accept(path) : decision == ACCEPT;
+    }
+
+    public int hashCode() {
+        return original.hashCode();
+    }
+
+    public boolean equals(final Object obj) {
+        return obj instanceof TriePathFilter && equals((TriePathFilter) obj);
+    }
+
+    public boolean equals(final TriePathFilter obj) {
+        return obj != null && obj.original.equals(original);
+    }
+
+    public String toString() {
+        return original.toString();
+    }
+}
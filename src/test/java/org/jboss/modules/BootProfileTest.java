@@ -0,0 +1,157 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.modules;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jboss.modules.log.ModuleLogger;
+import org.jboss.modules.log.NoopModuleLogger;
+import org.jboss.modules.test.ClassB;
+import org.jboss.modules.util.TestModuleLoader;
+import org.jboss.modules.util.TestResourceLoader;
+import org.junit.Test;
+
+/**
+ * Test to verify the recording and replaying of boot profiles.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class BootProfileTest extends AbstractModuleTestCase {
+
+    private static final ModuleIdentifier MODULE_A = ModuleIdentifier.fromString("a");
+    private static final ModuleIdentifier MODULE_B = ModuleIdentifier.fromString("b");
+
+    @Test
+    public void testRecordAndRead() throws Exception {
+        final TestModuleLoader moduleLoader = createLoader(null);
+        final Module module = moduleLoader.loadModule(MODULE_A);
+        final BootProfile.Recorder recorder = new BootProfile.Recorder(NoopModuleLogger.getInstance(), BootProfile.MAX_ENTRIES);
+        recorder.moduleDefined(MODULE_A, moduleLoader);
+        recorder.classDefined("org.test.One", module);
+        recorder.classDefined("org.test.Two", module);
+        recorder.classDefined("org.test.One", module);
+        recorder.moduleDefined(MODULE_B, moduleLoader);
+
+        final File file = getProfileFile();
+        recorder.write(file);
+        final Map<ModuleIdentifier, List<String>> profile = BootProfile.read(file);
+        assertEquals(Arrays.asList(MODULE_A, MODULE_B), Arrays.asList(profile.keySet().toArray()));
+        assertEquals(Arrays.asList("org.test.One", "org.test.Two"), profile.get(MODULE_A));
+        assertEquals(Collections.<String>emptyList(), profile.get(MODULE_B));
+    }
+
+    @Test
+    public void testStopAndLimit() throws Exception {
+        final TestModuleLoader moduleLoader = createLoader(null);
+        final Module module = moduleLoader.loadModule(MODULE_A);
+        final BootProfile.Recorder recorder = new BootProfile.Recorder(NoopModuleLogger.getInstance(), 3);
+        recorder.moduleDefined(MODULE_A, moduleLoader);
+        recorder.classDefined("org.test.One", module);
+        recorder.classDefined("org.test.Two", module);
+        recorder.classDefined("org.test.Three", module);
+        File file = getProfileFile();
+        recorder.write(file);
+        assertEquals(Arrays.asList("org.test.One", "org.test.Two"), BootProfile.read(file).get(MODULE_A));
+
+        final BootProfile.Recorder stopped = new BootProfile.Recorder(NoopModuleLogger.getInstance(), BootProfile.MAX_ENTRIES);
+        stopped.moduleDefined(MODULE_A, moduleLoader);
+        stopped.stop();
+        stopped.classDefined("org.test.One", module);
+        stopped.write(file);
+        assertEquals(Collections.<String>emptyList(), BootProfile.read(file).get(MODULE_A));
+    }
+
+    @Test
+    public void testSetDelegateGreets() throws Exception {
+        final AtomicInteger greetings = new AtomicInteger();
+        final ModuleLogger logger = (ModuleLogger) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ModuleLogger.class }, new InvocationHandler() {
+            public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                if ("greeting".equals(method.getName())) {
+                    greetings.incrementAndGet();
+                }
+                return null;
+            }
+        });
+        final BootProfile.Recorder recorder = new BootProfile.Recorder(NoopModuleLogger.getInstance(), BootProfile.MAX_ENTRIES);
+        recorder.setDelegate(logger);
+        assertEquals(1, greetings.get());
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        final AtomicInteger lookups = new AtomicInteger();
+        final TestModuleLoader moduleLoader = createLoader(lookups);
+        final BootProfile.Recorder recorder = new BootProfile.Recorder(NoopModuleLogger.getInstance(), BootProfile.MAX_ENTRIES);
+        recorder.moduleDefined(MODULE_B, moduleLoader);
+        recorder.classDefined(ClassB.class.getName(), moduleLoader.loadModule(MODULE_A));
+        final File file = getProfileFile();
+        recorder.write(file);
+
+        BootProfile.replay(file, moduleLoader);
+        // preloading happens in the background
+        final long deadline = System.currentTimeMillis() + 10000L;
+        while (lookups.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        // b was only ever loaded by the replay
+        assertEquals(2, lookups.get());
+    }
+
+    private File getProfileFile() throws Exception {
+        final File file = new File(getResource("test"), "bootprofile/profile.txt");
+        file.getParentFile().mkdirs();
+        return file;
+    }
+
+    private static TestModuleLoader createLoader(final AtomicInteger lookups) throws Exception {
+        final TestModuleLoader moduleLoader = new TestModuleLoader() {
+            protected ModuleSpec findModule(final ModuleIdentifier moduleIdentifier) throws ModuleLoadException {
+                if (lookups != null) {
+                    lookups.incrementAndGet();
+                }
+                return super.findModule(moduleIdentifier);
+            }
+        };
+        for (ModuleIdentifier identifier : new ModuleIdentifier[] { MODULE_A, MODULE_B }) {
+            final ModuleSpec.Builder builder = ModuleSpec.build(identifier);
+            builder.addResourceRoot(ResourceLoaderSpec.createResourceLoaderSpec(TestResourceLoader.build()
+                .addClass(ClassB.class)
+                .create()
+            ));
+            builder.addDependency(DependencySpec.createLocalDependencySpec());
+            moduleLoader.addModuleSpec(builder.create());
+        }
+        return moduleLoader;
+    }
+}
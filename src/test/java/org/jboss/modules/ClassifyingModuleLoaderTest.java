@@ -0,0 +1,132 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.modules;
+
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Test to verify how the classifying module loader routes module names to its delegates.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ClassifyingModuleLoaderTest {
+
+    private final ModuleLoader defaultLoader = new SpecModuleLoader();
+    private final ModuleLoader orgLoader = new SpecModuleLoader();
+    private final ModuleLoader jbossLoader = new SpecModuleLoader();
+    private final ModuleLoader emptyLoader = new SpecModuleLoader();
+
+    @Test
+    public void testLongestSegmentPrefix() throws Exception {
+        final Map<String, ModuleLoader> delegates = new HashMap<String, ModuleLoader>();
+        delegates.put("org", orgLoader);
+        delegates.put("org.jboss", jbossLoader);
+        final ClassifyingModuleLoader loader = new ClassifyingModuleLoader("test", delegates, defaultLoader);
+
+        assertSame(orgLoader, loaderOf(loader, "org"));
+        assertSame(orgLoader, loaderOf(loader, "org.apache"));
+        assertSame(jbossLoader, loaderOf(loader, "org.jboss"));
+        assertSame(jbossLoader, loaderOf(loader, "org.jboss.modules"));
+        // prefixes are matched by whole segment only
+        assertSame(orgLoader, loaderOf(loader, "org.jbossx"));
+        assertSame(defaultLoader, loaderOf(loader, "organic"));
+        assertSame(defaultLoader, loaderOf(loader, "com.org"));
+        // a second lookup is answered from the remembered route
+        assertSame(jbossLoader, loaderOf(loader, "org.jboss.modules"));
+    }
+
+    @Test
+    public void testEmptyKeyAndLeadingDot() throws Exception {
+        final Map<String, ModuleLoader> delegates = new HashMap<String, ModuleLoader>();
+        delegates.put("", emptyLoader);
+        delegates.put(".org", orgLoader);
+        final ClassifyingModuleLoader loader = new ClassifyingModuleLoader("test", delegates, defaultLoader);
+
+        // the empty key is the first segment only of names which start with a dot
+        assertSame(emptyLoader, loaderOf(loader, ".com"));
+        assertSame(emptyLoader, loaderOf(loader, ".com.example"));
+        assertSame(defaultLoader, loaderOf(loader, "com"));
+        assertSame(orgLoader, loaderOf(loader, ".org"));
+        assertSame(orgLoader, loaderOf(loader, ".org.jboss"));
+        assertSame(defaultLoader, loaderOf(loader, "org"));
+    }
+
+    @Test
+    public void testTrailingDot() throws Exception {
+        final Map<String, ModuleLoader> delegates = new HashMap<String, ModuleLoader>();
+        delegates.put("org.", orgLoader);
+        final ClassifyingModuleLoader loader = new ClassifyingModuleLoader("test", delegates, defaultLoader);
+
+        assertSame(orgLoader, loaderOf(loader, "org."));
+        assertSame(orgLoader, loaderOf(loader, "org..jboss"));
+        assertSame(defaultLoader, loaderOf(loader, "org"));
+        assertSame(defaultLoader, loaderOf(loader, "org.jboss"));
+    }
+
+    @Test
+    public void testSetDelegates() throws Exception {
+        final Map<String, ModuleLoader> delegates = new HashMap<String, ModuleLoader>();
+        delegates.put("org", orgLoader);
+        final ClassifyingModuleLoader loader = new ClassifyingModuleLoader("test", delegates, defaultLoader);
+        assertSame(orgLoader, loaderOf(loader, "org.jboss.modules"));
+        assertSame(defaultLoader, loaderOf(loader, "com.example"));
+
+        // the delegates map is copied
+        delegates.put("com", emptyLoader);
+        assertSame(defaultLoader, loaderOf(loader, "com.example"));
+
+        // names which were already routed follow the new delegates
+        delegates.put("org.jboss", jbossLoader);
+        loader.setDelegates(delegates);
+        assertSame(jbossLoader, loaderOf(loader, "org.jboss.modules"));
+        assertSame(emptyLoader, loaderOf(loader, "com.example"));
+
+        delegates.clear();
+        loader.setDelegates(delegates);
+        assertSame(defaultLoader, loaderOf(loader, "org.jboss.modules"));
+    }
+
+    private static ModuleLoader loaderOf(final ModuleLoader loader, final String name) throws ModuleLoadException {
+        return loader.loadModule(ModuleIdentifier.create(name)).getModuleLoader();
+    }
+
+    /**
+     * A module loader which has an empty module of every name.
+     */
+    private static final class SpecModuleLoader extends ModuleLoader {
+
+        protected ModuleSpec findModule(final ModuleIdentifier moduleIdentifier) throws ModuleLoadException {
+            return ModuleSpec.build(moduleIdentifier).create();
+        }
+
+        public String toString() {
+            return "spec@" + System.identityHashCode(this);
+        }
+    }
+}
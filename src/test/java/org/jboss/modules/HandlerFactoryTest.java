@@ -0,0 +1,132 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.modules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.net.ContentHandler;
+import java.net.ContentHandlerFactory;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.net.URLStreamHandlerFactory;
+
+import org.jboss.modules.util.TestModuleLoader;
+import org.jboss.modules.util.TestResourceLoader;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test to verify that the modular URL stream and content handler factories pick up handler modules registered after
+ * a lookup has already missed.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class HandlerFactoryTest extends AbstractModuleTestCase {
+
+    private static final ModuleIdentifier HANDLER_MODULE_ID = ModuleIdentifier.fromString("test-handlers");
+    private static final String PROTOCOL = "jbmtest";
+    private static final String MIME_TYPE = "application/x-jbmtest";
+
+    private TestModuleLoader moduleLoader;
+
+    @Before
+    public void setupModuleLoader() throws Exception {
+        moduleLoader = new TestModuleLoader();
+        final ModuleSpec.Builder builder = ModuleSpec.build(HANDLER_MODULE_ID);
+        builder.addResourceRoot(ResourceLoaderSpec.createResourceLoaderSpec(
+                TestResourceLoader.build()
+                        .addClass(TestURLStreamHandlerFactory.class)
+                        .addClass(TestURLStreamHandler.class)
+                        .addClass(TestContentHandlerFactory.class)
+                        .addClass(TestContentHandler.class)
+                        .addResources(getResource("test/modulecontentloader/handlers"))
+                        .create()
+        ));
+        builder.addDependency(DependencySpec.createLocalDependencySpec());
+        moduleLoader.addModuleSpec(builder.create());
+    }
+
+    @Test
+    public void testURLStreamHandlerRegisteredAfterMiss() throws Exception {
+        final ModularURLStreamHandlerFactory factory = new ModularURLStreamHandlerFactory();
+        assertNull(factory.createURLStreamHandler(PROTOCOL));
+        // the miss is remembered
+        assertNull(factory.createURLStreamHandler(PROTOCOL));
+
+        final Module module = moduleLoader.loadModule(HANDLER_MODULE_ID);
+        Module.registerURLStreamHandlerFactoryModule(module);
+        final URLStreamHandler handler = factory.createURLStreamHandler(PROTOCOL);
+        assertNotNull(handler);
+        assertSame(module.getClassLoader(), handler.getClass().getClassLoader());
+        assertEquals(TestURLStreamHandler.class.getName(), handler.getClass().getName());
+        // the resolved handler is remembered too
+        assertSame(handler, factory.createURLStreamHandler(PROTOCOL));
+        assertNull(factory.createURLStreamHandler(PROTOCOL + "-other"));
+    }
+
+    @Test
+    public void testContentHandlerRegisteredAfterMiss() throws Exception {
+        final ModularContentHandlerFactory factory = new ModularContentHandlerFactory();
+        assertNull(factory.createContentHandler(MIME_TYPE));
+        assertNull(factory.createContentHandler(MIME_TYPE));
+
+        final Module module = moduleLoader.loadModule(HANDLER_MODULE_ID);
+        Module.registerContentHandlerFactoryModule(module);
+        final ContentHandler handler = factory.createContentHandler(MIME_TYPE);
+        assertNotNull(handler);
+        assertSame(module.getClassLoader(), handler.getClass().getClassLoader());
+        assertEquals(TestContentHandler.class.getName(), handler.getClass().getName());
+        assertSame(handler, factory.createContentHandler(MIME_TYPE));
+        assertNull(factory.createContentHandler(MIME_TYPE + "-other"));
+    }
+
+    public static class TestURLStreamHandlerFactory implements URLStreamHandlerFactory {
+        public URLStreamHandler createURLStreamHandler(final String protocol) {
+            return PROTOCOL.equals(protocol) ? new TestURLStreamHandler() : null;
+        }
+    }
+
+    public static class TestURLStreamHandler extends URLStreamHandler {
+        protected URLConnection openConnection(final URL u) throws IOException {
+            throw new IOException("Not supported");
+        }
+    }
+
+    public static class TestContentHandlerFactory implements ContentHandlerFactory {
+        public ContentHandler createContentHandler(final String mimetype) {
+            return MIME_TYPE.equals(mimetype) ? new TestContentHandler() : null;
+        }
+    }
+
+    public static class TestContentHandler extends ContentHandler {
+        public Object getContent(final URLConnection urlc) throws IOException {
+            throw new IOException("Not supported");
+        }
+    }
+}
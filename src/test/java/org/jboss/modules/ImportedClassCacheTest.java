@@ -0,0 +1,86 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.modules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+
+import org.junit.Test;
+
+/**
+ * Test to verify that the imported class cache drops the entries of collected classes.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class ImportedClassCacheTest {
+
+    @Test
+    public void testCollectedEntriesRemoved() throws Exception {
+        final ImportedClassCache cache = new ImportedClassCache(new Object());
+        cache.put("kept", String.class);
+        for (int i = 0; i < 10; i++) {
+            cache.put("collected" + i, newClass());
+        }
+        assertEquals(11, cache.size());
+        for (int i = 0; i < 50 && cache.get("collected0") != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        // the entry looked up is removed at once
+        assertNull(cache.get("collected0"));
+        assertTrue(cache.size() <= 10);
+        // the rest are purged as soon as the queue has them
+        for (int i = 0; i < 50 && cache.size() > 2; i++) {
+            System.gc();
+            Thread.sleep(10);
+            cache.put("other", Integer.class);
+        }
+        assertEquals(2, cache.size());
+        assertSame(String.class, cache.get("kept"));
+        assertSame(Integer.class, cache.get("other"));
+    }
+
+    @Test
+    public void testReplacedEntryKept() throws Exception {
+        final ImportedClassCache cache = new ImportedClassCache(new Object());
+        cache.put("name", newClass());
+        // the collected class is replaced before its reference is purged
+        cache.put("name", String.class);
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            Thread.sleep(10);
+            cache.put("other", Integer.class);
+        }
+        assertSame(String.class, cache.get("name"));
+        assertEquals(2, cache.size());
+    }
+
+    private static Class<?> newClass() {
+        // a class of its own class loader, which nothing else refers to
+        return Proxy.getProxyClass(new ClassLoader(ImportedClassCacheTest.class.getClassLoader()) {}, Runnable.class);
+    }
+}
@@ -22,20 +22,27 @@
 
 package org.jboss.modules;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
+import java.io.StringReader;
 import java.io.Writer;
 import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.ServiceConfigurationError;
 
+import javax.xml.XMLConstants;
 import javax.xml.datatype.DatatypeConstants.Field;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.Duration;
@@ -85,6 +92,7 @@ import javax.xml.transform.URIResolver;
 import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.sax.TemplatesHandler;
 import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.validation.SchemaFactory;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
@@ -105,6 +113,7 @@ import org.junit.Test;
 import org.w3c.dom.DOMImplementation;
 import org.w3c.dom.Document;
 import org.xml.sax.*;
+import org.xml.sax.helpers.DefaultHandler;
 
 import __redirected.__DatatypeFactory;
 import __redirected.__DocumentBuilderFactory;
@@ -192,6 +201,41 @@ public class JAXPModuleTest extends AbstractModuleTestCase {
         }
     }
 
+    @Test
+    public void testServiceIndex() throws Exception {
+        final Module module = moduleLoader.loadModule(FAKE_JAXP);
+        final List<Class<? extends DocumentBuilderFactory>> classes = module.loadServiceClasses(DocumentBuilderFactory.class);
+        Assert.assertEquals(1, classes.size());
+        Assert.assertEquals(FakeDocumentBuilderFactory.class.getName(), classes.get(0).getName());
+        Assert.assertSame(module.getClassLoader(), classes.get(0).getClassLoader());
+        final List<String> names = new ArrayList<String>();
+        for (DocumentBuilderFactory factory : module.loadService(DocumentBuilderFactory.class)) {
+            names.add(factory.getClass().getName());
+        }
+        Assert.assertEquals(Collections.singletonList(classes.get(0).getName()), names);
+        Assert.assertEquals(classes, module.loadServiceClasses(DocumentBuilderFactory.class));
+        Assert.assertTrue(module.loadServiceClasses(Runnable.class).isEmpty());
+    }
+
+    @Test
+    public void testServiceIndexUnreadable() throws Exception {
+        final ModuleIdentifier identifier = ModuleIdentifier.fromString("test-unreadable-services");
+        final ModuleSpec.Builder builder = ModuleSpec.build(identifier);
+        builder.addResourceRoot(ResourceLoaderSpec.createResourceLoaderSpec(
+                TestResourceLoader.build()
+                .addResource("META-INF/services/" + DocumentBuilderFactory.class.getName(), new File(getResource("test"), "missing-services-file").toURI().toURL())
+                .create()
+        ));
+        builder.addDependency(DependencySpec.createLocalDependencySpec());
+        moduleLoader.addModuleSpec(builder.create());
+        final Module module = moduleLoader.loadModule(identifier);
+        try {
+            module.loadServiceClasses(DocumentBuilderFactory.class);
+            Assert.fail("Expected ServiceConfigurationError");
+        } catch (ServiceConfigurationError expected) {
+        }
+    }
+
     @Test
     public void testJVMDefault() throws Exception {
         ModuleClassLoader cl = moduleLoader.loadModule(ModuleIdentifier.fromString("test-jaxp")).getClassLoader();
@@ -264,6 +308,122 @@ public class JAXPModuleTest extends AbstractModuleTestCase {
      * and/or let me know.
      *   -Jason
      */
+    @Test
+    public void testProviderAfterRelink() throws Exception {
+        final ModuleIdentifier identifier = ModuleIdentifier.fromString("test-jaxp-relink");
+        final ModuleSpec.Builder builder = ModuleSpec.build(identifier);
+        builder.addResourceRoot(ResourceLoaderSpec.createResourceLoaderSpec(
+                TestResourceLoader.build()
+                .addClass(JAXPCaller.class)
+                .create()
+        ));
+        builder.addDependency(DependencySpec.createModuleDependencySpec(jdkApiFilter, PathFilters.rejectAll(), Module.getBootModuleLoader(), ModuleIdentifier.SYSTEM, false));
+        builder.addDependency(DependencySpec.createLocalDependencySpec());
+        moduleLoader.addModuleSpec(builder.create());
+
+        final Module module = moduleLoader.loadModule(identifier);
+        final ModuleClassLoader cl = module.getClassLoader();
+        final Class<?> clazz = cl.loadClass("org.jboss.modules.test.JAXPCaller");
+        final ClassLoader old = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(cl);
+            checkDom(clazz, false);
+            // the module has no provider yet; one must be found once it is relinked to a module which has one
+            moduleLoader.setAndRelinkDependencies(module, Arrays.asList(
+                    DependencySpec.createModuleDependencySpec(jdkApiFilter, PathFilters.rejectAll(), Module.getBootModuleLoader(), ModuleIdentifier.SYSTEM, false),
+                    DependencySpec.createModuleDependencySpec(PathFilters.acceptAll(), PathFilters.rejectAll(), moduleLoader, FAKE_JAXP, false),
+                    DependencySpec.createLocalDependencySpec()
+            ));
+            checkDom(clazz, true);
+        } finally {
+            Thread.currentThread().setContextClassLoader(old);
+        }
+    }
+
+    @Test
+    public void testParserPool() throws Exception {
+        final ClassLoader old = Thread.currentThread().getContextClassLoader();
+        setParserPoolEnabled(true);
+        try {
+            // the platform provider, which is the only one pooled
+            Thread.currentThread().setContextClassLoader(ClassLoader.getSystemClassLoader());
+            __JAXPRedirected.restorePlatformFactory();
+
+            final SAXParser first = saxParserFactory(true).newSAXParser();
+            Assert.assertEquals("__redirected.__SAXParser", first.getClass().getName());
+            final SAXParser pooled = pooledParser(first);
+            Assert.assertNotNull(pooled);
+            parse(first);
+            // the parser is reset and returned to the pool once the parse is done
+            Assert.assertNull(pooledParser(first));
+
+            final SAXParser second = saxParserFactory(true).newSAXParser();
+            final XMLReader reader = second.getXMLReader();
+            Assert.assertSame(pooled, pooledParser(second));
+            // the reader pins the parser to the instance which handed it out
+            parse(second);
+            Assert.assertSame(pooled, pooledParser(second));
+            Assert.assertSame(reader, second.getXMLReader());
+            final SAXParser third = saxParserFactory(true).newSAXParser();
+            third.getXMLReader();
+            Assert.assertNotSame(pooled, pooledParser(third));
+
+            // factories configured differently do not share parsers
+            final SAXParser other = saxParserFactory(false).newSAXParser();
+            final SAXParser otherPooled = pooledParser(other);
+            parse(other);
+            final SAXParser fourth = saxParserFactory(true).newSAXParser();
+            fourth.getXMLReader();
+            Assert.assertNotSame(otherPooled, pooledParser(fourth));
+            final SAXParser otherAgain = saxParserFactory(false).newSAXParser();
+            otherAgain.getXMLReader();
+            Assert.assertSame(otherPooled, pooledParser(otherAgain));
+
+            // a schema cannot be part of a pool key, so setting one turns pooling off for the factory
+            final SAXParserFactory schemaFactory = saxParserFactory(true);
+            schemaFactory.setSchema(SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema());
+            final SAXParser unpooled = schemaFactory.newSAXParser();
+            Assert.assertFalse("__redirected.__SAXParser".equals(unpooled.getClass().getName()));
+
+            final DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+            documentBuilderFactory.setNamespaceAware(true);
+            final DocumentBuilder builder = documentBuilderFactory.newDocumentBuilder();
+            Assert.assertEquals("__redirected.__DocumentBuilder", builder.getClass().getName());
+            Assert.assertEquals("test", builder.parse(new InputSource(new StringReader("<test/>"))).getDocumentElement().getTagName());
+            Assert.assertEquals("test", builder.parse(new InputSource(new StringReader("<test/>"))).getDocumentElement().getTagName());
+
+            // providers from modules are never pooled
+            __JAXPRedirected.changeAll(FAKE_JAXP, moduleLoader);
+            Assert.assertEquals(FakeSAXParser.class.getName(), SAXParserFactory.newInstance().newSAXParser().getClass().getName());
+        } finally {
+            Thread.currentThread().setContextClassLoader(old);
+            setParserPoolEnabled(false);
+            __JAXPRedirected.restorePlatformFactory();
+        }
+    }
+
+    private static SAXParserFactory saxParserFactory(final boolean namespaceAware) {
+        final SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(namespaceAware);
+        return factory;
+    }
+
+    private static void parse(final SAXParser parser) throws Exception {
+        parser.parse(new InputSource(new StringReader("<test/>")), new DefaultHandler());
+    }
+
+    private static SAXParser pooledParser(final SAXParser parser) throws Exception {
+        final java.lang.reflect.Field field = parser.getClass().getDeclaredField("current");
+        field.setAccessible(true);
+        return (SAXParser) field.get(parser);
+    }
+
+    private static void setParserPoolEnabled(final boolean enabled) throws Exception {
+        final java.lang.reflect.Method method = Class.forName("__redirected.__ParserPool").getDeclaredMethod("setEnabled", boolean.class);
+        method.setAccessible(true);
+        method.invoke(null, Boolean.valueOf(enabled));
+    }
+
     @Test
     public void testMain() throws Throwable {
         java.lang.reflect.Field field = DefaultBootModuleLoaderHolder.class.getDeclaredField("INSTANCE");
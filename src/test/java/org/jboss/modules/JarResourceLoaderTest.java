@@ -24,12 +24,14 @@ package org.jboss.modules;
 
 import org.jboss.modules.filter.PathFilter;
 import org.junit.Assert;
+import org.junit.Test;
 
 import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.net.URI;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
@@ -63,6 +65,35 @@ public class JarResourceLoaderTest extends AbstractResourceLoaderTestCase {
         Assert.assertEquals(entry.getSize(), resource.getSize());
     }
 
+    @Test
+    public void testResourceURL() throws Exception {
+        final File outputFile = new File(getResource("test"), "jarresourceloader/url test.jar");
+        outputFile.getParentFile().mkdirs();
+        final String[] names = { "org/test/Plain.class", "dir with space/a#b%c.txt", "unicode/\u00fcber[1].txt" };
+        final JarOutputStream target = new JarOutputStream(new FileOutputStream(outputFile));
+        try {
+            for (String name : names) {
+                target.putNextEntry(new JarEntry(name));
+                target.write(name.getBytes("UTF-8"));
+                target.closeEntry();
+            }
+        } finally {
+            target.close();
+        }
+        final JarFile urlJarFile = new JarFile(outputFile);
+        try {
+            final ResourceLoader loader = new JarFileResourceLoader("url-root", urlJarFile);
+            for (String name : names) {
+                final Resource resource = loader.getResource(name);
+                Assert.assertNotNull(resource);
+                final String expected = new URI("jar", "file:" + urlJarFile.getName() + "!/" + name, null).toURL().toExternalForm();
+                Assert.assertEquals(expected, resource.getURL().toExternalForm());
+            }
+        } finally {
+            urlJarFile.close();
+        }
+    }
+
     private void buildJar(final File source, final File targetFile) throws IOException {
         final JarOutputStream target = new JarOutputStream(new FileOutputStream(targetFile));
         final String sourceBase = source.getPath();
@@ -0,0 +1,198 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.modules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test to verify the behavior of the persistent linkage cache.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class LinkageCacheTest extends AbstractModuleTestCase {
+
+    private File base;
+    private File cacheDir;
+    private File descriptor;
+    private File archive;
+
+    @Before
+    public void setupFiles() throws Exception {
+        base = new File(getResource("test"), "linkagecache");
+        deleteAll(base);
+        cacheDir = new File(base, "cache");
+        descriptor = new File(base, "repo/module.xml");
+        archive = new File(base, "repo/root.jar");
+        descriptor.getParentFile().mkdirs();
+        writeFile(descriptor, "<module/>");
+        writeJar(archive, "a/A.class", "b/B.class");
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        assertEquals(Arrays.asList("a", "b"), applyPaths());
+        final File cacheFile = getCacheFile();
+        assertTrue(cacheFile.isFile());
+        final DataInputStream is = new DataInputStream(new FileInputStream(cacheFile));
+        try {
+            assertEquals(0x4a4d4c43, is.readInt());
+            assertEquals(1, is.readInt());
+            assertEquals(MODULE_ID.toString(), is.readUTF());
+        } finally {
+            is.close();
+        }
+        // a fresh snapshot is read, not rewritten
+        assertTrue(cacheFile.setLastModified(100000L));
+        assertEquals(Arrays.asList("a", "b"), applyPaths());
+        assertEquals(100000L, cacheFile.lastModified());
+    }
+
+    @Test
+    public void testStaleFingerprint() throws Exception {
+        assertEquals(Arrays.asList("a", "b"), applyPaths());
+        final long modified = archive.lastModified();
+        writeJar(archive, "a/A.class", "b/B.class", "c/C.class");
+        assertTrue(archive.setLastModified(modified + 10000L));
+        assertEquals(Arrays.asList("a", "b", "c"), applyPaths());
+    }
+
+    @Test
+    public void testCorruptFile() throws Exception {
+        assertEquals(Arrays.asList("a", "b"), applyPaths());
+        final File cacheFile = getCacheFile();
+        writeFile(cacheFile, "not a linkage cache");
+        assertEquals(Arrays.asList("a", "b"), applyPaths());
+        // the damaged snapshot is replaced
+        final DataInputStream is = new DataInputStream(new FileInputStream(cacheFile));
+        try {
+            assertEquals(0x4a4d4c43, is.readInt());
+        } finally {
+            is.close();
+        }
+        // a truncated snapshot is rejected too
+        final byte[] bytes = new byte[(int) cacheFile.length() - 3];
+        final FileInputStream in = new FileInputStream(cacheFile);
+        try {
+            int t = 0, c;
+            while (t < bytes.length && (c = in.read(bytes, t, bytes.length - t)) != -1) {
+                t += c;
+            }
+        } finally {
+            in.close();
+        }
+        final FileOutputStream out = new FileOutputStream(cacheFile);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        assertEquals(Arrays.asList("a", "b"), applyPaths());
+    }
+
+    @Test
+    public void testSeparateRepositories() throws Exception {
+        final File otherDescriptor = new File(base, "other/module.xml");
+        assertFalse(LinkageCache.fileNameOf(MODULE_ID.toString(), descriptor).equals(LinkageCache.fileNameOf(MODULE_ID.toString(), otherDescriptor)));
+        assertTrue(LinkageCache.fileNameOf(MODULE_ID.toString(), otherDescriptor).startsWith("test.test_main-"));
+    }
+
+    private File getCacheFile() {
+        return new File(cacheDir, LinkageCache.fileNameOf(MODULE_ID.toString(), descriptor));
+    }
+
+    private List<String> applyPaths() throws IOException {
+        final JarFile jarFile = new JarFile(archive);
+        try {
+            final ResourceLoader loader = new JarFileResourceLoader("root", jarFile);
+            final ModuleSpec.Builder builder = ModuleSpec.build(MODULE_ID);
+            builder.addResourceRoot(ResourceLoaderSpec.createResourceLoaderSpec(loader));
+            final Map<ResourceLoader, File> rootFiles = new IdentityHashMap<ResourceLoader, File>();
+            rootFiles.put(loader, archive);
+            final ModuleSpec spec = LinkageCache.apply(cacheDir, builder.create(), descriptor, rootFiles);
+            final ResourceLoaderSpec[] loaderSpecs = spec.getResourceLoaders();
+            assertEquals(1, loaderSpecs.length);
+            assertTrue(loaderSpecs[0].getResourceLoader() instanceof IndexedResourceLoader);
+            final List<String> paths = new ArrayList<String>(loaderSpecs[0].getResourceLoader().getPaths());
+            paths.remove("");
+            Collections.sort(paths);
+            return paths;
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    private static void writeFile(final File file, final String content) throws IOException {
+        final FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content.getBytes("UTF-8"));
+        } finally {
+            os.close();
+        }
+    }
+
+    private static void writeJar(final File file, final String... names) throws IOException {
+        // the loader keeps its own index next to the archive
+        new File(file.getPath() + ".index").delete();
+        final JarOutputStream os = new JarOutputStream(new FileOutputStream(file));
+        try {
+            for (String name : names) {
+                os.putNextEntry(new JarEntry(name));
+                os.write(name.getBytes("UTF-8"));
+                os.closeEntry();
+            }
+        } finally {
+            os.close();
+        }
+    }
+
+    private static void deleteAll(final File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
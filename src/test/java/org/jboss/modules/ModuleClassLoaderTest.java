@@ -24,6 +24,9 @@ package org.jboss.modules;
 
 import org.jboss.modules.filter.MultiplePathFilterBuilder;
 import org.jboss.modules.filter.PathFilters;
+import org.jboss.modules.test.ClassA;
+import org.jboss.modules.test.ClassB;
+import org.jboss.modules.test.ClassD;
 import org.jboss.modules.test.ImportedClass;
 import org.jboss.modules.test.ImportedInterface;
 import org.jboss.modules.test.TestClass;
@@ -32,15 +35,30 @@ import org.jboss.modules.util.TestResourceLoader;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
 
+import static org.jboss.modules.util.Util.getClassBytes;
 import static org.jboss.modules.util.Util.toList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -140,6 +158,31 @@ public class ModuleClassLoaderTest extends AbstractModuleTestCase {
         }
     }
 
+    @Test
+    public void testCallerModule() throws Exception {
+        final Module testModule = moduleLoader.loadModule(MODULE_WITH_CONTENT_ID);
+        final Class<?> testClass = testModule.getClassLoader().loadClass("org.jboss.modules.test.TestClass");
+        assertSame(testModule, testClass.getMethod("getCallerModule").invoke(null));
+        assertSame(Module.forClass(getClass()), Module.getCallerModule());
+    }
+
+    @Test
+    public void testCallerModuleDeepStack() throws Exception {
+        final Module module = Module.forClass(getClass());
+        // deep stacks switch the lookup to a stack walk where the platform has one; shallow ones switch it back
+        for (int i = 0; i < 200; i++) {
+            assertSame(module, callerModuleAtDepth(100));
+        }
+        for (int i = 0; i < 200; i++) {
+            assertSame(module, Module.getCallerModule());
+        }
+        assertSame(module, callerModuleAtDepth(100));
+    }
+
+    private static Module callerModuleAtDepth(final int depth) {
+        return depth == 0 ? Module.getCallerModule() : callerModuleAtDepth(depth - 1);
+    }
+
     @Test
     public void testLocalClassLoadNotFound() throws Exception {
         final Module testModule = moduleLoader.loadModule(MODULE_WITH_CONTENT_ID);
@@ -299,6 +342,29 @@ public class ModuleClassLoaderTest extends AbstractModuleTestCase {
         assertNull(resUrl);
     }
 
+    @Test
+    public void testResourceStreamRetrieval() throws Exception {
+        final Module testModule = moduleLoader.loadModule(MODULE_WITH_CONTENT_ID);
+        final ModuleClassLoader classLoader = testModule.getClassLoader();
+        final InputStream stream = classLoader.getResourceAsStream("testTwo.txt");
+        assertNotNull(stream);
+        try {
+            final InputStream expected = classLoader.getResource("testTwo.txt").openStream();
+            try {
+                int b;
+                do {
+                    b = expected.read();
+                    assertEquals(b, stream.read());
+                } while (b != -1);
+            } finally {
+                expected.close();
+            }
+        } finally {
+            stream.close();
+        }
+        assertNull(classLoader.getResourceAsStream("bogus.txt"));
+    }
+
     @Test
     public void testLocalResourcesRetrieval() throws Exception {
         final Module testModule = moduleLoader.loadModule(MODULE_WITH_CONTENT_ID);
@@ -402,4 +468,144 @@ public class ModuleClassLoaderTest extends AbstractModuleTestCase {
         final Package pkg = testClass.getPackage();
         assertEquals("JBoss Modules Test Classes", pkg.getSpecificationTitle());
     }
+
+    @Test
+    public void testResourcesAcrossRootsAndFallback() throws Exception {
+        final URL fallbackUrl = getResource("test/modulecontentloader/rootTwo/nestedTwo/nested.txt").toURI().toURL();
+        final List<String> consulted = new ArrayList<String>();
+        final LocalLoader fallbackLoader = new LocalLoader() {
+            public Class<?> loadClassLocal(final String name, final boolean resolve) {
+                return null;
+            }
+
+            public List<Resource> loadResourceLocal(final String name) {
+                consulted.add(name);
+                return Collections.<Resource>singletonList(new URLResource(fallbackUrl));
+            }
+        };
+        final ModuleIdentifier identifier = ModuleIdentifier.fromString("test-resources-fallback");
+        final ModuleSpec.Builder builder = ModuleSpec.build(identifier);
+        builder.addResourceRoot(ResourceLoaderSpec.createResourceLoaderSpec(
+                TestResourceLoader.build()
+                .addResources(getResource("test/modulecontentloader/rootOne"))
+                .create()
+        ));
+        builder.addResourceRoot(ResourceLoaderSpec.createResourceLoaderSpec(
+                TestResourceLoader.build()
+                .addResources(getResource("test/modulecontentloader/rootTwo"))
+                .create()
+        ));
+        builder.addDependency(DependencySpec.createLocalDependencySpec());
+        builder.setFallbackLoader(fallbackLoader);
+        moduleLoader.addModuleSpec(builder.create());
+        final ModuleClassLoader classLoader = moduleLoader.loadModule(identifier).getClassLoader();
+
+        final Enumeration<URL> resources = classLoader.getResources("nested/nested.txt");
+        assertTrue(resources.hasMoreElements());
+        assertTrue(resources.nextElement().getPath().endsWith("rootOne/nested/nested.txt"));
+        assertTrue(resources.nextElement().getPath().endsWith("rootTwo/nested/nested.txt"));
+        // the fallback loader is only consulted once the roots are exhausted
+        assertTrue(consulted.isEmpty());
+        assertTrue(resources.hasMoreElements());
+        assertEquals(fallbackUrl, resources.nextElement());
+        assertEquals(1, consulted.size());
+        assertFalse(resources.hasMoreElements());
+        try {
+            resources.nextElement();
+            fail("Expected NoSuchElementException");
+        } catch (NoSuchElementException expected) {
+        }
+
+        // a path no root has goes to the fallback loader alone
+        final Enumeration<URL> missing = classLoader.getResources("bogus/nested.txt");
+        assertEquals(fallbackUrl, missing.nextElement());
+        assertFalse(missing.hasMoreElements());
+    }
+
+    @Test
+    public void testSystemResourceList() throws Exception {
+        final URL one = getResource("test/modulecontentloader/rootOne/test.txt").toURI().toURL();
+        final URL two = getResource("test/modulecontentloader/rootTwo/testTwo.txt").toURI().toURL();
+        final List<Resource> list = new SystemLocalLoader.URLResourceList(Collections.enumeration(Arrays.asList(one, two)));
+        final Iterator<Resource> iterator = list.iterator();
+        assertTrue(iterator.hasNext());
+        assertEquals(one, iterator.next().getURL());
+        assertEquals(two, iterator.next().getURL());
+        assertFalse(iterator.hasNext());
+        try {
+            iterator.next();
+            fail("Expected NoSuchElementException");
+        } catch (NoSuchElementException expected) {
+        }
+        assertEquals(2, list.size());
+        assertEquals(two, list.get(1).getURL());
+        try {
+            list.get(2);
+            fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    @Test
+    public void testSystemResourceCache() throws Exception {
+        final SystemLocalLoader loader = SystemLocalLoader.getInstance();
+        final String name = "org/jboss/modules/Module.class";
+        final List<Resource> resources = loader.loadResourceLocal(name);
+        assertFalse(resources.isEmpty());
+        assertSame(resources, loader.loadResourceLocal(name));
+        loader.classPathChanged();
+        final List<Resource> reread = loader.loadResourceLocal(name);
+        assertNotSame(resources, reread);
+        assertEquals(resources.get(0).getURL(), reread.get(0).getURL());
+        assertNull(loader.loadClassLocal("org.jboss.modules.test.BogusClass", false));
+    }
+
+    @Test
+    public void testClassAddedToRoot() throws Exception {
+        final File base = new File(getResource("test"), "addedclass");
+        final File directory = new File(base, "dir");
+        new File(directory, "org/jboss/modules/test").mkdirs();
+        writeBytes(new File(directory, "org/jboss/modules/test/ClassA.class"), getClassBytes(ClassA.class));
+        new File(directory, "org/jboss/modules/test/ClassD.class").delete();
+        final File archive = new File(base, "classes.jar");
+        final JarOutputStream os = new JarOutputStream(new FileOutputStream(archive));
+        try {
+            os.putNextEntry(new JarEntry("org/jboss/modules/test/ClassB.class"));
+            os.write(getClassBytes(ClassB.class));
+            os.closeEntry();
+        } finally {
+            os.close();
+        }
+        final JarFile jarFile = new JarFile(archive);
+        try {
+            final ModuleIdentifier identifier = ModuleIdentifier.fromString("test-added-class");
+            final ModuleSpec.Builder builder = ModuleSpec.build(identifier);
+            builder.addResourceRoot(ResourceLoaderSpec.createResourceLoaderSpec(new JarFileResourceLoader("jar", jarFile)));
+            builder.addResourceRoot(ResourceLoaderSpec.createResourceLoaderSpec(new FileResourceLoader("dir", directory)));
+            builder.addDependency(DependencySpec.createLocalDependencySpec());
+            moduleLoader.addModuleSpec(builder.create());
+            final ModuleClassLoader classLoader = moduleLoader.loadModule(identifier).getClassLoader();
+
+            assertSame(classLoader, classLoader.loadClass(ClassA.class.getName()).getClassLoader());
+            try {
+                classLoader.loadClass(ClassD.class.getName());
+                fail("Expected ClassNotFoundException");
+            } catch (ClassNotFoundException expected) {
+            }
+            // a class file dropped into the directory root later is found
+            writeBytes(new File(directory, "org/jboss/modules/test/ClassD.class"), getClassBytes(ClassD.class));
+            assertSame(classLoader, classLoader.loadClass(ClassD.class.getName()).getClassLoader());
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    private static void writeBytes(final File file, final byte[] bytes) throws IOException {
+        final FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(bytes);
+        } finally {
+            os.close();
+        }
+    }
 }
@@ -23,16 +23,27 @@
 package org.jboss.modules;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.lang.reflect.Field;
+import java.net.URL;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.jboss.modules.filter.PathFilter;
 import org.jboss.modules.filter.PathFilters;
+import org.jboss.modules.test.ClassA;
+import org.jboss.modules.test.ClassB;
+import org.jboss.modules.test.ClassC;
+import org.jboss.modules.test.ClassD;
 import org.jboss.modules.test.ImportedClass;
 import org.jboss.modules.util.TestModuleLoader;
 import org.jboss.modules.util.TestResourceLoader;
@@ -50,6 +61,7 @@ public class ModuleExportTest extends AbstractModuleTestCase {
     private static final ModuleIdentifier MODULE_B = ModuleIdentifier.fromString("b");
     private static final ModuleIdentifier MODULE_C = ModuleIdentifier.fromString("c");
     private static final ModuleIdentifier MODULE_D = ModuleIdentifier.fromString("d");
+    private static final ModuleIdentifier MODULE_MISSING = ModuleIdentifier.fromString("missing");
 
     @Test
     public void testExportDependencies() throws Exception {
@@ -159,4 +171,177 @@ public class ModuleExportTest extends AbstractModuleTestCase {
             assertEquals(moduleC.getClassLoaderPrivate().getLocalLoader(), entry.getValue().get(0));
         }
     }
+
+    @Test
+    public void testCyclicExports() throws Exception {
+        final TestModuleLoader moduleLoader = new TestModuleLoader();
+
+        // a -> b -> c -> a, each re-exporting the next
+        moduleLoader.addModuleSpec(cycleSpec(MODULE_A, MODULE_B, PathFilters.acceptAll(), ClassA.class));
+        moduleLoader.addModuleSpec(cycleSpec(MODULE_B, MODULE_C, PathFilters.acceptAll(), ClassB.class));
+        moduleLoader.addModuleSpec(cycleSpec(MODULE_C, MODULE_A, PathFilters.acceptAll(), ClassC.class, ClassD.class));
+
+        ModuleSpec.Builder builder = ModuleSpec.build(MODULE_D);
+        builder.addDependency(DependencySpec.createModuleDependencySpec(MODULE_B));
+        moduleLoader.addModuleSpec(builder.create());
+
+        for (ModuleIdentifier identifier : new ModuleIdentifier[] { MODULE_A, MODULE_B, MODULE_C }) {
+            final Map<String, List<LocalLoader>> exports = moduleLoader.loadModule(identifier).getPaths(true);
+            assertTrue(identifier + " exports a", exports.containsKey("a"));
+            assertTrue(identifier + " exports b", exports.containsKey("b"));
+            assertTrue(identifier + " exports c", exports.containsKey("c"));
+        }
+
+        final ClassLoader classLoader = moduleLoader.loadModule(MODULE_D).getClassLoader();
+        assertNotNull(classLoader.getResource("a/file.txt"));
+        assertNotNull(classLoader.getResource("b/file.txt"));
+        assertNotNull(classLoader.getResource("c/file.txt"));
+        assertEquals(ClassA.class.getName(), classLoader.loadClass(ClassA.class.getName()).getName());
+        assertEquals(ClassC.class.getName(), classLoader.loadClass(ClassC.class.getName()).getName());
+    }
+
+    @Test
+    public void testCyclicExportsWithFilter() throws Exception {
+        final TestModuleLoader moduleLoader = new TestModuleLoader();
+
+        // a -> b -> c -> a, where b does not pass c's own resources on
+        moduleLoader.addModuleSpec(cycleSpec(MODULE_A, MODULE_B, PathFilters.acceptAll(), ClassA.class));
+        moduleLoader.addModuleSpec(cycleSpec(MODULE_B, MODULE_C, PathFilters.not(PathFilters.match("c")), ClassB.class));
+        moduleLoader.addModuleSpec(cycleSpec(MODULE_C, MODULE_A, PathFilters.acceptAll(), ClassC.class, ClassD.class));
+
+        final Map<String, List<LocalLoader>> exportsA = moduleLoader.loadModule(MODULE_A).getPaths(true);
+        assertTrue(exportsA.containsKey("a"));
+        assertTrue(exportsA.containsKey("b"));
+        assertFalse(exportsA.containsKey("c"));
+
+        final Map<String, List<LocalLoader>> exportsB = moduleLoader.loadModule(MODULE_B).getPaths(true);
+        assertTrue(exportsB.containsKey("a"));
+        assertTrue(exportsB.containsKey("b"));
+        assertFalse(exportsB.containsKey("c"));
+
+        // c sees everything; its own resources directly, and the rest back around the cycle
+        final Map<String, List<LocalLoader>> exportsC = moduleLoader.loadModule(MODULE_C).getPaths(true);
+        assertTrue(exportsC.containsKey("a"));
+        assertTrue(exportsC.containsKey("b"));
+        assertTrue(exportsC.containsKey("c"));
+
+        final ClassLoader classLoader = moduleLoader.loadModule(MODULE_A).getClassLoader();
+        assertNull(classLoader.getResource("c/file.txt"));
+    }
+
+    @Test
+    public void testCyclicExportsWithMissingDependency() throws Exception {
+        final TestModuleLoader moduleLoader = new TestModuleLoader();
+
+        // a -> b -> a, where b also requires a module which does not exist
+        moduleLoader.addModuleSpec(cycleSpec(MODULE_A, MODULE_B, PathFilters.acceptAll(), ClassA.class));
+        ModuleSpec.Builder builder = ModuleSpec.build(MODULE_B);
+        builder.addResourceRoot(ResourceLoaderSpec.createResourceLoaderSpec(TestResourceLoader.build()
+            .addResource("b/file.txt", new URL("file:/b/file.txt"))
+            .create()
+        ));
+        builder.addDependency(DependencySpec.createLocalDependencySpec());
+        builder.addDependency(DependencySpec.createModuleDependencySpec(MODULE_A, true));
+        builder.addDependency(DependencySpec.createModuleDependencySpec(MODULE_MISSING, true));
+        moduleLoader.addModuleSpec(builder.create());
+
+        // the whole cycle fails together
+        try {
+            moduleLoader.loadModule(MODULE_A);
+            fail("Expected ModuleLoadException");
+        } catch (ModuleLoadException expected) {
+        }
+        try {
+            moduleLoader.loadModule(MODULE_B);
+            fail("Expected ModuleLoadException");
+        } catch (ModuleLoadException expected) {
+        }
+    }
+
+    @Test
+    public void testCyclicExportsWithMissingOptionalDependency() throws Exception {
+        final TestModuleLoader moduleLoader = new TestModuleLoader();
+
+        moduleLoader.addModuleSpec(cycleSpec(MODULE_A, MODULE_B, PathFilters.acceptAll(), ClassA.class));
+        ModuleSpec.Builder builder = ModuleSpec.build(MODULE_B);
+        builder.addResourceRoot(ResourceLoaderSpec.createResourceLoaderSpec(TestResourceLoader.build()
+            .addResource("b/file.txt", new URL("file:/b/file.txt"))
+            .create()
+        ));
+        builder.addDependency(DependencySpec.createLocalDependencySpec());
+        builder.addDependency(DependencySpec.createModuleDependencySpec(MODULE_A, true));
+        builder.addDependency(DependencySpec.createModuleDependencySpec(MODULE_MISSING, true, true));
+        moduleLoader.addModuleSpec(builder.create());
+
+        final Map<String, List<LocalLoader>> exportsA = moduleLoader.loadModule(MODULE_A).getPaths(true);
+        assertTrue(exportsA.containsKey("a"));
+        assertTrue(exportsA.containsKey("b"));
+    }
+
+    @Test
+    public void testWideGraph() throws Exception {
+        final TestModuleLoader moduleLoader = new TestModuleLoader();
+
+        // enough independent components to link in parallel, with pairs of leaves in small cycles
+        final int count = 80;
+        ModuleSpec.Builder builder = ModuleSpec.build(MODULE_A);
+        for (int i = 0; i < count; i++) {
+            final ModuleIdentifier leaf = ModuleIdentifier.fromString("leaf" + i);
+            final ModuleIdentifier peer = ModuleIdentifier.fromString("leaf" + (i ^ 1));
+            builder.addDependency(DependencySpec.createModuleDependencySpec(leaf, true));
+            final ModuleSpec.Builder leafBuilder = ModuleSpec.build(leaf);
+            leafBuilder.addResourceRoot(ResourceLoaderSpec.createResourceLoaderSpec(TestResourceLoader.build()
+                .addResource("leaf" + i + "/file.txt", new URL("file:/leaf" + i + "/file.txt"))
+                .create()
+            ));
+            leafBuilder.addDependency(DependencySpec.createLocalDependencySpec());
+            leafBuilder.addDependency(DependencySpec.createModuleDependencySpec(peer, true));
+            moduleLoader.addModuleSpec(leafBuilder.create());
+        }
+        moduleLoader.addModuleSpec(builder.create());
+
+        final Map<String, List<LocalLoader>> exports = moduleLoader.loadModule(MODULE_A).getPaths(true);
+        assertEquals(count, exports.size());
+        for (int i = 0; i < count; i++) {
+            assertTrue(exports.containsKey("leaf" + i));
+            assertEquals(2, moduleLoader.loadModule(ModuleIdentifier.fromString("leaf" + i)).getPaths(true).size());
+        }
+    }
+
+    @Test
+    public void testMissingOptionalDependencyLookup() throws Exception {
+        final AtomicInteger lookups = new AtomicInteger();
+        final TestModuleLoader moduleLoader = new TestModuleLoader() {
+            protected ModuleSpec findModule(final ModuleIdentifier moduleIdentifier) throws ModuleLoadException {
+                if (MODULE_MISSING.equals(moduleIdentifier)) {
+                    lookups.incrementAndGet();
+                }
+                return super.findModule(moduleIdentifier);
+            }
+        };
+
+        ModuleSpec.Builder builder = ModuleSpec.build(MODULE_A);
+        builder.addDependency(DependencySpec.createModuleDependencySpec(MODULE_MISSING, false, true));
+        builder.addDependency(DependencySpec.createModuleDependencySpec(MODULE_B));
+        moduleLoader.addModuleSpec(builder.create());
+        moduleLoader.addModuleSpec(cycleSpec(MODULE_B, MODULE_A, PathFilters.rejectAll(), ClassB.class));
+
+        final ClassLoader classLoader = moduleLoader.loadModule(MODULE_A).getClassLoader();
+        assertNotNull(classLoader.getResource("b/file.txt"));
+        // the missing module is looked up once, not again when the imports are calculated
+        assertEquals(1, lookups.get());
+    }
+
+    private static ModuleSpec cycleSpec(final ModuleIdentifier identifier, final ModuleIdentifier next, final PathFilter exportFilter, final Class<?>... localClasses) throws Exception {
+        final String name = identifier.getName();
+        final ModuleSpec.Builder builder = ModuleSpec.build(identifier);
+        builder.addResourceRoot(ResourceLoaderSpec.createResourceLoaderSpec(TestResourceLoader.build()
+            .addClasses(localClasses)
+            .addResource(name + "/file.txt", new URL("file:/" + name + "/file.txt"))
+            .create()
+        ));
+        builder.addDependency(DependencySpec.createLocalDependencySpec());
+        builder.addDependency(DependencySpec.createModuleDependencySpec(exportFilter, next, false));
+        return builder.create();
+    }
 }
@@ -22,12 +22,22 @@
 
 package org.jboss.modules;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.jboss.modules.filter.ClassFilter;
+import org.jboss.modules.filter.ClassFilters;
 import org.jboss.modules.filter.MultiplePathFilterBuilder;
 import org.jboss.modules.filter.PathFilter;
 import org.jboss.modules.filter.PathFilters;
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -61,6 +71,78 @@ public class PathFilterTest {
         assertTrue(pathFilter.accept("foo/baz/bar/biff"));
     }
 
+    @Test
+    public void testCanonicalisation() throws Exception {
+        final PathFilter acceptAll = PathFilters.acceptAll();
+        final PathFilter rejectAll = PathFilters.rejectAll();
+        final PathFilter foo = PathFilters.match("foo/**");
+        final PathFilter bar = PathFilters.isChildOf("bar");
+        assertSame(foo, PathFilters.match("foo/**"));
+        assertSame(bar, PathFilters.isChildOf("bar/"));
+        assertSame(acceptAll, PathFilters.multiplePathFilterBuilder(true).create());
+        assertSame(acceptAll, PathFilters.any(rejectAll, foo, acceptAll));
+        assertSame(rejectAll, PathFilters.all(foo, rejectAll));
+        assertSame(foo, PathFilters.any(rejectAll, foo, foo));
+        assertSame(foo, PathFilters.not(PathFilters.not(foo)));
+        assertSame(rejectAll, PathFilters.not(acceptAll));
+        assertSame(rejectAll, PathFilters.in(new HashSet<String>()));
+        assertSame(PathFilters.any(foo, bar), PathFilters.any(PathFilters.any(foo), PathFilters.any(bar, foo)));
+        final MultiplePathFilterBuilder builder = PathFilters.multiplePathFilterBuilder(false);
+        builder.addFilter(foo, false);
+        builder.addFilter(bar, false);
+        assertSame(rejectAll, builder.create());
+        builder.addFilter(acceptAll, true);
+        builder.addFilter(bar, false);
+        assertSame(PathFilters.not(PathFilters.any(foo, bar)), PathFilters.not(PathFilters.any(foo, bar)));
+        final PathFilter multiple = builder.create();
+        assertTrue(multiple.accept("baz"));
+        assertFalse(multiple.accept("bar/baz"));
+        final MultiplePathFilterBuilder builder2 = PathFilters.multiplePathFilterBuilder(false);
+        builder2.addFilter(foo, false);
+        builder2.addFilter(bar, false);
+        builder2.addFilter(acceptAll, true);
+        assertSame(multiple, builder2.create());
+    }
+
+    @Test
+    public void testCompiledCanonicalisation() throws Exception {
+        final PathFilter[] paths = new PathFilter[8];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = PathFilters.isChildOf("pkg" + i);
+        }
+        final PathFilter any = PathFilters.any(paths);
+        assertEquals("TriePathFilter", any.getClass().getSimpleName());
+        assertSame(any, PathFilters.any(paths.clone()));
+        assertSame(PathFilters.not(any), PathFilters.not(any));
+
+        final MultiplePathFilterBuilder builder = PathFilters.multiplePathFilterBuilder(false);
+        final MultiplePathFilterBuilder builder2 = PathFilters.multiplePathFilterBuilder(false);
+        for (int i = 0; i < paths.length; i++) {
+            builder.addFilter(paths[i], (i & 1) == 0);
+            builder2.addFilter(paths[i], (i & 1) == 0);
+        }
+        final PathFilter multiple = builder.create();
+        assertSame(multiple, builder2.create());
+        assertTrue(multiple.accept("pkg0/foo"));
+        assertFalse(multiple.accept("pkg1/foo"));
+        assertFalse(multiple.accept("other"));
+    }
+
+    @Test
+    public void testPackageClassFilter() throws Exception {
+        final PathFilter packages = PathFilters.any(PathFilters.is("org/foo"), PathFilters.is(""));
+        final ClassFilter filter = ClassFilters.fromPackagePathFilter(packages);
+        for (int i = 0; i < 2; i ++) {
+            assertTrue(filter.accept("org.foo.Bar"));
+            assertTrue(filter.accept("Bar"));
+            assertFalse(filter.accept("org.foo.bar.Baz"));
+            assertFalse(filter.accept("org.Foo"));
+        }
+        assertSame(packages, ClassFilters.getPackagePathFilter(filter));
+        assertSame(PathFilters.acceptAll(), ClassFilters.getPackagePathFilter(ClassFilters.acceptAll()));
+        assertSame(ClassFilters.rejectAll(), ClassFilters.fromPackagePathFilter(PathFilters.rejectAll()));
+    }
+
     @Test
     public void testDelegating() throws Exception {
         final MultiplePathFilterBuilder builder = PathFilters.multiplePathFilterBuilder(true);
@@ -73,4 +155,184 @@ public class PathFilterTest {
         assertFalse(pathFilter.accept("foo/bar/baz"));
         assertFalse(pathFilter.accept("baz/foo/bar"));
     }
+
+    @Test
+    public void testMatchEdgeCases() throws Exception {
+        PathFilter pathFilter = PathFilters.match("foo/");
+        assertTrue(pathFilter.accept("foo/"));
+        assertFalse(pathFilter.accept("foo"));
+
+        pathFilter = PathFilters.match("*/");
+        assertTrue(pathFilter.accept("foo/bar"));
+        assertTrue(pathFilter.accept("foo//bar"));
+        assertFalse(pathFilter.accept("foo"));
+
+        pathFilter = PathFilters.match("\\*x");
+        assertTrue(pathFilter.accept("*x"));
+        assertFalse(pathFilter.accept("ax"));
+
+        pathFilter = PathFilters.match("foo/*.jar");
+        assertTrue(pathFilter.accept("foo/bar.jar"));
+        assertTrue(pathFilter.accept("foo/.jar/baz"));
+        assertFalse(pathFilter.accept("foo/bar.jar2"));
+        assertFalse(pathFilter.accept("foo/bar/baz.jar"));
+
+        pathFilter = PathFilters.match("**");
+        assertTrue(pathFilter.accept(""));
+        assertTrue(pathFilter.accept("foo/bar"));
+        assertFalse(pathFilter.accept("foo\nbar"));
+    }
+
+    @Test
+    public void testMultipleAgainstRules() throws Exception {
+        final Random random = new Random(1234L);
+        for (int i = 0; i < 2000; i ++) {
+            final int cnt = random.nextInt(24);
+            final PathFilter[] rules = new PathFilter[cnt];
+            final boolean[] flags = new boolean[cnt];
+            final boolean defaultVal = random.nextBoolean();
+            final MultiplePathFilterBuilder builder = PathFilters.multiplePathFilterBuilder(defaultVal);
+            for (int j = 0; j < cnt; j ++) {
+                rules[j] = randomRule(random);
+                flags[j] = random.nextBoolean();
+                builder.addFilter(rules[j], flags[j]);
+            }
+            final PathFilter multiple = builder.create();
+            final PathFilter any = PathFilters.any(rules);
+            final PathFilter all = PathFilters.all(rules);
+            final PathFilter notAny = PathFilters.not(any);
+            for (int j = 0; j < 50; j ++) {
+                final String path = randomPath(random);
+                boolean expected = defaultVal;
+                boolean expectedAny = false;
+                boolean expectedAll = true;
+                for (int k = 0; k < cnt; k ++) {
+                    if (rules[k].accept(path)) {
+                        expected = flags[k];
+                        break;
+                    }
+                }
+                for (int k = 0; k < cnt; k ++) {
+                    final boolean result = rules[k].accept(path);
+                    expectedAny |= result;
+                    expectedAll &= result;
+                }
+                final String msg = multiple + " path \"" + path + "\"";
+                assertEquals(msg, expected, multiple.accept(path));
+                assertEquals(msg, expectedAny, any.accept(path));
+                assertEquals(msg, expectedAll, all.accept(path));
+                assertEquals(msg, ! expectedAny, notAny.accept(path));
+            }
+        }
+    }
+
+    private static final String[] SEGMENTS = { "org", "jboss", "META-INF", "services", "a", "" };
+
+    private static String randomPath(final Random random) {
+        final StringBuilder b = new StringBuilder();
+        final int cnt = random.nextInt(4);
+        for (int i = 0; i < cnt; i ++) {
+            if (i > 0) b.append('/');
+            b.append(SEGMENTS[random.nextInt(SEGMENTS.length)]);
+        }
+        if (random.nextInt(8) == 0) {
+            b.append(random.nextBoolean() ? "x" : "\n");
+        }
+        return b.toString();
+    }
+
+    private static PathFilter randomRule(final Random random) {
+        final String path = randomPath(random);
+        switch (random.nextInt(8)) {
+            case 0: return PathFilters.is(path);
+            case 1: return PathFilters.isChildOf(path.length() == 0 ? "org" : path);
+            case 2: return PathFilters.match(path);
+            case 3: return PathFilters.match(path + "/**");
+            case 4: return PathFilters.match(path + "**");
+            case 5: return PathFilters.match("**/" + path);
+            case 6: return PathFilters.in(new HashSet<String>(Arrays.asList(path, randomPath(random))));
+            default: return random.nextBoolean() ? PathFilters.acceptAll() : PathFilters.rejectAll();
+        }
+    }
+
+    private static final char[] GLOB_CHARS = { 'a', 'b', '/', '/', '*', '*', '?', '\\', '.', '\n' };
+    private static final char[] PATH_CHARS = { 'a', 'b', '/', '/', '*', '?', '\\', '.', '\n' };
+
+    @Test
+    public void testMatchAgainstRegex() throws Exception {
+        final Random random = new Random(4321L);
+        for (int i = 0; i < 20000; i ++) {
+            final String glob = randomString(random, GLOB_CHARS, 8);
+            final PathFilter pathFilter = PathFilters.match(glob);
+            final Pattern pattern = getGlobPattern(glob);
+            for (int j = 0; j < 20; j ++) {
+                final String path = j < 4 ? mutate(random, glob) : randomString(random, PATH_CHARS, 10);
+                assertEquals("glob \"" + glob + "\" path \"" + path + "\"", pattern.matcher(path).matches(), pathFilter.accept(path));
+            }
+        }
+    }
+
+    private static String randomString(final Random random, final char[] chars, final int maxLength) {
+        final int length = random.nextInt(maxLength + 1);
+        final StringBuilder b = new StringBuilder(length);
+        for (int i = 0; i < length; i ++) {
+            b.append(chars[random.nextInt(chars.length)]);
+        }
+        return b.toString();
+    }
+
+    private static String mutate(final Random random, final String glob) {
+        final StringBuilder b = new StringBuilder();
+        for (int i = 0; i < glob.length(); i ++) {
+            final char c = glob.charAt(i);
+            if (c == '*') {
+                b.append(randomString(random, PATH_CHARS, 3));
+            } else if (c == '?') {
+                b.append(PATH_CHARS[random.nextInt(PATH_CHARS.length)]);
+            } else {
+                b.append(c);
+            }
+        }
+        if (random.nextBoolean()) {
+            b.append(randomString(random, PATH_CHARS, 4));
+        }
+        return b.toString();
+    }
+
+    private static final Pattern GLOB_PATTERN = Pattern.compile("(\\*\\*?)|(\\?)|(\\\\.)|(/+)|([^*?]+)");
+
+    /**
+     * The original regular expression translation of a glob, used as the reference for the glob matcher.
+     */
+    private static Pattern getGlobPattern(final String glob) {
+        StringBuilder patternBuilder = new StringBuilder();
+        final Matcher m = GLOB_PATTERN.matcher(glob);
+        boolean lastWasSlash = false;
+        while (m.find()) {
+            lastWasSlash = false;
+            String grp;
+            if ((grp = m.group(1)) != null) {
+                if (grp.length() == 2) {
+                    patternBuilder.append(".*");
+                } else {
+                    patternBuilder.append("[^/]*");
+                }
+            } else if ((grp = m.group(2)) != null) {
+                patternBuilder.append("[^/]");
+            } else if ((grp = m.group(3)) != null) {
+                patternBuilder.append(Pattern.quote(m.group().substring(1)));
+            } else if ((grp = m.group(4)) != null) {
+                patternBuilder.append("/+");
+                lastWasSlash = true;
+            } else {
+                patternBuilder.append(Pattern.quote(m.group()));
+            }
+        }
+        if (lastWasSlash) {
+            patternBuilder.append(".*");
+        } else {
+            patternBuilder.append("(?:/.*)?");
+        }
+        return Pattern.compile(patternBuilder.toString());
+    }
 }
@@ -0,0 +1,122 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.modules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Test to verify the behavior of the compact path map.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class PathMapTest {
+
+    @Test
+    public void testProbeCollisions() {
+        // "Aa" and "BB" share a hash code, and so do all combinations of them
+        final String[] colliding = { "AaAa", "AaBB", "BBAa", "BBBB" };
+        assertEquals(colliding[0].hashCode(), colliding[3].hashCode());
+        final Map<String, List<String>> source = new LinkedHashMap<String, List<String>>();
+        for (String key : colliding) {
+            source.put(key, Collections.singletonList("loader-" + key));
+        }
+        // distinct hash codes which land in the same slot of the 32-slot table used for twelve keys
+        final int slot = spread(colliding[0].hashCode()) & 31;
+        for (int i = 0; source.size() < 12; i++) {
+            final String key = "p" + i;
+            if ((spread(key.hashCode()) & 31) == slot) {
+                source.put(key, Collections.singletonList("loader-" + key));
+            }
+        }
+        final PathMap<String> map = PathMap.copyOf(source);
+        assertEquals(source.size(), map.size());
+        for (Map.Entry<String, List<String>> entry : source.entrySet()) {
+            assertTrue(map.containsKey(entry.getKey()));
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        assertFalse(map.containsKey("AaAaAa"));
+        assertNull(map.get("BBBBBB"));
+        assertNull(map.get(Integer.valueOf(0)));
+        assertEquals(new HashMap<String, List<String>>(source), new HashMap<String, List<String>>(map));
+    }
+
+    private static int spread(final int h) {
+        return h ^ (h >>> 16);
+    }
+
+    @Test
+    public void testValues() {
+        final Map<String, List<String>> source = new HashMap<String, List<String>>();
+        source.put("single", Collections.singletonList("a"));
+        source.put("multiple", Arrays.asList("a", "b", "c"));
+        source.put("empty", Collections.<String>emptyList());
+        final PathMap<String> map = PathMap.copyOf(source);
+        assertEquals(3, map.size());
+        assertEquals(Collections.singletonList("a"), map.get("single"));
+        assertEquals(Arrays.asList("a", "b", "c"), map.get("multiple"));
+        assertEquals(Collections.<String>emptyList(), map.get("empty"));
+        assertTrue(map.containsKey("empty"));
+        // values are built once and returned as-is
+        assertSame(map.get("single"), map.get("single"));
+        assertSame(map.get("multiple"), map.get("multiple"));
+        try {
+            map.get("multiple").set(0, "d");
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException expected) {
+        }
+        assertEquals(Arrays.asList("a", "b", "c"), map.get("multiple"));
+        final List<String> keys = new ArrayList<String>(map.keySet());
+        Collections.sort(keys);
+        assertEquals(Arrays.asList("empty", "multiple", "single"), keys);
+    }
+
+    @Test
+    public void testCopyOf() {
+        final Map<String, List<String>> source = new HashMap<String, List<String>>();
+        source.put("a", Collections.singletonList("x"));
+        final PathMap<String> map = PathMap.copyOf(source);
+        assertSame(map, PathMap.copyOf(map));
+        source.put("b", Collections.singletonList("y"));
+        assertEquals(1, map.size());
+        assertNull(map.get("b"));
+        assertSame(PathMap.empty(), PathMap.copyOf(new HashMap<String, List<String>>()));
+        assertTrue(PathMap.<String>empty().isEmpty());
+        assertNull(PathMap.<String>empty().get("a"));
+    }
+}
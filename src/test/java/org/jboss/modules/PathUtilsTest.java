@@ -0,0 +1,160 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+
+package org.jboss.modules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test to verify that {@link PathUtils#canonicalize(String)} gives the same results as the original algorithm.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class PathUtilsTest {
+
+    private static final char[] ALPHABET = { 'a', 'b', '.', '/' };
+
+    @Test
+    public void testExhaustive() {
+        final StringBuilder b = new StringBuilder();
+        for (int length = 0; length <= 8; length++) {
+            final int count = 1 << (2 * length);
+            for (int n = 0; n < count; n++) {
+                b.setLength(0);
+                for (int i = 0, v = n; i < length; i++, v >>= 2) {
+                    b.append(ALPHABET[v & 3]);
+                }
+                check(b.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testFuzz() {
+        final Random random = new Random(8723467L);
+        final StringBuilder b = new StringBuilder();
+        for (int n = 0; n < 100000; n++) {
+            b.setLength(0);
+            final int length = random.nextInt(40);
+            for (int i = 0; i < length; i++) {
+                switch (random.nextInt(6)) {
+                    case 0: b.append('/'); break;
+                    case 1: b.append("../"); break;
+                    case 2: b.append("./"); break;
+                    case 3: b.append('.'); break;
+                    default: b.append((char) ('a' + random.nextInt(3))); break;
+                }
+            }
+            check(b.toString());
+        }
+    }
+
+    @Test
+    public void testCanonicalUnchanged() {
+        final String[] paths = { "", "/", "a", "/a", "a/", "/a/b/c", "org/jboss/modules/Module.class", "a/.b/c/...", "a/b.", "META-INF/services/x" };
+        for (String path : paths) {
+            assertSame(path, PathUtils.canonicalize(path));
+            check(path);
+        }
+    }
+
+    private static void check(final String path) {
+        final String expected = referenceCanonicalize(path);
+        assertEquals(path, expected, PathUtils.canonicalize(path));
+        assertEquals(path, expected, PathUtils.canonicalize(new StringBuilder(path)));
+    }
+
+    /**
+     * The original canonicalization algorithm, which always copies the path.
+     */
+    private static String referenceCanonicalize(String path) {
+        final int length = path.length();
+        // 0 - start
+        // 1 - got one .
+        // 2 - got two .
+        // 3 - got /
+        int state = 0;
+        if (length == 0) {
+            return path;
+        }
+        final char[] targetBuf = new char[length];
+        // string segment end exclusive
+        int e = length;
+        // string cursor position
+        int i = length;
+        // buffer cursor position
+        int a = length - 1;
+        // number of segments to skip
+        int skip = 0;
+        loop: while (--i >= 0) {
+            char c = path.charAt(i);
+            outer: switch (c) {
+                case '/': {
+                    inner: switch (state) {
+                        case 0: state = 3; e = i; break outer;
+                        case 1: state = 3; e = i; break outer;
+                        case 2: state = 3; e = i; skip ++; break outer;
+                        case 3: e = i; break outer;
+                        default: throw new IllegalStateException();
+                    }
+                    // not reached!
+                }
+                case '.': {
+                    inner: switch (state) {
+                        case 0: state = 1; break outer;
+                        case 1: state = 2; break outer;
+                        case 2: break inner; // emit!
+                        case 3: state = 1; break outer;
+                        default: throw new IllegalStateException();
+                    }
+                    // fall thru
+                }
+                default: {
+                    final int newE = e > 0 ? path.lastIndexOf('/', e - 1) : -1;
+                    final int segmentLength = e - newE - 1;
+                    if (skip > 0) {
+                        skip--;
+                    } else {
+                        if (state == 3) {
+                            targetBuf[a--] = '/';
+                        }
+                        path.getChars(newE + 1, e, targetBuf, (a -= segmentLength) + 1);
+                    }
+                    state = 0;
+                    i = newE + 1;
+                    e = newE;
+                    break;
+                }
+            }
+        }
+        if (state == 3) {
+            targetBuf[a--] = '/';
+        }
+        return new String(targetBuf, a + 1, length - a - 1);
+    }
+}
@@ -91,4 +91,26 @@ public class RelinkTest extends AbstractModuleTestCase {
 
         Assert.assertNotNull(cl.loadClass("org.jboss.modules.util.Util"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testRemovedImport() throws Exception {
+        final TestModuleLoader moduleLoader = new TestModuleLoader();
+
+        ModuleSpec.Builder builder = ModuleSpec.build(MODULE_A);
+        builder.addDependency(DependencySpec.createModuleDependencySpec(PathFilters.match("org/jboss/modules/**"), PathFilters.rejectAll(), null, ModuleIdentifier.SYSTEM, false));
+        moduleLoader.addModuleSpec(builder.create());
+
+        Module module = moduleLoader.loadModule(MODULE_A);
+        ClassLoader cl = module.getClassLoader();
+        Assert.assertNotNull(cl.loadClass("org.jboss.modules.util.Util"));
+        Assert.assertNotNull(cl.loadClass("org.jboss.modules.util.Util"));
+
+        moduleLoader.setAndRelinkDependencies(module, Arrays.<DependencySpec>asList());
+
+        try {
+            cl.loadClass("org.jboss.modules.util.Util");
+            throw new AssertionFailedError("Should not have loaded class");
+        } catch (ClassNotFoundException e) {
+        }
+    }
+}
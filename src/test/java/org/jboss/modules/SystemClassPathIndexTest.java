@@ -0,0 +1,252 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2010, Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+
+package org.jboss.modules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test to verify the behavior of the system class path index and its cache.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ */
+public class SystemClassPathIndexTest extends AbstractModuleTestCase {
+
+    private File base;
+    private File cacheFile;
+    private File archive;
+
+    @Before
+    public void setupFiles() throws Exception {
+        base = new File(getResource("test"), "systemclasspathindex");
+        deleteAll(base);
+        base.mkdirs();
+        cacheFile = new File(base, "cache/system-class-path.index");
+        archive = new File(base, "classes.jar");
+        writeJar(archive, "aa/A.class", "bb/B.class");
+        assertTrue(archive.setLastModified(1000000L));
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        assertEquals(paths("aa", "bb"), buildPathSet());
+        assertTrue(cacheFile.isFile());
+        final DataInputStream is = new DataInputStream(new FileInputStream(cacheFile));
+        try {
+            assertEquals(0x4a4d5350, is.readInt());
+            assertEquals(1, is.readInt());
+            assertEquals(1, is.readInt());
+            assertEquals(archive.getAbsolutePath(), is.readUTF());
+        } finally {
+            is.close();
+        }
+        // content with the same size and time is not rescanned, so the cached paths are returned
+        final long size = archive.length();
+        writeJar(archive, "yy/A.class", "zz/B.class");
+        assertEquals(size, archive.length());
+        assertTrue(archive.setLastModified(1000000L));
+        assertTrue(cacheFile.setLastModified(100000L));
+        assertEquals(paths("aa", "bb"), buildPathSet());
+        // and an unchanged cache is not rewritten
+        assertEquals(100000L, cacheFile.lastModified());
+    }
+
+    @Test
+    public void testRescan() throws Exception {
+        assertEquals(paths("aa", "bb"), buildPathSet());
+        // same size, new time
+        writeJar(archive, "yy/A.class", "zz/B.class");
+        assertTrue(archive.setLastModified(2000000L));
+        assertEquals(paths("yy", "zz"), buildPathSet());
+        // same time, new size
+        writeJar(archive, "yy/A.class", "zz/B.class", "cc/C.class");
+        assertTrue(archive.setLastModified(2000000L));
+        assertEquals(paths("cc", "yy", "zz"), buildPathSet());
+        // the cache holds the latest scan
+        assertEquals(paths("cc", "yy", "zz"), buildPathSet());
+    }
+
+    @Test
+    public void testSameAsEagerScan() throws Exception {
+        final File directory = new File(base, "dir");
+        for (String name : new String[] { "p/q/C.class", "p/D.class", "p/r/s/E.class", "META-INF/MANIFEST.MF", "top.properties" }) {
+            final File file = new File(directory, name);
+            file.getParentFile().mkdirs();
+            assertTrue(file.createNewFile());
+        }
+        final File other = new File(base, "other.jar");
+        writeJar(other, "aa/b/C.class", "aa/D.class", "META-INF/MANIFEST.MF", "META-INF/services/x.Y", "root.txt");
+        final String classPath = directory.getPath() + File.pathSeparator + archive.getPath() + File.pathSeparator + other.getPath()
+                + File.pathSeparator + new File(base, "missing.jar").getPath() + File.pathSeparator + archive.getPath();
+        final Set<String> expected = eagerScan(classPath);
+        assertTrue(expected.contains("p/r/s"));
+        assertEquals(expected, new TreeSet<String>(SystemClassPathIndex.buildPathSet("", classPath, null)));
+        // uncached, then cached
+        assertEquals(expected, new TreeSet<String>(SystemClassPathIndex.buildPathSet("", classPath, cacheFile)));
+        assertEquals(expected, new TreeSet<String>(SystemClassPathIndex.buildPathSet("", classPath, cacheFile)));
+    }
+
+    @Test
+    public void testBootLayer() throws Exception {
+        final Set<String> pathSet = SystemClassPathIndex.buildPathSet(null, null, null);
+        boolean modular;
+        try {
+            Class.forName("java.lang.ModuleLayer");
+            modular = true;
+        } catch (ClassNotFoundException e) {
+            modular = false;
+        }
+        if (modular) {
+            assertTrue(pathSet.contains("java/lang"));
+            assertTrue(pathSet.contains("java/util/concurrent"));
+        } else {
+            assertTrue(pathSet.isEmpty());
+        }
+    }
+
+    private Set<String> buildPathSet() {
+        return new TreeSet<String>(SystemClassPathIndex.buildPathSet("", archive.getPath(), cacheFile));
+    }
+
+    private static Set<String> paths(final String... paths) {
+        return new TreeSet<String>(Arrays.asList(paths));
+    }
+
+    /**
+     * The scan which SystemLocalLoader used to run eagerly, for comparison.
+     */
+    private static Set<String> eagerScan(final String classPath) {
+        final Set<String> pathSet = new TreeSet<String>();
+        final Set<String> jarSet = new HashSet<String>();
+        int s = 0, e;
+        do {
+            e = classPath.indexOf(File.pathSeparatorChar, s);
+            String item = e == -1 ? classPath.substring(s) : classPath.substring(s, e);
+            if (! jarSet.contains(item)) {
+                final File file = new File(item);
+                if (file.isDirectory()) {
+                    processDirectory0(pathSet, file);
+                } else {
+                    try {
+                        final ZipFile zipFile = new ZipFile(file);
+                        try {
+                            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+                            while (entries.hasMoreElements()) {
+                                final ZipEntry entry = entries.nextElement();
+                                final String name = entry.getName();
+                                final int lastSlash = name.lastIndexOf('/');
+                                if (lastSlash != -1) {
+                                    final String dirName = name.substring(0, lastSlash);
+                                    if (dirName.equals("META-INF")) {
+                                        continue;
+                                    }
+                                    pathSet.add(dirName);
+                                }
+                            }
+                        } finally {
+                            zipFile.close();
+                        }
+                    } catch (IOException ex) {
+                        // ignore
+                    }
+                }
+            }
+            s = e + 1;
+        } while (e != -1);
+        return pathSet;
+    }
+
+    private static void processDirectory0(final Set<String> pathSet, final File file) {
+        for (File entry : file.listFiles()) {
+            if (entry.getName().equals("META-INF")) {
+                continue;
+            }
+            if (entry.isDirectory()) {
+                processDirectory1(pathSet, entry, file.getPath());
+            } else {
+                final String parent = entry.getParent();
+                if (parent != null) pathSet.add(parent);
+            }
+        }
+    }
+
+    private static void processDirectory1(final Set<String> pathSet, final File file, final String pathBase) {
+        for (File entry : file.listFiles()) {
+            if (entry.isDirectory()) {
+                processDirectory1(pathSet, entry, pathBase);
+            } else {
+                String packagePath = entry.getParent();
+                if (packagePath != null) {
+                    packagePath = packagePath.substring(pathBase.length()).replace('\\', '/');
+                    if (packagePath.startsWith("/")) {
+                        packagePath = packagePath.substring(1);
+                    }
+                    pathSet.add(packagePath);
+                }
+            }
+        }
+    }
+
+    private static void writeJar(final File file, final String... names) throws IOException {
+        final JarOutputStream os = new JarOutputStream(new FileOutputStream(file));
+        try {
+            for (String name : names) {
+                final JarEntry entry = new JarEntry(name);
+                entry.setTime(1000000L);
+                os.putNextEntry(entry);
+                os.write(0);
+                os.closeEntry();
+            }
+        } finally {
+            os.close();
+        }
+    }
+
+    private static void deleteAll(final File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteAll(child);
+            }
+        }
+        file.delete();
+    }
+}
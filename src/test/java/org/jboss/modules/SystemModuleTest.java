@@ -25,6 +25,8 @@ package org.jboss.modules;
 import org.jboss.modules.filter.PathFilters;
 import org.jboss.modules.util.TestModuleLoader;
 
+import java.util.List;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -71,4 +73,23 @@ public class SystemModuleTest extends AbstractModuleTestCase {
         ClassLoader cl = module.getClassLoader();
         Assert.assertNotNull(cl.loadClass("org.jboss.modules.util.Util"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSystemLocalLoader() throws Exception {
+        final SystemLocalLoader loader = SystemLocalLoader.getInstance();
+        Assert.assertSame(Module.class, loader.loadClassLocal("org.jboss.modules.Module", false));
+        Assert.assertSame(String.class, loader.loadClassLocal("java.lang.String", false));
+        Assert.assertSame(String[].class, loader.loadClassLocal("[Ljava.lang.String;", false));
+        Assert.assertNull(loader.loadClassLocal("org.jboss.modules.test.nonexistent.Missing", false));
+        Assert.assertNull(loader.loadClassLocal("org.jboss.modules.Missing", false));
+        Assert.assertNull(loader.loadClassLocal("org.jboss.modules.Missing", false));
+
+        final List<Resource> resources = loader.loadResourceLocal("org/jboss/modules/Module.class");
+        Assert.assertEquals(1, resources.size());
+        final List<Resource> again = loader.loadResourceLocal("org/jboss/modules/Module.class");
+        Assert.assertEquals(1, again.size());
+        Assert.assertEquals(resources.get(0).getURL(), again.get(0).getURL());
+        Assert.assertTrue(loader.loadResourceLocal("org/jboss/modules/test/nonexistent/missing.txt").isEmpty());
+        Assert.assertTrue(loader.loadResourceLocal("org/jboss/modules/test/nonexistent/missing.txt").isEmpty());
+    }
+}
@@ -26,5 +26,11 @@ package org.jboss.modules.test;
  * @author John Bailey
  */
 public class TestClass {
-    
+
+    /**
+     * Get the caller module of this class, through reflection since the module system is not imported.
+     */
+    public static Object getCallerModule() throws Exception {
+        return Class.forName("org.jboss.modules.Module", false, ClassLoader.getSystemClassLoader()).getMethod("getCallerModule").invoke(null);
+    }
 }